@@ -0,0 +1,59 @@
+package com.stackoverflow.weiping;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long it takes to prepare a synthetic schedule for searching: building the TinkerGraph including
+ * all {@code next} edges, and building the native engine's departure index.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class GraphConstructionBenchmark {
+
+    @Param("1000")
+    int airports;
+
+    @Param("25")
+    int hubs;
+
+    @Param("360")
+    int maxConnectTime;
+
+    private Timetable timetable;
+    private ConnectionRules rules;
+
+    @Setup
+    public void setup() {
+        timetable = new SyntheticSchedule(airports, hubs, 2, 5, 4, 42).timetable();
+        rules = new ConnectionRules(0, maxConnectTime);
+        final BuildStats stats = new BuildStats();
+        FlightRouteGraph.createGraph(timetable, rules, stats);
+        System.out.println("\n" + timetable + " " + stats);
+    }
+
+    @Benchmark
+    public Object createGraph() {
+        return FlightRouteGraph.createGraph(timetable, rules, new BuildStats());
+    }
+
+    @Benchmark
+    public Object createNativeEngine() {
+        return new ConnectionScanRouteSearchEngine(timetable, rules);
+    }
+}
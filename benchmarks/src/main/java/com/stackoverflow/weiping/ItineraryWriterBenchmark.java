@@ -0,0 +1,59 @@
+package com.stackoverflow.weiping;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures formatting the results of a two-stop search on a synthetic hub-and-spoke schedule as JSON and as text,
+ * excluding the search itself.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ItineraryWriterBenchmark {
+
+    private final ItineraryWriter writer = new ItineraryWriter();
+    private final List<Itinerary> itineraries = new ArrayList<>();
+    private LocalDate travelDate;
+
+    @Setup
+    public void setup() {
+        final SyntheticSchedule schedule = new SyntheticSchedule(1000, 25, 2, 5, 4, 42);
+        final RouteSearchEngine engine = RouteSearchEngine.create("pareto", schedule.timetable(),
+                new ConnectionRules(0, 360));
+        travelDate = LocalDate.of(2019, 6, 12);
+        engine.findItineraries(new RouteQuery(travelDate, schedule.spoke(0, 0), schedule.spoke(1, 0), 45, 0, 24 * 60 - 1))
+                .forEachRemaining(itineraries::add);
+    }
+
+    @Benchmark
+    public int json() {
+        writer.reset().appendJson(travelDate, itineraries.iterator());
+        return writer.getBuffer().length();
+    }
+
+    @Benchmark
+    public int text() {
+        writer.reset();
+        for (int i = 0; i < itineraries.size(); i++) {
+            writer.appendText(travelDate, i + 1, itineraries.get(i));
+        }
+        return writer.getBuffer().length();
+    }
+}
@@ -0,0 +1,154 @@
+package com.stackoverflow.weiping;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.LocalDate;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the latency of single route searches on a synthetic hub-and-spoke schedule. All queries start at the
+ * same spoke airport and go to its own hub (direct), another hub (1 stop), a spoke of another hub (2 stops), or the
+ * same spoke with only the two hubs allowed as layover airports (via). The week benchmark asks for the three
+ * fastest two-stop routes on each day of the week starting with the travel date. The patterns engine is the native engine
+ * with {@link TransferPatterns} computed for the travel date, the bidirectional engine is the Gremlin engine that first
+ * searches backward for the days each flight can still reach the destination on.
+ * <p>
+ * With a finite {@code detourFactor}, the Gremlin engines only connect at airports within the detour limit of the
+ * schedule's {@link Geography}. In that case the setup checks that the pruned airports don't lose the fastest route
+ * of any query on any day of the week.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RouteSearchBenchmark {
+
+    @Param({"native", "patterns", "pareto", "gremlin", "bidirectional"})
+    String engine;
+
+    @Param("1000")
+    int airports;
+
+    @Param("25")
+    int hubs;
+
+    @Param("360")
+    int maxConnectTime;
+
+    @Param("Infinity")
+    double detourFactor;
+
+    private RouteSearchEngine searchEngine;
+    private RouteQuery direct;
+    private RouteQuery oneStop;
+    private RouteQuery twoStops;
+    private RouteQuery via;
+
+    @Setup
+    public void setup() {
+
+        final SyntheticSchedule schedule = new SyntheticSchedule(airports, hubs, 2, 5, 4, 42);
+        final Timetable timetable = schedule.timetable();
+        final ConnectionRules rules = new ConnectionRules(0, maxConnectTime);
+
+        // Wednesday, departing at any time of the day with a minimum connect time of 45 minutes
+        final LocalDate travelDate = LocalDate.of(2019, 6, 12);
+        if ("patterns".equals(engine)) {
+            final ConnectionScanRouteSearchEngine nativeEngine = new ConnectionScanRouteSearchEngine(timetable, rules);
+            nativeEngine.setTransferPatterns(TransferPatterns.build(nativeEngine, travelDate, travelDate, 45));
+            searchEngine = nativeEngine;
+        } else {
+            searchEngine = RouteSearchEngine.create(engine, timetable, rules, schedule.geography(detourFactor),
+                    MetricsRegistry.NOOP);
+        }
+        final String origin = schedule.spoke(0, 0);
+        direct = new RouteQuery(travelDate, origin, schedule.hub(0), 45, 0, 24 * 60 - 1);
+        oneStop = new RouteQuery(travelDate, origin, schedule.hub(1), 45, 0, 24 * 60 - 1);
+        twoStops = new RouteQuery(travelDate, origin, schedule.spoke(1, 0), 45, 0, 24 * 60 - 1);
+        via = new RouteQuery(travelDate, origin, schedule.spoke(1, 0), 45, 0, 24 * 60 - 1,
+                schedule.hub(0), schedule.hub(1));
+
+        if (searchEngine instanceof GremlinRouteSearchEngine && detourFactor != Double.POSITIVE_INFINITY) {
+            final RouteSearchEngine pareto = RouteSearchEngine.create("pareto", timetable, rules);
+            for (int day = 0; day < 7; day++) {
+                for (final RouteQuery query : new RouteQuery[]{direct, oneStop, twoStops, via}) {
+                    checkLayoverAirports((GremlinRouteSearchEngine) searchEngine, pareto, new RouteQuery(
+                            travelDate.plusDays(day), query.getOrigin(), query.getDestination(), 45, 0,
+                            24 * 60 - 1, query.getLayoverAirports()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks that the fastest route only connects at the engine's candidate layover airports.
+     */
+    private static void checkLayoverAirports(final GremlinRouteSearchEngine engine, final RouteSearchEngine pareto,
+                                             final RouteQuery query) {
+        final Set<String> layovers = engine.layoverAirports(query);
+        if (layovers == null) {
+            return;
+        }
+        final Iterator<Itinerary> routes = pareto.findItineraries(query);
+        if (routes.hasNext()) {
+            final Itinerary route = routes.next();
+            for (int i = 1; i < route.getLegCount(); i++) {
+                if (!layovers.contains(route.getLeg(i).getFrom())) {
+                    throw new IllegalStateException("Layover pruning loses " + route + " of " + query);
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public void direct(final Blackhole bh) {
+        search(direct, bh);
+    }
+
+    @Benchmark
+    public void oneStop(final Blackhole bh) {
+        search(oneStop, bh);
+    }
+
+    @Benchmark
+    public void twoStops(final Blackhole bh) {
+        search(twoStops, bh);
+    }
+
+    @Benchmark
+    public void via(final Blackhole bh) {
+        search(via, bh);
+    }
+
+    @Benchmark
+    public void week(final Blackhole bh) {
+        for (final List<Map<String, Object>> routes : searchEngine.findFlightsByDate(twoStops,
+                twoStops.getTravelDate().plusDays(6), 3).values()) {
+            bh.consume(routes);
+        }
+    }
+
+    private void search(final RouteQuery query, final Blackhole bh) {
+        final Iterator<Map<String, Object>> results = searchEngine.findFlights(query);
+        while (results.hasNext()) {
+            bh.consume(results.next());
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.stackoverflow.weiping;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long it takes to load a synthetic schedule from a CSV file. The default of 50000 airports (100 hubs,
+ * 10 daily flights per spoke) results in about 1M legs. The setup also reports the peak heap usage of a load.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class ScheduleLoaderBenchmark {
+
+    @Param("50000")
+    int airports;
+
+    @Param("100")
+    int hubs;
+
+    private Path file;
+
+    @Setup
+    public void setup() throws IOException {
+
+        file = Files.createTempFile("schedule", ".csv");
+        writeCsv(new SyntheticSchedule(airports, hubs, 10, 5, 4, 42).timetable(), file);
+
+        // the sum of the pools' peaks is an upper bound of the peak heap usage
+        System.gc();
+        long before = 0;
+        for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                before += pool.getUsage().getUsed();
+                pool.resetPeakUsage();
+            }
+        }
+        final LoadStats stats = new LoadStats();
+        final Timetable timetable = ScheduleLoader.load(file, stats);
+        long peak = 0;
+        for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        System.out.printf("%n%s %s heap[beforeMB:%.1f peakMB:%.1f]%n", timetable, stats, before / 1048576.0, peak / 1048576.0);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.delete(file);
+    }
+
+    @Benchmark
+    public Object load() throws IOException {
+        return ScheduleLoader.load(file, ScheduleLoader.Format.CSV, new LoadStats());
+    }
+
+    private static void writeCsv(final Timetable timetable, final Path file) throws IOException {
+        try (Writer out = Files.newBufferedWriter(file)) {
+            out.write("from,to,carrier,flightNumber,startDate,endDate,departure,arrival,overnight,days\n");
+            for (int l = 0; l < timetable.size(); l++) {
+                final int arrival = timetable.departure(l) + timetable.duration(l);
+                out.write(String.format("%s,%s,%s,%s,%s,%s,%02d:%02d,%02d:%02d,%b,",
+                        timetable.airport(timetable.origin(l)), timetable.airport(timetable.destination(l)),
+                        timetable.carrier(l), timetable.flightNumber(l),
+                        LocalDate.ofEpochDay(timetable.startDay(l)), LocalDate.ofEpochDay(timetable.endDay(l)),
+                        timetable.departure(l) / 60, timetable.departure(l) % 60, arrival / 60 % 24, arrival % 60,
+                        timetable.isOvernight(l)));
+                for (int dow = 1; dow <= 7; dow++) {
+                    if (timetable.flyingOnWeekday(l, dow)) out.write('0' + dow);
+                }
+                out.write('\n');
+            }
+        }
+    }
+}
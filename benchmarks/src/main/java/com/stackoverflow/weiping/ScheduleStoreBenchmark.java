@@ -0,0 +1,76 @@
+package com.stackoverflow.weiping;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures two-stop searches of the native engine through a {@link ScheduleStore}, alone and while another thread
+ * keeps adding and cancelling a flight between two hubs, each update publishing a new version.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ScheduleStoreBenchmark {
+
+    private ScheduleStore store;
+    private RouteQuery query;
+    private ScheduleUpdate add;
+    private ScheduleUpdate cancel;
+    private boolean added;
+
+    @Setup
+    public void setup() {
+        final SyntheticSchedule schedule = new SyntheticSchedule(1000, 25, 2, 5, 4, 42);
+        store = new ScheduleStore(schedule.timetable(), "native", new ConnectionRules(0, 360), MetricsRegistry.NOOP);
+        final LocalDate travelDate = LocalDate.of(2019, 6, 12);
+        query = new RouteQuery(travelDate, schedule.spoke(0, 0), schedule.spoke(1, 0), 45, 0, 24 * 60 - 1);
+        add = new ScheduleUpdate.Builder().add(new Flight(schedule.hub(0), schedule.hub(1), "ZZ", "1",
+                SyntheticSchedule.FIRST_DAY, SyntheticSchedule.LAST_DAY, LocalTime.of(12, 0), LocalTime.of(14, 0),
+                false, DayOfWeek.values())).build();
+        cancel = new ScheduleUpdate.Builder().cancel("ZZ", "1").build();
+    }
+
+    @Benchmark
+    public void search(final Blackhole bh) {
+        final Iterator<Map<String, Object>> results = store.findFlights(query);
+        while (results.hasNext()) {
+            bh.consume(results.next());
+        }
+    }
+
+    @Benchmark
+    @Group("updating")
+    @GroupThreads(3)
+    public void searchWhileUpdating(final Blackhole bh) {
+        search(bh);
+    }
+
+    @Benchmark
+    @Group("updating")
+    @GroupThreads(1)
+    public long update() {
+        added = !added;
+        return store.apply(added ? add : cancel).getNumber();
+    }
+}
@@ -1,32 +1,63 @@
 package com.stackoverflow.weiping;
 
-import org.apache.tinkerpop.gremlin.process.traversal.Operator;
-import org.apache.tinkerpop.gremlin.process.traversal.P;
-import org.apache.tinkerpop.gremlin.process.traversal.Pop;
-import org.apache.tinkerpop.gremlin.process.traversal.Scope;
-import org.apache.tinkerpop.gremlin.process.traversal.dsl.graph.GraphTraversal;
-import org.apache.tinkerpop.gremlin.process.traversal.dsl.graph.GraphTraversalSource;
-import org.apache.tinkerpop.gremlin.process.traversal.dsl.graph.__;
-import org.apache.tinkerpop.gremlin.structure.Column;
-
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.LocalDate;
-import java.time.LocalDateTime;
 import java.time.LocalTime;
-import java.time.format.DateTimeFormatter;
-import java.util.Collections;
 import java.util.Iterator;
-import java.util.List;
-import java.util.Locale;
-import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
-import static com.stackoverflow.weiping.util.TextUtil.*;
 import static com.stackoverflow.weiping.util.TimeUtil.*;
 
 public class App {
 
-    public static void main(final String... args) {
-
-        final GraphTraversalSource g = FlightRouteGraph.createSampleGraph().traversal();
+    private static final ItineraryWriter WRITER = new ItineraryWriter();
+    private static final Writer OUT = new OutputStreamWriter(System.out);
+
+    public static void main(final String... args) throws IOException, InterruptedException {
+
+        // select the search engine via -Dweiping.engine=gremlin|bidirectional|native|pareto and optionally
+        // cache its results via -Dweiping.cacheSize=<max. number of cached queries>
+        final String engineName = System.getProperty("weiping.engine", "gremlin");
+        final Timetable timetable = FlightRouteGraph.sampleTimetable();
+        final RouteSearchEngine searchEngine;
+
+        // optionally, the Gremlin engines only connect at airports within a detour limit, -Dweiping.detourFactor=<factor>
+        final Geography geography = FlightRouteGraph.sampleGeography().withDetourFactor(Double.parseDouble(
+                System.getProperty("weiping.detourFactor", Double.toString(Geography.DEFAULT_DETOUR_FACTOR))));
+
+        // optionally print metrics at the end via -Dweiping.metrics=true, including the queries slower than
+        // -Dweiping.slowQueryMs=<milliseconds>; they are profiled in the background via
+        // -Dweiping.profileSlowQueries=true
+        final ExecutorService profiler = Boolean.getBoolean("weiping.profileSlowQueries")
+                ? Executors.newSingleThreadExecutor() : null;
+        final SimpleMetricsRegistry registry = Boolean.getBoolean("weiping.metrics")
+                ? new SimpleMetricsRegistry(Long.getLong("weiping.slowQueryMs", 100), TimeUnit.MILLISECONDS, profiler)
+                : null;
+        final MetricsRegistry metrics = registry != null ? registry : MetricsRegistry.NOOP;
+
+        // optionally start from a snapshot of the prepared graph via -Dweiping.snapshot=<file>; the snapshot
+        // is written if the file doesn't exist yet
+        final String snapshot = System.getProperty("weiping.snapshot");
+        if (snapshot != null) {
+            final Path file = Paths.get(snapshot);
+            if (!Files.exists(file)) {
+                GraphSnapshot.write(timetable, ConnectionRules.UNRESTRICTED, file);
+            }
+            searchEngine = RouteSearchEngine.create(engineName,
+                    GraphSnapshot.read(file, timetable, ConnectionRules.UNRESTRICTED), geography, metrics);
+        } else {
+            searchEngine = RouteSearchEngine.create(engineName, timetable, ConnectionRules.UNRESTRICTED, geography,
+                    metrics);
+        }
+        final int cacheSize = Integer.getInteger("weiping.cacheSize", 0);
+        final RouteSearchEngine engine = cacheSize > 0 ? new CachingRouteSearchEngine(searchEngine, cacheSize) : searchEngine;
 
         {
             // Route from HNL to LHR departing 2019-01-24 (Thursday) from 08:00:00 but no
@@ -34,8 +65,8 @@ public class App {
             final LocalDate travelDate = LocalDate.of(2019, 1, 24);
             final String origin = "HNL";
             final String destination = "LHR";
-            final Iterator flights = findFlights(g, travelDate, origin, destination, 90,
-                    toMinutes(LocalTime.of(8, 0)), toMinutes(LocalTime.of(12, 0)));
+            final Iterator<Itinerary> flights = engine.findItineraries(new RouteQuery(travelDate, origin, destination, 90,
+                    toMinutes(LocalTime.of(8, 0)), toMinutes(LocalTime.of(12, 0))));
 
             printFlights(travelDate, origin, destination, flights);
         }
@@ -45,8 +76,8 @@ public class App {
             final LocalDate travelDate = LocalDate.of(2019, 3, 19);
             final String origin = "PDX";
             final String destination = "CAN";
-            final Iterator flights = findFlights(g, travelDate, origin, destination, 60,
-                    toMinutes(LocalTime.of(15, 0)), toMinutes(LocalTime.of(20, 0)));
+            final Iterator<Itinerary> flights = engine.findItineraries(new RouteQuery(travelDate, origin, destination, 60,
+                    toMinutes(LocalTime.of(15, 0)), toMinutes(LocalTime.of(20, 0))));
 
             printFlights(travelDate, origin, destination, flights);
         }
@@ -56,160 +87,38 @@ public class App {
             final LocalDate travelDate = LocalDate.of(2019, 8, 20);
             final String origin = "ORD";
             final String destination = "CAN";
-            final Iterator flights = findFlights(g, travelDate, origin, destination, 60,
+            final Iterator<Itinerary> flights = engine.findItineraries(new RouteQuery(travelDate, origin, destination, 60,
                     toMinutes(LocalTime.of(6, 0)), toMinutes(LocalTime.of(10, 0)),
-                    "LAX");
+                    "LAX"));
 
             printFlights(travelDate, origin, destination, flights);
         }
+
+        if (profiler != null) {
+            profiler.shutdown();
+            profiler.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        if (registry != null) {
+            OUT.write("=== Metrics ===\n\n");
+            OUT.write(registry.toString());
+            for (final String slowQuery : registry.getSlowQueries()) {
+                OUT.write("\n" + slowQuery + "\n");
+            }
+        }
+        OUT.flush();
     }
 
     private static void printFlights(final LocalDate travelDate, final String origin, final String destination,
-                                     final Iterator results) {
+                                     final Iterator<Itinerary> results) throws IOException {
 
-        System.out.println(String.format("\n=== Flights from %s to %s on %s ===\n", origin, destination, travelDate));
+        OUT.write(String.format("\n=== Flights from %s to %s on %s ===\n\n", origin, destination, travelDate));
 
         if (results.hasNext()) {
-
-            final DateTimeFormatter DTF = DateTimeFormatter.ofPattern("EEEE, yyyy-MM-dd HH:mm").withLocale(Locale.ENGLISH);
-            final DateTimeFormatter TF = DateTimeFormatter.ofPattern("HH:mm").withLocale(Locale.ENGLISH);
-
             for (int i = 1; results.hasNext(); i++) {
-
-                final Map result = (Map) results.next();
-                final List routes = (List) result.get("routes");
-                final List layovers = (List) result.get("layovers");
-                final int numStops = routes.size() - 1;
-
-                System.out.println(String.format("* Option %d (%s, %s)", i,
-                        numStops == 0 ? "direct" : String.format("%d %s", numStops, numStops == 1 ? "stop" : "stops"),
-                        durationToString((double) result.get("time"))));
-
-                LocalDateTime dt = LocalDate.from(travelDate)
-                        .atTime(toLocalTime((int) ((Map) routes.get(0)).get("depTime")));
-
-                for (int j = 0; j <= numStops; j++) {
-
-                    final Map route = (Map) routes.get(j);
-
-                    System.out.println(String.format("  - %s --[%s]-> %s (%s to %s)",
-                            route.get("depAirport"),
-                            String.format("%s-%s", route.get("carrier"), route.get("num")),
-                            route.get("arrAirport"),
-                            dt.format(DTF), (dt = dt.plusMinutes((int) route.get("dur")))
-                                    .format((boolean) route.get("o") ? DTF : TF)));
-
-                    if (j < numStops) {
-                        System.out.println(String.format("    (%s layover)", durationToString((int) layovers.get(j))));
-                        dt = dt.plusMinutes((int) layovers.get(j));
-                    } else {
-                        System.out.println();
-                    }
-                }
+                WRITER.appendText(travelDate, i, results.next()).flushTo(OUT);
             }
         } else {
-            System.out.println ("* No flights found.");
+            OUT.write("* No flights found.\n");
         }
     }
-
-    @SuppressWarnings("unchecked")
-    private static GraphTraversal findFlights(final GraphTraversalSource g, final LocalDate travelDate,
-                                              final String origin, final String destination,
-                                              final int minLayover, final int departureMinTime, final int departureMaxTime,
-                                              final String... layoverAirports) {
-
-        final GraphTraversal traversal = g.V(origin)
-                .inE("from")
-                    .has("start", P.lte(travelDate.toEpochDay()))
-                    .has("end", P.gte(travelDate.toEpochDay()))
-                    .has("dayOfWeek", travelDate.getDayOfWeek().getValue())
-                    .has("departure", P.gte(departureMinTime).and(P.lte(departureMaxTime)))
-                .outV().as("flight");
-
-        final GraphTraversal connectionTraversal =
-                __.outE("next").has("layover", P.gte(minLayover))
-                        .filter(__
-                                .project("start", "end", "date")
-                                    .by("start")
-                                    .by("end")
-                                    .by(__.select(Pop.last, "date"))
-                                .where("date", P.gte("start").and(P.lte("end"))));
-
-        if (layoverAirports.length > 0) {
-            final P layoverFilter = P.eq(destination).or(P.within(layoverAirports));
-            traversal.has("destination", layoverFilter);
-            connectionTraversal.filter(__.has("destination", layoverFilter));
-        }
-
-        connectionTraversal
-                .group()
-                    .by("flight")
-                .unfold().select(Column.values)
-                .order(Scope.local)
-                    .by("layover")
-                .limit(Scope.local, 1);
-
-        return traversal
-                .sack(Operator.assign)
-                    .by("duration")
-                .group("m")
-                    .by("destination")
-                    .by(__.sack())
-                .choose(__.values("overnight"))
-                    .option(false, __.constant(travelDate.toEpochDay()))
-                    .option(true, __.constant(travelDate.toEpochDay() + 1)).as("date")
-                .select("flight")
-                .until(__.has("destination", destination))
-                    .repeat(__
-                            .flatMap(connectionTraversal).as("connection")
-                            .sack(Operator.sum)
-                                .by("layover")
-                            .inV().as("flight")
-                            .map(__.union(
-                                    __.select(Pop.last, "date"),
-                                    __.has("overnight", true).constant(1)).sum()).as("date")
-                            .select(Pop.last, "flight")
-                            .sack(Operator.sum)
-                                .by("duration")
-                            // The next filter prevents the traversal from following routes that just hit an airport
-                            // that was already reached in a shorter travel time. The version for >= TP 3.4.0 is a lot
-                            // more efficient, but the old variant should still be worth it on larger graphs.
-                            // Also note, that this is another way to prevent cyclic paths.
-                            /* >= TP 3.4.0:
-                            .not(__.select("m")
-                                    .select(__.select(Pop.last, "flight").by("destination"))
-                                    .project("a","b")
-                                        .by()
-                                        .by(__.sack())
-                                    .where("a", P.gte("b")))*/
-                            /* < TP 3.4.0: */
-                            .not(__.values("destination").as("d")
-                                    .select("m").unfold().as("kv")
-                                    .select(Column.keys).where(P.eq("d"))
-                                    .select("kv")
-                                    .project("a","b")
-                                        .by(Column.values)
-                                        .by(__.sack())
-                                    .where("a", P.lt("b")))
-                            .group("m")
-                                .by("destination")
-                                .by(__.sack()))
-                .project("routes", "layovers", "time")
-                    .by(__.select(Pop.all, "flight")
-                            .by(__.unfold()
-                                    .project("depAirport", "depTime", "carrier", "num", "dur", "o", "arrAirport")
-                                        .by("origin")
-                                        .by("departure")
-                                        .by("carrier")
-                                        .by("flightNumber")
-                                        .by("duration")
-                                        .by("overnight")
-                                        .by("destination")
-                                    .fold()))
-                    .by(__.select(Pop.all, "connection")
-                            .unfold().values("layover").fold())
-                    .by(__.sack().math("_/60"))
-                .order()
-                    .by(__.select("time"));
-    }
 }
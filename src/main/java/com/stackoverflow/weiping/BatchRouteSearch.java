@@ -0,0 +1,144 @@
+package com.stackoverflow.weiping;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Runs many route searches against one shared engine in parallel. Results are returned in completion order, not
+ * in query order.
+ * <p>
+ * Queries are pulled from the input only while fewer than {@code maxPending} searches are running or waiting to
+ * be consumed, so a slow consumer throttles the searches instead of buffering an unbounded number of results.
+ * Any {@link Executor} can be used, e.g. a {@link ForkJoinPool} sized to the number of cores or, on JDK 21 and
+ * later, {@code Executors.newVirtualThreadPerTaskExecutor()}.
+ */
+class BatchRouteSearch {
+
+    private final RouteSearchEngine engine;
+    private final Executor executor;
+    private final int maxPending;
+
+    BatchRouteSearch(final RouteSearchEngine engine) {
+        this(engine, ForkJoinPool.commonPool(), 4 * Runtime.getRuntime().availableProcessors());
+    }
+
+    BatchRouteSearch(final RouteSearchEngine engine, final Executor executor, final int maxPending) {
+        if (maxPending < 1) {
+            throw new IllegalArgumentException("maxPending must be positive: " + maxPending);
+        }
+        this.engine = engine;
+        this.executor = executor;
+        this.maxPending = maxPending;
+    }
+
+    Stream<Result> search(final Collection<RouteQuery> queries) {
+        return search(queries.iterator());
+    }
+
+    Stream<Result> search(final Stream<RouteQuery> queries) {
+        return search(queries.iterator()).onClose(queries::close);
+    }
+
+    /**
+     * Searches all queries in parallel. The returned stream is sequential and pulls the next queries from the
+     * given iterator whenever a result is consumed.
+     */
+    Stream<Result> search(final Iterator<RouteQuery> queries) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(new Results(queries),
+                Spliterator.NONNULL | Spliterator.ORDERED), false);
+    }
+
+    private Result run(final RouteQuery query) {
+        try {
+            final List<Map<String, Object>> routes = new ArrayList<>();
+            engine.findFlights(query).forEachRemaining(routes::add);
+            return new Result(query, Collections.unmodifiableList(routes), null);
+        } catch (RuntimeException | Error e) {
+            return new Result(query, Collections.emptyList(), e);
+        }
+    }
+
+    private class Results implements Iterator<Result> {
+
+        private final Iterator<RouteQuery> queries;
+        private final BlockingQueue<Result> completed = new LinkedBlockingQueue<>();
+        private int pending;
+
+        Results(final Iterator<RouteQuery> queries) {
+            this.queries = queries;
+        }
+
+        private void submit() {
+            while (pending < maxPending && queries.hasNext()) {
+                final RouteQuery query = queries.next();
+                executor.execute(() -> completed.add(run(query)));
+                pending++;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            submit();
+            return pending > 0;
+        }
+
+        @Override
+        public Result next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            try {
+                final Result result = completed.take();
+                pending--;
+                return result;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for route search results", e);
+            }
+        }
+    }
+
+    static class Result {
+
+        private final RouteQuery query;
+        private final List<Map<String, Object>> routes;
+        private final Throwable error;
+
+        private Result(final RouteQuery query, final List<Map<String, Object>> routes, final Throwable error) {
+            this.query = query;
+            this.routes = routes;
+            this.error = error;
+        }
+
+        RouteQuery getQuery() {
+            return query;
+        }
+
+        /**
+         * @return the routes in the same form as {@link RouteSearchEngine#findFlights(RouteQuery)} returns them
+         */
+        List<Map<String, Object>> getRoutes() {
+            return routes;
+        }
+
+        /**
+         * @return the exception thrown by the search or {@code null} if the search succeeded
+         */
+        Throwable getError() {
+            return error;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.stackoverflow.weiping;
+
+/**
+ * Collects the sizes and timings of a flight route graph build.
+ */
+class BuildStats {
+
+    int airports;
+    int flights;
+    long nextEdges;
+    long flightsNanos;
+    long layoversNanos;
+
+    /**
+     * Records the timings of the build phases as {@code graph.flights} and {@code graph.layovers}.
+     */
+    void recordTo(final MetricsRegistry metrics) {
+        metrics.recordBuildPhase("graph.flights", flightsNanos);
+        metrics.recordBuildPhase("graph.layovers", layoversNanos);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("graph[airports:%d flights:%d next:%d flightsMs:%.1f layoversMs:%.1f]",
+                airports, flights, nextEdges, flightsNanos / 1e6, layoversNanos / 1e6);
+    }
+}
@@ -0,0 +1,236 @@
+package com.stackoverflow.weiping;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+
+import static com.stackoverflow.weiping.util.TimeUtil.MINUTES_PER_DAY;
+
+/**
+ * Caches the results of another engine in a size-bounded LRU map keyed by the normalized {@link RouteQuery}. The
+ * results are immutable copies, shared by all callers of the same query.
+ * <p>
+ * The entries belong to a version of the schedule: once a lookup sees a newer version, all entries are dropped.
+ * Within a version, the owner of the schedule can still report changes. Cancelled or modified flights only affect
+ * entries that mention one of the flight's airports, either in the query or in one of the cached routes, see
+ * {@link #invalidate(String, LocalDate, LocalDate)}. A new flight however may create routes through airports a
+ * cached entry does not know about yet and thus requires {@link #invalidate(LocalDate, LocalDate)}.
+ */
+class CachingRouteSearchEngine implements RouteSearchEngine {
+
+    private final RouteSearchEngine engine;
+    private final LongSupplier scheduleVersion;
+    private final Map<RouteQuery, CacheEntry> cache;
+
+    // guarded by this
+    private long version;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    /**
+     * Caches the results of an engine whose schedule doesn't change.
+     */
+    CachingRouteSearchEngine(final RouteSearchEngine engine, final int maxSize) {
+        this(engine, () -> 0, maxSize);
+    }
+
+    /**
+     * Caches the results of the current version of the store.
+     */
+    CachingRouteSearchEngine(final ScheduleStore store, final int maxSize) {
+        this(store, () -> store.current().getNumber(), maxSize);
+    }
+
+    /**
+     * @param scheduleVersion the version of the engine's schedule, which increases with every change, e.g.
+     *                        {@link FlightRouteGraph#version}
+     */
+    CachingRouteSearchEngine(final RouteSearchEngine engine, final LongSupplier scheduleVersion, final int maxSize) {
+        this.engine = engine;
+        this.scheduleVersion = scheduleVersion;
+        this.version = scheduleVersion.getAsLong();
+        this.cache = new LinkedHashMap<RouteQuery, CacheEntry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<RouteQuery, CacheEntry> eldest) {
+                if (size() > maxSize) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    @Override
+    public Iterator<Map<String, Object>> findFlights(final LocalDate travelDate,
+                                                     final String origin, final String destination,
+                                                     final int minLayover, final int departureMinTime, final int departureMaxTime,
+                                                     final String... layoverAirports) {
+        return findFlights(new RouteQuery(travelDate, origin, destination,
+                minLayover, departureMinTime, departureMaxTime, layoverAirports));
+    }
+
+    @Override
+    public Iterator<Map<String, Object>> findFlights(final RouteQuery query) {
+
+        final long scheduleVersion = this.scheduleVersion.getAsLong();
+        final long invalidationsBefore;
+        synchronized (this) {
+            if (scheduleVersion > version) {
+                version = scheduleVersion;
+                invalidate(entry -> true);
+            }
+            final CacheEntry entry = scheduleVersion == version ? cache.get(query) : null;
+            if (entry != null) {
+                hits++;
+                return entry.results.iterator();
+            }
+            misses++;
+            invalidationsBefore = invalidations;
+        }
+
+        final List<Map<String, Object>> results = new ArrayList<>();
+        engine.findFlights(query).forEachRemaining(result -> results.add(immutableCopy(result)));
+        final CacheEntry entry = new CacheEntry(query, Collections.unmodifiableList(results));
+
+        synchronized (this) {
+            // don't cache results that may have been computed from a schedule that changed in the meantime; a
+            // newer version that no lookup has seen yet drops the entry with the next lookup
+            if (scheduleVersion == version && invalidationsBefore == invalidations) {
+                cache.put(query, entry);
+            }
+        }
+
+        return entry.results.iterator();
+    }
+
+    /**
+     * Not cached, the wrapped engine may search all dates at once.
+     */
+    @Override
+    public Map<LocalDate, List<Map<String, Object>>> findFlightsByDate(final LocalDate firstDate, final LocalDate lastDate,
+                                                                       final int maxRoutes,
+                                                                       final String origin, final String destination,
+                                                                       final int minLayover, final int departureMinTime,
+                                                                       final int departureMaxTime,
+                                                                       final String... layoverAirports) {
+        return engine.findFlightsByDate(firstDate, lastDate, maxRoutes, origin, destination, minLayover,
+                departureMinTime, departureMaxTime, layoverAirports);
+    }
+
+    @Override
+    public String profile(final RouteQuery query) {
+        return engine.profile(query);
+    }
+
+    /**
+     * Removes all entries whose query or routes mention the given airport and whose travel period overlaps with
+     * the given date range.
+     *
+     * @return the number of removed entries
+     */
+    int invalidate(final String airport, final LocalDate from, final LocalDate to) {
+        return invalidate(entry -> entry.overlaps(from, to)
+                && (entry.query.mentions(airport) || entry.airports.contains(airport)));
+    }
+
+    /**
+     * Removes all entries whose travel period overlaps with the given date range.
+     *
+     * @return the number of removed entries
+     */
+    int invalidate(final LocalDate from, final LocalDate to) {
+        return invalidate(entry -> entry.overlaps(from, to));
+    }
+
+    int invalidateAll() {
+        return invalidate(entry -> true);
+    }
+
+    private synchronized int invalidate(final Predicate<CacheEntry> predicate) {
+        invalidations++;
+        final int size = cache.size();
+        cache.values().removeIf(predicate);
+        return size - cache.size();
+    }
+
+    synchronized int size() {
+        return cache.size();
+    }
+
+    synchronized long hits() {
+        return hits;
+    }
+
+    synchronized long misses() {
+        return misses;
+    }
+
+    synchronized long evictions() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("cache[size:%d hits:%d misses:%d evictions:%d]", cache.size(), hits, misses, evictions);
+    }
+
+    /**
+     * @return a deep copy of a result with unmodifiable maps and lists
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T immutableCopy(final T value) {
+        if (value instanceof Map) {
+            final Map<Object, Object> copy = new LinkedHashMap<>();
+            ((Map<Object, Object>) value).forEach((k, v) -> copy.put(k, immutableCopy(v)));
+            return (T) Collections.unmodifiableMap(copy);
+        }
+        if (value instanceof List) {
+            final List<Object> copy = new ArrayList<>();
+            ((List<Object>) value).forEach(v -> copy.add(immutableCopy(v)));
+            return (T) Collections.unmodifiableList(copy);
+        }
+        return value;
+    }
+
+    private static class CacheEntry {
+
+        final RouteQuery query;
+        final List<Map<String, Object>> results;
+        final Set<String> airports = new HashSet<>();
+        final long firstDay;
+        final long lastDay;
+
+        @SuppressWarnings("unchecked")
+        CacheEntry(final RouteQuery query, final List<Map<String, Object>> results) {
+            this.query = query;
+            this.results = results;
+            this.firstDay = query.getTravelDate().toEpochDay();
+            long lastDay = firstDay;
+            for (final Map<String, Object> result : results) {
+                final List<Map<String, Object>> routes = (List<Map<String, Object>>) result.get("routes");
+                for (final Map<String, Object> route : routes) {
+                    airports.add((String) route.get("depAirport"));
+                    airports.add((String) route.get("arrAirport"));
+                }
+                final double arrival = (int) routes.get(0).get("depTime") + ((Number) result.get("time")).doubleValue() * 60;
+                lastDay = Math.max(lastDay, firstDay + (long) (arrival / MINUTES_PER_DAY));
+            }
+            this.lastDay = lastDay;
+        }
+
+        boolean overlaps(final LocalDate from, final LocalDate to) {
+            return firstDay <= to.toEpochDay() && lastDay >= from.toEpochDay();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.stackoverflow.weiping;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.stackoverflow.weiping.util.TimeUtil.MINUTES_PER_WEEK;
+
+/**
+ * Minimum and maximum connect times (in minutes) that decide which connections are materialized as {@code next}
+ * edges. The global limits apply to every airport that has no limits of its own. Instances are immutable.
+ */
+class ConnectionRules {
+
+    /**
+     * Since layovers wrap around the week, these rules connect all flights at an airport.
+     */
+    static final ConnectionRules UNRESTRICTED = new ConnectionRules(0, MINUTES_PER_WEEK);
+
+    private final int minConnectTime;
+    private final int maxConnectTime;
+    private final Map<String, int[]> airports;
+
+    ConnectionRules(final int minConnectTime, final int maxConnectTime) {
+        this(minConnectTime, maxConnectTime, new HashMap<>());
+    }
+
+    private ConnectionRules(final int minConnectTime, final int maxConnectTime, final Map<String, int[]> airports) {
+        if (minConnectTime < 0 || maxConnectTime < minConnectTime) {
+            throw new IllegalArgumentException(String.format("Invalid connect times: %d-%d", minConnectTime, maxConnectTime));
+        }
+        this.minConnectTime = minConnectTime;
+        this.maxConnectTime = maxConnectTime;
+        this.airports = airports;
+    }
+
+    /**
+     * @return a copy of these rules with separate connect times for the given airport
+     */
+    ConnectionRules withAirport(final String airport, final int minConnectTime, final int maxConnectTime) {
+        return withAirports(Collections.singletonMap(airport, new int[]{minConnectTime, maxConnectTime}));
+    }
+
+    /**
+     * @param connectTimes the minimum and maximum connect time per airport
+     * @return a copy of these rules with separate connect times for the given airports
+     */
+    ConnectionRules withAirports(final Map<String, int[]> connectTimes) {
+        final Map<String, int[]> airports = new HashMap<>(this.airports);
+        connectTimes.forEach((airport, limits) -> {
+            if (limits[0] < 0 || limits[1] < limits[0]) {
+                throw new IllegalArgumentException(String.format("Invalid connect times for %s: %d-%d",
+                        airport, limits[0], limits[1]));
+            }
+            airports.put(airport, new int[]{limits[0], limits[1]});
+        });
+        return new ConnectionRules(this.minConnectTime, this.maxConnectTime, airports);
+    }
+
+    /**
+     * @return the minimum connect time of airports without limits of their own
+     */
+    int minConnectTime() {
+        return minConnectTime;
+    }
+
+    /**
+     * @return the maximum connect time of airports without limits of their own
+     */
+    int maxConnectTime() {
+        return maxConnectTime;
+    }
+
+    /**
+     * @return {@code true} if a maximum connect time applies anywhere; an earlier arrival at an airport then doesn't
+     * necessarily catch every flight that a later arrival catches
+     */
+    boolean hasMaxConnectTime() {
+        return maxConnectTime < MINUTES_PER_WEEK || airports.values().stream().anyMatch(l -> l[1] < MINUTES_PER_WEEK);
+    }
+
+    int minConnectTime(final String airport) {
+        final int[] limits = airports.get(airport);
+        return limits != null ? limits[0] : minConnectTime;
+    }
+
+    int maxConnectTime(final String airport) {
+        final int[] limits = airports.get(airport);
+        return limits != null ? limits[1] : maxConnectTime;
+    }
+}
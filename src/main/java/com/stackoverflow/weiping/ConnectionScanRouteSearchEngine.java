@@ -0,0 +1,821 @@
+package com.stackoverflow.weiping;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import static com.stackoverflow.weiping.util.TimeUtil.*;
+
+/**
+ * Time-dependent Dijkstra over the flights of a {@link FlightIndex}, one search per first flight. Routes are returned
+ * lazily in order of travel time, see {@link Results}.
+ * <p>
+ * Connections follow the same rules as {@link GremlinRouteSearchEngine} on a graph built with the same
+ * {@link ConnectionRules}: the layover wraps around the week, the validity of a connecting flight is checked against the travel date plus the number of
+ * overnight flights taken so far, and an airport that was already reached in a shorter travel time is
+ * not explored again. Since airports are settled in order of travel time, the latter yields the fastest
+ * route for every departure within the requested time window.
+ * <p>
+ * That only holds as long as an earlier arrival catches every flight a later arrival catches. With maximum connect
+ * times it may not, so the search then keeps a label per arriving flight instead of per airport, like
+ * {@link ParetoRouteSearchEngine}, and settles flights instead of airports, see {@link FlightIndex#labelsPerFlight}.
+ * <p>
+ * With {@link TransferPatterns} for the travel date and minimum layover, a search only follows the connections
+ * between the airports of the patterns computed for its origin and destination. The patterns only know the fastest
+ * routes over all airports, so queries restricted to layover airports don't use them.
+ */
+class ConnectionScanRouteSearchEngine implements RouteSearchEngine {
+
+    private static final int FOUND = -1;
+    private static final int UNREACHABLE = -2;
+
+    private static final int MIN_GUIDED_FIRST_FLIGHTS = 4;
+    private static final int WAS_CUT_OFF = 1 << 30;
+
+    private final Timetable timetable;
+    private final FlightIndex index;
+    private final ThreadLocal<SearchState> searchState;
+    private volatile TransferPatterns transferPatterns;
+
+    ConnectionScanRouteSearchEngine(final Timetable timetable) {
+        this(timetable, ConnectionRules.UNRESTRICTED);
+    }
+
+    ConnectionScanRouteSearchEngine(final Timetable timetable, final ConnectionRules rules) {
+        this(new FlightIndex(timetable, rules));
+    }
+
+    ConnectionScanRouteSearchEngine(final FlightIndex index) {
+        this.timetable = index.timetable;
+        this.index = index;
+        this.searchState = ThreadLocal.withInitial(SearchState::new);
+    }
+
+    FlightIndex getIndex() {
+        return index;
+    }
+
+    TransferPatterns getTransferPatterns() {
+        return transferPatterns;
+    }
+
+    /**
+     * Replaces the transfer patterns used by new queries; {@code null} turns them off. Queries that already started
+     * keep the patterns they started with.
+     */
+    void setTransferPatterns(final TransferPatterns patterns) {
+        this.transferPatterns = patterns;
+    }
+
+    /**
+     * Computes transfer patterns for the given days on the given executor and swaps them in once they are
+     * complete. Until then, queries use the current patterns (if any).
+     */
+    CompletableFuture<TransferPatterns> rebuildTransferPatterns(final LocalDate firstDay, final LocalDate lastDay,
+                                                                final int minLayover, final Executor executor) {
+        return CompletableFuture.supplyAsync(() -> TransferPatterns.build(this, firstDay, lastDay, minLayover), executor)
+                .thenApply(patterns -> {
+                    transferPatterns = patterns;
+                    return patterns;
+                });
+    }
+
+    /**
+     * Returns the routes lazily: the search stops as soon as the consumed routes are known to be the fastest ones and
+     * continues when more routes are requested. Consuming only the first k routes thus yields the top k.
+     */
+    @Override
+    public Iterator<Map<String, Object>> findFlights(final LocalDate travelDate,
+                                                     final String origin, final String destination,
+                                                     final int minLayover, final int departureMinTime, final int departureMaxTime,
+                                                     final String... layoverAirports) {
+
+        final int originId = timetable.airportId(origin);
+        final int destinationId = timetable.airportId(destination);
+        if (originId < 0 || destinationId < 0 || index.arrivalOffsets[destinationId] == index.arrivalOffsets[destinationId + 1]) {
+            return Collections.emptyIterator();
+        }
+
+        int[] layoverIds = null;
+        if (layoverAirports.length > 0) {
+            layoverIds = new int[layoverAirports.length];
+            for (int i = 0; i < layoverIds.length; i++) {
+                layoverIds[i] = timetable.airportId(layoverAirports[i]);
+            }
+        }
+
+        final TransferPatterns patterns = transferPatterns;
+        if (patterns != null && layoverIds == null && patterns.covers(travelDate, minLayover)) {
+            final int k = patterns.indexOf(originId, destinationId);
+            if (k < 0) {
+                return Collections.emptyIterator();
+            }
+            final QueryGraph queryGraph = new QueryGraph(patterns.hops(originId),
+                    patterns.firstHop(originId, k), patterns.lastHop(originId, k));
+            return new Results(originId, destinationId, layoverIds, queryGraph, travelDate, minLayover, departureMinTime, departureMaxTime);
+        }
+
+        return new Results(originId, destinationId, layoverIds, null, travelDate, minLayover, departureMinTime, departureMaxTime);
+    }
+
+    /**
+     * Searches all dates at once: the lower bounds and the scan of the origin's departures are shared, and a first
+     * flight is searched once for all dates with its weekday, checking the connecting flights' validity against
+     * the range of these dates. Only if a connecting flight that makes a difference is valid on some of them but
+     * not on others are the remaining dates searched again.
+     */
+    @Override
+    public Map<LocalDate, List<Map<String, Object>>> findFlightsByDate(final LocalDate firstDate, final LocalDate lastDate,
+                                                                       final int maxRoutes,
+                                                                       final String origin, final String destination,
+                                                                       final int minLayover, final int departureMinTime,
+                                                                       final int departureMaxTime,
+                                                                       final String... layoverAirports) {
+        if (lastDate.isBefore(firstDate)) {
+            throw new IllegalArgumentException(String.format("lastDate %s is before firstDate %s", lastDate, firstDate));
+        }
+        if (maxRoutes < 1) {
+            throw new IllegalArgumentException("maxRoutes must be positive: " + maxRoutes);
+        }
+
+        final int firstDay = (int) firstDate.toEpochDay();
+        final int days = (int) (lastDate.toEpochDay() - firstDay + 1);
+        final List<PriorityQueue<Route>> found = new ArrayList<>(days);
+        for (int d = 0; d < days; d++) {
+            found.add(new PriorityQueue<>(Collections.reverseOrder()));
+        }
+
+        final int originId = timetable.airportId(origin);
+        final int destinationId = timetable.airportId(destination);
+        if (originId >= 0 && destinationId >= 0 && index.arrivalOffsets[destinationId] != index.arrivalOffsets[destinationId + 1]) {
+            int[] layoverIds = null;
+            if (layoverAirports.length > 0) {
+                layoverIds = new int[layoverAirports.length];
+                for (int i = 0; i < layoverIds.length; i++) {
+                    layoverIds[i] = timetable.airportId(layoverAirports[i]);
+                }
+            }
+            final TransferPatterns patterns = transferPatterns;
+            if (patterns != null && layoverIds == null
+                    && patterns.covers(firstDate, minLayover) && patterns.covers(lastDate, minLayover)) {
+                final int k = patterns.indexOf(originId, destinationId);
+                if (k >= 0) {
+                    final QueryGraph queryGraph = new QueryGraph(patterns.hops(originId),
+                            patterns.firstHop(originId, k), patterns.lastHop(originId, k));
+                    searchDates(originId, destinationId, layoverIds, queryGraph, firstDay, days, maxRoutes, minLayover,
+                            departureMinTime, departureMaxTime, found);
+                }
+            } else {
+                searchDates(originId, destinationId, layoverIds, null, firstDay, days, maxRoutes, minLayover,
+                        departureMinTime, departureMaxTime, found);
+            }
+        }
+
+        final Map<LocalDate, List<Map<String, Object>>> results = new LinkedHashMap<>();
+        for (int d = 0; d < days; d++) {
+            final List<Route> routes = new ArrayList<>(found.get(d));
+            Collections.sort(routes);
+            final List<Map<String, Object>> best = new ArrayList<>(routes.size());
+            for (final Route route : routes) {
+                best.add(route.result);
+            }
+            results.put(firstDate.plusDays(d), best);
+        }
+        return results;
+    }
+
+    /**
+     * Searches the first flights on the dates {@code firstDay..firstDay+days)} in order of their lower bound,
+     * skipping those that can't be faster than the routes already found for any of their dates.
+     *
+     * @param found receives the fastest routes per date, slowest first
+     */
+    private void searchDates(final int originId, final int destinationId, final int[] layoverAirports,
+                             final QueryGraph queryGraph, final int firstDay, final int days, final int maxRoutes,
+                             final int minLayover, final int departureMinTime, final int departureMaxTime,
+                             final List<PriorityQueue<Route>> found) {
+
+        final SearchState state = searchState.get();
+        state.restrict(destinationId, layoverAirports, queryGraph);
+        state.expand(originId);
+
+        final long[] keys = new long[index.departureOffsets[originId + 1] - index.departureOffsets[originId]];
+        final int[] airports = new int[keys.length];
+        int n = 0, connecting = 0;
+        for (int i = index.departureOffsets[originId]; i < index.departureOffsets[originId + 1]; i++) {
+            final int flight = index.departures[i];
+            final int l = index.leg[flight];
+            if (timetable.departure(l) >= departureMinTime && timetable.departure(l) <= departureMaxTime
+                    && firstDate(flight, firstDay, days) >= 0 && state.isAllowed(timetable.destination(l))) {
+                keys[n] = (long) timetable.duration(l) << 32 | i;
+                airports[n++] = timetable.destination(l);
+                if (timetable.destination(l) != destinationId) connecting++;
+            }
+        }
+
+        int[] lowerBounds = null;
+        int m = n;
+        if (connecting >= MIN_GUIDED_FIRST_FLIGHTS && queryGraph == null) {
+            lowerBounds = new int[index.airportCount()];
+            index.lowerBounds(destinationId, minLayover, Arrays.copyOf(airports, n), lowerBounds);
+            m = 0;
+            for (int i = 0; i < n; i++) {
+                if (lowerBounds[airports[i]] != Integer.MAX_VALUE) {
+                    keys[m++] = keys[i] + ((long) lowerBounds[airports[i]] << 32);
+                }
+            }
+        }
+        Arrays.sort(keys, 0, m);
+
+        for (int i = 0; i < m; i++) {
+            final int bound = (int) (keys[i] >>> 32);
+            final int position = (int) keys[i];
+            final int flight = index.departures[position];
+            final int last = lastDate(flight, firstDay, days);
+
+            // searches the dates as one range, and the remaining dates again if the first date's result doesn't
+            // hold for them
+            for (int first = firstDate(flight, firstDay, days); first <= last; first += 7) {
+                // the slowest route that would still be among the fastest on one of the dates
+                int cutoff = -1;
+                for (int d = first; d <= last; d += 7) {
+                    cutoff = Math.max(cutoff, slowest(found.get(d), maxRoutes));
+                }
+                if (bound > cutoff) {
+                    break;
+                }
+                final int result = search(state, flight, destinationId, firstDay + first, firstDay + last, minLayover, lowerBounds, cutoff);
+                final boolean allDates = !state.mixedValidity;
+                if (result == FOUND) {
+                    for (int d = first; d <= (allDates ? last : first); d += 7) {
+                        offer(found.get(d), new Route(state.elapsed[state.found], position, toResult(state, state.found)), maxRoutes);
+                    }
+                }
+                if (allDates) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the travel time a route needs to beat to be among the fastest in {@code routes}
+     */
+    private static int slowest(final PriorityQueue<Route> routes, final int maxRoutes) {
+        return routes.size() < maxRoutes ? Integer.MAX_VALUE : routes.peek().elapsed;
+    }
+
+    private static void offer(final PriorityQueue<Route> routes, final Route route, final int maxRoutes) {
+        routes.add(route);
+        if (routes.size() > maxRoutes) {
+            routes.poll();
+        }
+    }
+
+    /**
+     * @return the first of the dates {@code firstDay..firstDay+days)} the given flight departs on, relative to
+     * {@code firstDay}, or -1 if there is none
+     */
+    private int firstDate(final int flight, final int firstDay, final int days) {
+        final int l = index.leg[flight];
+        final int from = Math.max(0, timetable.startDay(l) - firstDay);
+        final int d = from + Math.floorMod(index.dayOfWeek[flight] - dayOfWeek(firstDay + from), 7);
+        return d < days && firstDay + d <= timetable.endDay(l) ? d : -1;
+    }
+
+    /**
+     * @return the last of the dates {@code firstDay..firstDay+days)} the given flight departs on, relative to
+     * {@code firstDay}, if there is one
+     */
+    private int lastDate(final int flight, final int firstDay, final int days) {
+        final int l = index.leg[flight];
+        final int to = Math.min(days - 1, timetable.endDay(l) - firstDay);
+        return to - Math.floorMod(dayOfWeek(firstDay + to) - index.dayOfWeek[flight], 7);
+    }
+
+    /**
+     * Runs the search of a first flight to all airports, the same way a query without transfer patterns does. With
+     * {@link FlightIndex#labelsPerFlight labels per flight}, an airport is settled once per arriving flight, and the
+     * first time it is settled is its fastest route.
+     *
+     * @param settled receives the airports in the order they were settled, starting with the first flight's
+     *                destination; it needs room for {@link #maxSettled()} airports
+     * @param parents receives the position in {@code settled} that each settled airport was reached from, -1 for
+     *                the first flight's destination
+     * @return the number of settled airports
+     */
+    int searchAll(final int firstFlight, final int date, final int minLayover, final int[] settled, final int[] parents) {
+
+        final SearchState state = searchState.get();
+        state.restrict(-1, null, null);
+
+        final int l = index.leg[firstFlight];
+        state.reset(null);
+        state.start(timetable.origin(l));
+        state.offer(-1, timetable.destination(l), firstFlight, -1, timetable.duration(l), timetable.isOvernight(l) ? 1 : 0);
+
+        int n = 0, label;
+        while ((label = state.poll()) >= 0) {
+            final int parent = state.parent[label];
+            settled[n] = state.airport(label);
+            parents[n] = parent >= 0 ? state.position[parent] : -1;
+            state.position[label] = n++;
+            relax(state, label, -1, date, date, minLayover);
+        }
+        return n;
+    }
+
+    /**
+     * @return the maximum number of airports {@link #searchAll} settles
+     */
+    int maxSettled() {
+        return index.labelsPerFlight ? index.size() : index.airportCount();
+    }
+
+    /**
+     * Searches the routes of a first flight on all dates from {@code date} to {@code lastDate} with its weekday.
+     * The search runs for {@code date}; if a connecting flight's validity differs on any of the other dates,
+     * {@link SearchState#mixedValidity} is set and the result only holds for {@code date}.
+     *
+     * @param lowerBounds if not {@code null}, lower bounds for the remaining travel time from every airport, see
+     *                    {@link FlightIndex#lowerBounds}, that turn the search into an A* search
+     * @return {@link #FOUND}, {@link #UNREACHABLE} or, if the search was cut off because the fastest route is
+     * slower than {@code cutoff}, a lower bound for its travel time
+     */
+    private int search(final SearchState state, final int firstFlight, final int destinationId,
+                       final int date, final int lastDate, final int minLayover, final int[] lowerBounds, final int cutoff) {
+
+        final int l = index.leg[firstFlight];
+        state.reset(lowerBounds);
+        state.start(timetable.origin(l));
+        state.offer(-1, timetable.destination(l), firstFlight, -1, timetable.duration(l), timetable.isOvernight(l) ? 1 : 0);
+
+        int label;
+        while ((label = state.poll()) >= 0) {
+            if (state.airport(label) == destinationId) {
+                state.found = label;
+                return FOUND;
+            }
+            if (state.priority[label] > cutoff) {
+                return state.priority[label];
+            }
+            relax(state, label, destinationId, date, lastDate, minLayover);
+        }
+        return UNREACHABLE;
+    }
+
+    private void relax(final SearchState state, final int label, final int destinationId,
+                       final int date, final int lastDate, final int minLayover) {
+
+        final int airport = state.airport(label);
+        final int from = index.departureOffsets[airport];
+        final int to = index.departureOffsets[airport + 1];
+        final int count = to - from;
+        if (count == 0) {
+            return;
+        }
+
+        final int elapsed = state.elapsed[label];
+        final int dateOffset = state.dateOffset[label];
+        final int arrivalTime = index.arrival[state.inFlight[label]];
+        final int minConnectTime = Math.max(minLayover, index.minConnectTime[airport]);
+        final int maxConnectTime = index.maxConnectTime[airport];
+
+        // walk the departures in order of increasing layover, starting right after the arrival
+        final int first = index.firstDepartureAfter(from, to, arrivalTime) - from;
+        state.expand(airport);
+        for (int k = 0; k < count; k++) {
+            final int i = from + (first + k) % count;
+            final int layover = layoverTime(arrivalTime, index.departureWeekMinutes[i]);
+            if (layover < minConnectTime) {
+                continue;
+            }
+            if (layover > maxConnectTime) {
+                break;
+            }
+            final int total = elapsed + layover;
+            if (destinationId >= 0 && total >= state.destinationElapsed) {
+                break; // no later departure can beat the best known arrival at the destination
+            }
+            final int flight = index.departures[i];
+            final int l = index.leg[flight];
+            final int next = timetable.destination(l);
+            if (!state.isAllowed(next)) {
+                continue;
+            }
+            final int day = date + dateOffset;
+            final int time = total + timetable.duration(l);
+            final boolean valid = timetable.startDay(l) <= day && timetable.endDay(l) >= day;
+            // validity is a range of days, so a flight valid on the first and the last date is valid on all of them;
+            // a flight that isn't only matters if it improves the arrival at its destination
+            if (lastDate != date && (valid ? timetable.endDay(l) < lastDate + dateOffset
+                    : timetable.startDay(l) <= lastDate + dateOffset && timetable.endDay(l) > day)
+                    && state.improves(next, flight, time)) {
+                state.mixedValidity = true;
+            }
+            if (!valid) {
+                continue;
+            }
+            state.expandedEdges++;
+            state.offer(label, next, flight, layover, time, dateOffset + (timetable.isOvernight(l) ? 1 : 0));
+        }
+    }
+
+    private Map<String, Object> toResult(final SearchState state, final int destination) {
+
+        final List<Map<String, Object>> routes = new ArrayList<>();
+        final List<Integer> layovers = new ArrayList<>();
+
+        int label = destination;
+        while (true) {
+            final int l = index.leg[state.inFlight[label]];
+            final Map<String, Object> route = new LinkedHashMap<>();
+            route.put("depAirport", timetable.airport(timetable.origin(l)));
+            route.put("depTime", timetable.departure(l));
+            route.put("carrier", timetable.carrier(l));
+            route.put("num", timetable.flightNumber(l));
+            route.put("dur", timetable.duration(l));
+            route.put("o", timetable.isOvernight(l));
+            route.put("arrAirport", timetable.airport(timetable.destination(l)));
+            routes.add(route);
+            if (state.inLayover[label] < 0) {
+                break;
+            }
+            layovers.add(state.inLayover[label]);
+            label = state.parent[label];
+        }
+        Collections.reverse(routes);
+        Collections.reverse(layovers);
+
+        final Map<String, Object> result = new LinkedHashMap<>();
+        result.put("routes", routes);
+        result.put("layovers", layovers);
+        result.put("time", state.elapsed[destination] / 60.0);
+        return result;
+    }
+
+    /**
+     * Searches the first flights in order of a lower bound of their travel time and returns a route once no
+     * remaining first flight can be faster. With enough first flights to order, the bound is the flight's duration
+     * plus the {@link FlightIndex#lowerBounds lower bound} for the rest of the way, which also guides the searches,
+     * otherwise it's just the flight's duration.
+     * <p>
+     * While guided routes are waiting to be returned, searches stop as soon as they can't beat the fastest of them
+     * and the first flight is put back with the travel time reached so far as its new lower bound. Its next search
+     * runs to the end, since cutting it off again for every returned route could make the search quadratic. Hence
+     * neither the time to the first route nor the memory depend on the number of routes that are never consumed.
+     */
+    private final class Results implements Iterator<Map<String, Object>>, SearchCounts {
+
+        private final int destinationId;
+        private final int[] layoverAirports;
+        private final QueryGraph queryGraph;
+        private final int date;
+        private final int minLayover;
+        private final int[] lowerBounds;
+
+        // (lower bound << 32 | position in departures) of the first flights that may still yield a route
+        private final PriorityQueue<Long> firstFlights = new PriorityQueue<>();
+
+        // routes that were found but not returned yet, ordered by travel time
+        private final PriorityQueue<Route> found = new PriorityQueue<>();
+
+        private long expandedEdges;
+        private long prunedPaths;
+
+        Results(final int originId, final int destinationId, final int[] layoverAirports, final QueryGraph queryGraph,
+                final LocalDate travelDate, final int minLayover, final int departureMinTime, final int departureMaxTime) {
+
+            this.destinationId = destinationId;
+            this.layoverAirports = layoverAirports;
+            this.queryGraph = queryGraph;
+            this.date = (int) travelDate.toEpochDay();
+            this.minLayover = minLayover;
+
+            final SearchState state = searchState.get();
+            state.restrict(destinationId, layoverAirports, queryGraph);
+            state.expand(originId);
+
+            final int dow = travelDate.getDayOfWeek().getValue();
+            final long[] keys = new long[index.departureOffsets[originId + 1] - index.departureOffsets[originId]];
+            final int[] airports = new int[keys.length];
+            int n = 0, connecting = 0;
+            for (int i = index.departureOffsets[originId]; i < index.departureOffsets[originId + 1]; i++) {
+                final int flight = index.departures[i];
+                final int l = index.leg[flight];
+                if (index.dayOfWeek[flight] == dow && timetable.departure(l) >= departureMinTime && timetable.departure(l) <= departureMaxTime
+                        && index.isValid(flight, date) && state.isAllowed(timetable.destination(l))) {
+                    keys[n] = (long) timetable.duration(l) << 32 | i;
+                    airports[n++] = timetable.destination(l);
+                    if (timetable.destination(l) != destinationId) connecting++;
+                }
+            }
+
+            // computing the lower bounds costs about as much as a search or two, far more than a search
+            // restricted to a query graph
+            if (connecting >= MIN_GUIDED_FIRST_FLIGHTS && queryGraph == null) {
+                lowerBounds = new int[index.airportCount()];
+                index.lowerBounds(destinationId, minLayover, Arrays.copyOf(airports, n), lowerBounds);
+                for (int i = 0; i < n; i++) {
+                    if (lowerBounds[airports[i]] != Integer.MAX_VALUE) {
+                        firstFlights.add(keys[i] + ((long) lowerBounds[airports[i]] << 32));
+                    }
+                }
+            } else {
+                lowerBounds = null;
+                for (int i = 0; i < n; i++) {
+                    firstFlights.add(keys[i]);
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!firstFlights.isEmpty()
+                    && (found.isEmpty() || found.peek().elapsed >= (int) (firstFlights.peek() >>> 32))) {
+                final int key = (int) (long) firstFlights.poll();
+                final int position = key & ~WAS_CUT_OFF;
+                final int cutoff = lowerBounds == null || found.isEmpty() || (key & WAS_CUT_OFF) != 0
+                        ? Integer.MAX_VALUE : found.peek().elapsed;
+                final SearchState state = searchState.get();
+                // other searches on this thread may have run since the last call
+                state.restrict(destinationId, layoverAirports, queryGraph);
+                final long expanded = state.expandedEdges, pruned = state.prunedPaths;
+                final int result = search(state, index.departures[position], destinationId, date, date, minLayover, lowerBounds, cutoff);
+                expandedEdges += state.expandedEdges - expanded;
+                prunedPaths += state.prunedPaths - pruned;
+                if (result == FOUND) {
+                    found.add(new Route(state.elapsed[state.found], position, toResult(state, state.found)));
+                } else if (result != UNREACHABLE) {
+                    firstFlights.add((long) result << 32 | position | WAS_CUT_OFF);
+                }
+            }
+            return !found.isEmpty();
+        }
+
+        @Override
+        public Map<String, Object> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return found.poll().result;
+        }
+
+        @Override
+        public long getExpandedEdges() {
+            return expandedEdges;
+        }
+
+        @Override
+        public long getPrunedPaths() {
+            return prunedPaths;
+        }
+    }
+
+    /**
+     * A found route, ordered by travel time and then by departure.
+     */
+    private static final class Route implements Comparable<Route> {
+
+        final int elapsed;
+        final int position;
+        final Map<String, Object> result;
+
+        Route(final int elapsed, final int position, final Map<String, Object> result) {
+            this.elapsed = elapsed;
+            this.position = position;
+            this.result = result;
+        }
+
+        @Override
+        public int compareTo(final Route other) {
+            return elapsed != other.elapsed ? Integer.compare(elapsed, other.elapsed) : Integer.compare(position, other.position);
+        }
+    }
+
+    /**
+     * The connections between the airports of the transfer patterns of a query, as (from, to) pairs in
+     * {@code hops[first..last)}.
+     */
+    private static final class QueryGraph {
+
+        final int[] hops;
+        final int first;
+        final int last;
+
+        QueryGraph(final int[] hops, final int first, final int last) {
+            this.hops = hops;
+            this.first = first;
+            this.last = last;
+        }
+    }
+
+    /**
+     * Per-thread scratch space. Labels are per airport or, with {@link FlightIndex#labelsPerFlight}, per arriving
+     * flight. Generation stamps avoid clearing the arrays between searches.
+     */
+    private final class SearchState {
+
+        // per label
+        final int[] elapsed;
+        final int[] dateOffset;
+        final int[] inFlight;
+        final int[] inLayover;
+        final int[] parent;
+        final int[] position;
+        final int[] reached;
+        final int[] settled;
+        final int[] priority;
+
+        // per airport
+        final int[] allowed;
+        final int[] connectable;
+
+        int[] lowerBounds;
+        QueryGraph queryGraph;
+        int expansion;
+        int generation;
+        int query;
+        boolean restricted;
+        boolean mixedValidity;
+
+        int origin;
+        int destination;
+        int destinationElapsed;
+        int found;
+
+        // the work of all searches on this thread so far, see SearchCounts
+        long expandedEdges;
+        long prunedPaths;
+
+        // binary min-heap of (priority << 32 | label), the priority is the elapsed time plus the lower bound
+        // of the remaining travel time
+        long[] heap = new long[64];
+        int heapSize;
+
+        SearchState() {
+            final int labels = maxSettled();
+            elapsed = new int[labels];
+            dateOffset = new int[labels];
+            inFlight = new int[labels];
+            inLayover = new int[labels];
+            parent = new int[labels];
+            position = new int[labels];
+            reached = new int[labels];
+            settled = new int[labels];
+            priority = new int[labels];
+            allowed = new int[index.airportCount()];
+            connectable = new int[index.airportCount()];
+        }
+
+        void restrict(final int destinationId, final int[] layoverAirports, final QueryGraph queryGraph) {
+            restrictLayoverAirports(destinationId, layoverAirports);
+            this.queryGraph = queryGraph;
+            this.destination = destinationId;
+        }
+
+        /**
+         * Restricts the airports that may be reached next to the successors of the given airport in the query graph.
+         */
+        void expand(final int airport) {
+            if (queryGraph != null) {
+                expansion++;
+                for (int i = queryGraph.first; i < queryGraph.last; i += 2) {
+                    if (queryGraph.hops[i] == airport) connectable[queryGraph.hops[i + 1]] = expansion;
+                }
+            }
+        }
+
+        private void restrictLayoverAirports(final int destinationId, final int[] layoverAirports) {
+            query++;
+            restricted = layoverAirports != null;
+            if (restricted) {
+                allowed[destinationId] = query;
+                for (final int airport : layoverAirports) {
+                    if (airport >= 0) allowed[airport] = query;
+                }
+            }
+        }
+
+        /**
+         * @return {@code true} if the airport may be reached from the airport {@link #expand expanded} last
+         */
+        boolean isAllowed(final int airport) {
+            return (!restricted || allowed[airport] == query) && (queryGraph == null || connectable[airport] == expansion);
+        }
+
+        void reset(final int[] lowerBounds) {
+            generation++;
+            heapSize = 0;
+            mixedValidity = false;
+            destinationElapsed = Integer.MAX_VALUE;
+            this.lowerBounds = lowerBounds;
+        }
+
+        /**
+         * Starts a search from the given airport, which routes don't return to.
+         */
+        void start(final int airport) {
+            origin = airport;
+        }
+
+        int airport(final int label) {
+            return index.labelsPerFlight ? timetable.destination(index.leg[label]) : label;
+        }
+
+        /**
+         * @return {@code true} if arriving at the airport on the given flight after the given travel time would
+         * change its label
+         */
+        boolean improves(final int airport, final int flight, final int time) {
+            final int label = index.labelsPerFlight ? flight : airport;
+            return airport != origin && settled[label] != generation && (reached[label] != generation || elapsed[label] > time)
+                    && (lowerBounds == null || lowerBounds[airport] != Integer.MAX_VALUE);
+        }
+
+        /**
+         * @param from the label the flight connects from, -1 for a first flight
+         */
+        void offer(final int from, final int airport, final int flight, final int layover, final int time, final int offset) {
+            if (!improves(airport, flight, time) || index.labelsPerFlight && visits(from, airport)) {
+                prunedPaths++;
+                return;
+            }
+            final int label = index.labelsPerFlight ? flight : airport;
+            final int bound = lowerBounds != null ? lowerBounds[airport] : 0;
+            reached[label] = generation;
+            elapsed[label] = time;
+            dateOffset[label] = offset;
+            inFlight[label] = flight;
+            inLayover[label] = layover;
+            parent[label] = from;
+            priority[label] = time + bound;
+            if (airport == destination) {
+                destinationElapsed = Math.min(destinationElapsed, time);
+            }
+            push((long) priority[label] << 32 | label);
+        }
+
+        /**
+         * @return {@code true} if the route of the given label already arrived at the given airport; with labels per
+         * airport, settling them rules that out
+         */
+        private boolean visits(final int label, final int airport) {
+            for (int l = label; l >= 0; l = parent[l]) {
+                if (airport(l) == airport) return true;
+            }
+            return false;
+        }
+
+        int poll() {
+            while (heapSize > 0) {
+                final long top = heap[0];
+                heap[0] = heap[--heapSize];
+                siftDown();
+                final int label = (int) top;
+                if (settled[label] != generation && priority[label] == (int) (top >>> 32)) {
+                    settled[label] = generation;
+                    return label;
+                }
+            }
+            return -1;
+        }
+
+        private void push(final long value) {
+            if (heapSize == heap.length) {
+                heap = Arrays.copyOf(heap, heapSize * 2);
+            }
+            int i = heapSize++;
+            while (i > 0) {
+                final int parent = (i - 1) >>> 1;
+                if (heap[parent] <= value) break;
+                heap[i] = heap[parent];
+                i = parent;
+            }
+            heap[i] = value;
+        }
+
+        private void siftDown() {
+            final long value = heap[0];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= heapSize) break;
+                if (child + 1 < heapSize && heap[child + 1] < heap[child]) child++;
+                if (heap[child] >= value) break;
+                heap[i] = heap[child];
+                i = child;
+            }
+            heap[i] = value;
+        }
+    }
+}
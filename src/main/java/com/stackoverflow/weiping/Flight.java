@@ -3,8 +3,8 @@ package com.stackoverflow.weiping;
 import java.time.DayOfWeek;
 import java.time.LocalDate;
 import java.time.LocalTime;
-import java.util.Arrays;
-import java.util.HashSet;
+
+import static com.stackoverflow.weiping.util.TimeUtil.toMinutes;
 
 class Flight {
 
@@ -17,7 +17,7 @@ class Flight {
     private final LocalTime departureTime;
     private final LocalTime arrivalTime;
     private final boolean overnight;
-    private final HashSet<DayOfWeek> days;
+    private final int days; // bitmask, bit 0 = Monday
 
     Flight(final String from, final String to, final String carrier, final String flightNumber,
            final LocalDate startDate, final LocalDate endDate,
@@ -32,7 +32,11 @@ class Flight {
         this.departureTime = departureTime;
         this.arrivalTime = arrivalTime;
         this.overnight = overnight;
-        this.days = new HashSet<>(Arrays.asList(days));
+        int mask = 0;
+        for (final DayOfWeek day : days) {
+            mask |= 1 << (day.getValue() - 1);
+        }
+        this.days = mask;
     }
 
     String getFrom() {
@@ -71,7 +75,18 @@ class Flight {
         return overnight;
     }
 
+    /**
+     * @return the flight time in minutes
+     */
+    int getDuration() {
+        return toMinutes(arrivalTime) + (overnight ? 1 : 0) * 24 * 60 - toMinutes(departureTime);
+    }
+
+    int getDays() {
+        return days;
+    }
+
     boolean flyingOnWeekday(final DayOfWeek dayOfWeek) {
-        return days.contains(dayOfWeek);
+        return (days & (1 << (dayOfWeek.getValue() - 1))) != 0;
     }
 }
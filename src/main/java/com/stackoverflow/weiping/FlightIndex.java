@@ -0,0 +1,209 @@
+package com.stackoverflow.weiping;
+
+import java.util.Arrays;
+
+import static com.stackoverflow.weiping.util.TimeUtil.*;
+
+/**
+ * The flights of a {@link Timetable} in the form the native search engines scan them. Legs are expanded into one
+ * flight per weekday (the equivalent of the graph's flight vertices) and departures are grouped per airport in
+ * weekly order, so connections can be derived on the fly instead of walking {@code next} edges.
+ */
+class FlightIndex {
+
+    final Timetable timetable;
+
+    // connect times per airport
+    final int[] minConnectTime;
+    final int[] maxConnectTime;
+
+    // true if a maximum connect time may keep an earlier arrival at an airport from catching a flight that a later
+    // arrival catches; searches then need a label per arriving flight instead of one per airport
+    final boolean labelsPerFlight;
+
+    // one entry per flight, i.e. per leg and weekday
+    final int[] leg;
+    final int[] dayOfWeek;
+    final int[] arrival; // minute of the week
+
+    // departures grouped by airport; departures[departureOffsets[a]..departureOffsets[a+1]) are
+    // the flights leaving airport a, ordered by their minute of the week
+    final int[] departureOffsets;
+    final int[] departures;
+    final int[] departureWeekMinutes;
+
+    // legs grouped by destination; arrivals[arrivalOffsets[a]..arrivalOffsets[a+1]) are the legs to airport a
+    final int[] arrivalOffsets;
+    final int[] arrivals;
+
+    FlightIndex(final Timetable timetable, final ConnectionRules rules) {
+
+        this.timetable = timetable;
+
+        minConnectTime = new int[timetable.airportCount()];
+        maxConnectTime = new int[timetable.airportCount()];
+        boolean bounded = false;
+        for (int a = 0; a < timetable.airportCount(); a++) {
+            minConnectTime[a] = rules.minConnectTime(timetable.airport(a));
+            maxConnectTime[a] = rules.maxConnectTime(timetable.airport(a));
+            bounded |= maxConnectTime[a] < MINUTES_PER_WEEK;
+        }
+        labelsPerFlight = bounded;
+
+        int n = 0;
+        for (int l = 0; l < timetable.size(); l++) {
+            n += Integer.bitCount(timetable.days(l));
+        }
+
+        leg = new int[n];
+        dayOfWeek = new int[n];
+        arrival = new int[n];
+
+        // sort (airport, minute of the week, flight) triples to build the per-airport departure lists
+        final long[] keys = new long[n];
+        for (int l = 0, i = 0; l < timetable.size(); l++) {
+            for (int dow = 1; dow <= 7; dow++) {
+                if (timetable.flyingOnWeekday(l, dow)) {
+                    leg[i] = l;
+                    dayOfWeek[i] = dow;
+                    arrival[i] = arrivalWeekMinute(dow, timetable.departure(l), timetable.duration(l));
+                    keys[i] = ((long) timetable.origin(l) * MINUTES_PER_WEEK + toWeekMinute(dow, timetable.departure(l))) << 32 | i;
+                    i++;
+                }
+            }
+        }
+        Arrays.sort(keys);
+
+        departureOffsets = new int[timetable.airportCount() + 1];
+        departures = new int[n];
+        departureWeekMinutes = new int[n];
+        for (int i = 0; i < n; i++) {
+            final int flight = (int) keys[i];
+            departures[i] = flight;
+            departureWeekMinutes[i] = toWeekMinute(dayOfWeek[flight], timetable.departure(leg[flight]));
+            departureOffsets[timetable.origin(leg[flight]) + 1]++;
+        }
+        for (int a = 0; a < timetable.airportCount(); a++) {
+            departureOffsets[a + 1] += departureOffsets[a];
+        }
+
+        arrivalOffsets = new int[timetable.airportCount() + 1];
+        arrivals = new int[timetable.size()];
+        for (int l = 0; l < timetable.size(); l++) {
+            final int a = timetable.destination(l);
+            arrivalOffsets[a + 1]++;
+        }
+        for (int a = 0; a < timetable.airportCount(); a++) {
+            arrivalOffsets[a + 1] += arrivalOffsets[a];
+        }
+        final int[] next = Arrays.copyOf(arrivalOffsets, timetable.airportCount());
+        for (int l = 0; l < timetable.size(); l++) {
+            arrivals[next[timetable.destination(l)]++] = l;
+        }
+    }
+
+    int size() {
+        return leg.length;
+    }
+
+    int airportCount() {
+        return timetable.airportCount();
+    }
+
+    /**
+     * @return the position of the first departure in {@code departures[from..to)} that leaves after the given
+     * minute of the week, or {@code to} if there is none
+     */
+    int firstDepartureAfter(final int from, final int to, final int weekMinute) {
+        int lo = from, hi = to;
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (departureWeekMinutes[mid] <= weekMinute) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Calculates a lower bound for the remaining travel time from an arrival at an airport to the arrival at the
+     * given destination, ignoring the schedule: the sum of the minimum connect times (at least a minute) and the
+     * shortest legs along the way. The calculation stops as soon as the bounds of all given airports are known, all
+     * other airports get the largest bound known at that point, which is still a lower bound.
+     *
+     * @param bounds receives the bounds, {@link Integer#MAX_VALUE} for airports the destination can't be reached from
+     */
+    void lowerBounds(final int destination, final int minLayover, final int[] airports, final int[] bounds) {
+
+        Arrays.fill(bounds, Integer.MAX_VALUE);
+        bounds[destination] = 0;
+
+        final boolean[] settled = new boolean[airportCount()];
+        final boolean[] wanted = new boolean[airportCount()];
+        int remaining = 0;
+        for (final int airport : airports) {
+            if (!wanted[airport]) {
+                wanted[airport] = true;
+                remaining++;
+            }
+        }
+
+        // binary min-heap of (bound << 32 | airport); outdated entries are skipped
+        long[] heap = new long[64];
+        int size = 1;
+        heap[0] = destination;
+
+        while (size > 0) {
+            final long top = heap[0];
+            final long last = heap[--size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) break;
+                if (child + 1 < size && heap[child + 1] < heap[child]) child++;
+                if (heap[child] >= last) break;
+                heap[i] = heap[child];
+                i = child;
+            }
+            heap[i] = last;
+
+            final int airport = (int) top;
+            final int bound = (int) (top >>> 32);
+            if (settled[airport]) {
+                continue;
+            }
+            settled[airport] = true;
+            if (wanted[airport] && --remaining == 0) {
+                for (int a = 0; a < bounds.length; a++) {
+                    if (!settled[a]) bounds[a] = bound;
+                }
+                return;
+            }
+            for (int k = arrivalOffsets[airport]; k < arrivalOffsets[airport + 1]; k++) {
+                final int l = arrivals[k];
+                final int from = timetable.origin(l);
+                final int candidate = bound + timetable.duration(l) + Math.max(1, Math.max(minLayover, minConnectTime[from]));
+                if (!settled[from] && candidate < bounds[from]) {
+                    bounds[from] = candidate;
+                    if (size == heap.length) {
+                        heap = Arrays.copyOf(heap, 2 * size);
+                    }
+                    final long value = (long) candidate << 32 | from;
+                    int j = size++;
+                    while (j > 0 && heap[(j - 1) >>> 1] > value) {
+                        heap[j] = heap[(j - 1) >>> 1];
+                        j = (j - 1) >>> 1;
+                    }
+                    heap[j] = value;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return {@code true} if the given flight operates on the given day (in days since the epoch)
+     */
+    boolean isValid(final int flight, final int day) {
+        final int l = leg[flight];
+        return timetable.startDay(l) <= day && timetable.endDay(l) >= day;
+    }
+}
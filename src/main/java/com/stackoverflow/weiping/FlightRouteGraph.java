@@ -1,25 +1,32 @@
 package com.stackoverflow.weiping;
 
-import org.apache.tinkerpop.gremlin.process.traversal.dsl.graph.GraphTraversalSource;
-import org.apache.tinkerpop.gremlin.process.traversal.dsl.graph.__;
+import org.apache.tinkerpop.gremlin.process.traversal.dsl.graph.GraphTraversal;
+import org.apache.tinkerpop.gremlin.structure.Direction;
+import org.apache.tinkerpop.gremlin.structure.Edge;
 import org.apache.tinkerpop.gremlin.structure.Graph;
 import org.apache.tinkerpop.gremlin.structure.T;
 import org.apache.tinkerpop.gremlin.structure.Vertex;
 import org.apache.tinkerpop.gremlin.tinkergraph.structure.TinkerGraph;
+import org.apache.tinkerpop.gremlin.util.iterator.IteratorUtils;
 
 import java.time.DayOfWeek;
 import java.time.LocalDate;
 import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
 import java.util.Arrays;
-import java.util.Map;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
+import java.util.function.IntUnaryOperator;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
-import static com.stackoverflow.weiping.util.TimeUtil.daysBetween;
-import static com.stackoverflow.weiping.util.TimeUtil.toLocalTime;
-import static com.stackoverflow.weiping.util.TimeUtil.toMinutes;
+import static com.stackoverflow.weiping.util.TimeUtil.*;
 
 class FlightRouteGraph {
-    
+
     private static Flight[] SAMPLE_FLIGHTS = new Flight[]{
             new Flight("HNL", "PDX", "AA", "100", LocalDate.of(2019, 1, 23), LocalDate.of(2019, 3, 20), LocalTime.of(8, 0), LocalTime.of(13, 0), false, DayOfWeek.SATURDAY, DayOfWeek.SUNDAY),
             new Flight("HNL", "PDX", "AA", "201", LocalDate.of(2019, 1, 23), LocalDate.of(2019, 3, 20), LocalTime.of(8, 0), LocalTime.of(13, 0), false, DayOfWeek.MONDAY, DayOfWeek.TUESDAY, DayOfWeek.WEDNESDAY, DayOfWeek.THURSDAY, DayOfWeek.FRIDAY),
@@ -33,102 +40,420 @@ class FlightRouteGraph {
             new Flight("PDX", "CAN", "CC", "22", LocalDate.of(2019, 3, 11), LocalDate.of(2019, 12, 24), LocalTime.of(15, 0), LocalTime.of(6, 0), true, DayOfWeek.TUESDAY, DayOfWeek.SATURDAY)
     };
 
-    private static Stream<Flight> sampleFlights() {
+    static Stream<Flight> sampleFlights() {
         return Arrays.stream(SAMPLE_FLIGHTS);
     }
 
+    static Timetable sampleTimetable() {
+        return Timetable.of(sampleFlights());
+    }
+
+    /**
+     * @return the coordinates of the sample airports with the default detour factor
+     */
+    static Geography sampleGeography() {
+        return new Geography(Geography.DEFAULT_DETOUR_FACTOR)
+                .withAirport("HNL", 21.32, -157.92)
+                .withAirport("PDX", 45.59, -122.60)
+                .withAirport("LHR", 51.47, -0.45)
+                .withAirport("ORD", 41.98, -87.90)
+                .withAirport("LAX", 33.94, -118.41)
+                .withAirport("CAN", 23.39, 113.30);
+    }
+
     static Graph createSampleGraph() {
+        return createGraph(sampleTimetable());
+    }
 
-        final Graph graph = TinkerGraph.open();
+    static Graph createGraph(final Timetable timetable) {
+        return createGraph(timetable, ConnectionRules.UNRESTRICTED, new BuildStats());
+    }
 
-        // create airport vertices
-        sampleFlights().
-                flatMap(flight -> Stream.of(flight.getFrom(), flight.getTo())).distinct().
-                forEach(airport -> graph.addVertex(T.id, airport, T.label, "airport", "name", airport));
-
-        // create flight vertices and edges between airports and flights
-        sampleFlights().forEach(flight -> {
-
-            final int departure = toMinutes(flight.getDepartureTime());
-            final int arrival = toMinutes(flight.getArrivalTime()) + (flight.isOvernight() ? 1 : 0) * 24 * 60;
-
-            for (int dow = 1; dow <= 7; dow++) {
-
-                if (flight.flyingOnWeekday(DayOfWeek.of(dow))) {
-
-                    final String id = String.join("-", flight.getCarrier(), flight.getFlightNumber(), Integer.toString(dow));
-                    final Vertex fv = graph.addVertex(T.id, id, T.label, "flight",
-                            "carrier", flight.getCarrier(),
-                            "flightNumber", flight.getFlightNumber(),
-                            "departure", departure,
-                            "duration", arrival - departure,
-                            "overnight", flight.isOvernight(),
-                            "dayOfWeek", dow,
-                            "origin", flight.getFrom(),     // denormalize origin and destination to
-                            "destination", flight.getTo()); // improve query/filter performance
-
-                    fv.addEdge("from", graph.vertices(flight.getFrom()).next(),
-                            "start", flight.getStartDate().toEpochDay(),
-                            "end", flight.getEndDate().toEpochDay(),
-                            "dayOfWeek", dow,
-                            "departure", departure);
-                    fv.addEdge("to", graph.vertices(flight.getTo()).next());
+    /**
+     * @param rules only connections within the connect times of these rules will be materialized
+     * @param stats receives the number of created vertices and edges and the time spent on each phase
+     */
+    static Graph createGraph(final Timetable timetable, final ConnectionRules rules, final BuildStats stats) {
+        return createGraph(timetable, rules, Geography.NONE, stats);
+    }
+
+    /**
+     * Same as {@link #createGraph(Timetable, ConnectionRules, BuildStats)}, with the {@code latitude} and
+     * {@code longitude} of the airports the geography knows as properties of their vertices.
+     */
+    static Graph createGraph(final Timetable timetable, final ConnectionRules rules, final Geography geography,
+                             final BuildStats stats) {
+
+        final TinkerGraph graph = TinkerGraph.open();
+        final long start = System.nanoTime();
+        addFlights(graph, timetable, geography, stats);
+
+        final long layoversStart = System.nanoTime();
+        stats.flightsNanos = layoversStart - start;
+        stats.nextEdges = computeLayovers(graph, rules);
+        stats.layoversNanos = System.nanoTime() - layoversStart;
+
+        return graph;
+    }
+
+    /**
+     * Restores the graph of a snapshot; instead of computing the {@code next} edges, the snapshot's edges are added.
+     *
+     * @param stats receives the number of created vertices and edges and the time spent on each phase
+     */
+    static Graph createGraph(final GraphSnapshot snapshot, final BuildStats stats) {
+        return createGraph(snapshot, Geography.NONE, stats);
+    }
+
+    /**
+     * Same as {@link #createGraph(GraphSnapshot, BuildStats)}, with the airport coordinates of the geography like
+     * {@link #createGraph(Timetable, ConnectionRules, Geography, BuildStats)}.
+     */
+    static Graph createGraph(final GraphSnapshot snapshot, final Geography geography, final BuildStats stats) {
+
+        final Timetable timetable = snapshot.getTimetable();
+        final TinkerGraph graph = TinkerGraph.open();
+        final long start = System.nanoTime();
+        final Vertex[][] flights = addFlights(graph, timetable, geography, stats);
+
+        final long layoversStart = System.nanoTime();
+        stats.flightsNanos = layoversStart - start;
+
+        // the snapshot numbers flights like a FlightIndex: by leg and weekday
+        final Vertex[] vertices = new Vertex[stats.flights];
+        final int[] legs = new int[stats.flights];
+        for (int leg = 0, f = 0; leg < flights.length; leg++) {
+            for (final Vertex fv : flights[leg]) {
+                legs[f] = leg;
+                vertices[f++] = fv;
+            }
+        }
+        final int[] firstFlight = new int[flights.length];
+        for (int leg = 1; leg < flights.length; leg++) {
+            firstFlight[leg] = firstFlight[leg - 1] + flights[leg - 1].length;
+        }
+
+        // all next edges are between flights arriving at and departing from the same airport, so adding them per
+        // airport of arrival leaves each edge set with a single writer, like computeLayovers
+        final LongAdder edges = new LongAdder();
+        forEachAirport(timetable, timetable::destination, leg -> {
+            for (int f = firstFlight[leg]; f < firstFlight[leg] + flights[leg].length; f++) {
+                for (int e = snapshot.firstNext(f); e < snapshot.lastNext(f); e++) {
+                    final int next = snapshot.next(e);
+                    final int nextLeg = legs[next];
+                    vertices[f].addEdge("next", vertices[next],
+                            "start", (long) timetable.startDay(nextLeg),
+                            "end", (long) timetable.endDay(nextLeg),
+                            "layover", snapshot.layover(e),
+                            "destination", timetable.airport(timetable.destination(nextLeg)),
+                            "flight", String.join("-", timetable.carrier(nextLeg), timetable.flightNumber(nextLeg)));
                 }
+                edges.add(snapshot.lastNext(f) - snapshot.firstNext(f));
             }
         });
-
-        computeLayovers(graph);
+        stats.nextEdges = edges.sum();
+        stats.layoversNanos = System.nanoTime() - layoversStart;
 
         return graph;
     }
 
-    private static void computeLayovers(final Graph graph) {
-
-        final GraphTraversalSource g = graph.traversal();
-
-        g.V().hasLabel("flight").as("previousFlight")
-                .out("to").inE("from").as("e").outV().as("nextFlight")
-                .select("previousFlight","nextFlight", "e")
-                    .by(__.project("id","dow", "dep", "dur")
-                            .by(T.id)
-                            .by("dayOfWeek")
-                            .by("departure")
-                            .by("duration"))
-                    .by(__.project("id", "dow", "dep", "dst", "c", "fn")
-                            .by(T.id)
-                            .by("dayOfWeek")
-                            .by("departure")
-                            .by("destination")
-                            .by("carrier")
-                            .by("flightNumber"))
-                    .by(__.project("start", "end")
-                            .by("start")
-                            .by("end"))
-                .forEachRemaining(m -> {
-
-            final Map prev = (Map) m.get("previousFlight");
-            final Map next = (Map) m.get("nextFlight");
-            final int layoverTime = calculateLayoverTime(
-                    DayOfWeek.of((int) prev.get("dow")), (int) prev.get("dep"), (int) prev.get("dur"),
-                    DayOfWeek.of((int) next.get("dow")), (int) next.get("dep"));
-
-            graph.vertices(prev.get("id")).next()
-                    .addEdge("next", graph.vertices(next.get("id")).next(),
-                            "start", ((Map) m.get("e")).get("start"),  // denormalize start, end, ...
-                            "end", ((Map) m.get("e")).get("end"),
-                            "layover", layoverTime,
-                            "destination", next.get("dst"), // ... destination and flight to improve filter performance
-                            "flight", String.join("-", (String) next.get("c"), (String) next.get("fn")));
+    /**
+     * Creates the airport and flight vertices and the edges between airports and flights.
+     *
+     * @return the flight vertices per leg, ordered by weekday
+     */
+    private static Vertex[][] addFlights(final TinkerGraph graph, final Timetable timetable, final Geography geography,
+                                         final BuildStats stats) {
+
+        // the searches start at an airport vertex and walk its edges, so the only index (TinkerGraph uses them for
+        // has() filters that directly follow g.V() or g.E()) is the one cancelFlight looks flight numbers up by;
+        // later changes to the graph keep it up to date
+        graph.createIndex("flightNumber", Vertex.class);
+
+        // create airport vertices
+        final Vertex[] airports = new Vertex[timetable.airportCount()];
+        IntStream.range(0, airports.length).parallel().forEach(a -> {
+            airports[a] = addAirport(graph, timetable.airport(a));
+            if (geography.contains(timetable.airport(a))) {
+                airports[a].property("latitude", geography.latitude(timetable.airport(a)));
+                airports[a].property("longitude", geography.longitude(timetable.airport(a)));
+            }
+        });
+
+        // create flight vertices and edges between airports and flights in parallel; the graph's vertex and edge
+        // maps and its indexes are thread-safe, but the edge sets of a vertex are not, so all edges of an airport
+        // are added by the same thread: first the flights' from edges grouped by origin, then the to edges
+        // grouped by destination
+        final Vertex[][] flights = new Vertex[timetable.size()][];
+        forEachAirport(timetable, timetable::origin, leg -> flights[leg] = addFlight(graph,
+                airports[timetable.origin(leg)], timetable.airport(timetable.destination(leg)),
+                timetable.carrier(leg), timetable.flightNumber(leg), timetable.startDay(leg), timetable.endDay(leg),
+                timetable.departure(leg), timetable.duration(leg), timetable.isOvernight(leg), timetable.days(leg)));
+        forEachAirport(timetable, timetable::destination, leg -> {
+            for (final Vertex fv : flights[leg]) {
+                fv.addEdge("to", airports[timetable.destination(leg)]);
+            }
+        });
+
+        stats.airports = airports.length;
+        for (final Vertex[] fvs : flights) {
+            stats.flights += fvs.length;
+        }
+        return flights;
+    }
+
+    /**
+     * Adds a new flight to a prepared graph. Only the {@code next} edges from flights arriving at the new
+     * flight's origin and to flights departing from its destination are computed.
+     *
+     * @throws IllegalArgumentException if the graph already has a leg of the flight from the same origin, on one of
+     *                                  the same weekdays and with the same first day; the graph is left as is
+     */
+    static void addFlight(final Graph graph, final Flight flight, final ConnectionRules rules) {
+
+        // a duplicate leg needs an existing origin, so nothing is added if addFlight throws
+        final Vertex origin = airport(graph, flight.getFrom());
+        final List<Vertex> flights = Arrays.asList(addFlight(graph, origin, flight.getTo(),
+                flight.getCarrier(), flight.getFlightNumber(),
+                (int) flight.getStartDate().toEpochDay(), (int) flight.getEndDate().toEpochDay(),
+                toMinutes(flight.getDepartureTime()), flight.getDuration(), flight.isOvernight(), flight.getDays()));
+        final Vertex destination = airport(graph, flight.getTo());
+        flights.forEach(fv -> fv.addEdge("to", destination));
+
+        // connect inbound flights
+        final Departures departures = new Departures(origin, flights.stream()
+                .map(fv -> fv.edges(Direction.OUT, "from").next()).collect(Collectors.toList()), rules);
+        origin.edges(Direction.IN, "to").forEachRemaining(e -> departures.connect(e.outVertex()));
+
+        // connect outbound flights
+        final Departures next = new Departures(destination, rules);
+        flights.forEach(next::connect);
+        changed(graph);
+    }
+
+    /**
+     * Removes all flight vertices of the given flight, including their {@code next} edges.
+     *
+     * @return {@code true} if the flight was found
+     */
+    static boolean cancelFlight(final Graph graph, final String carrier, final String flightNumber) {
+        final List<Vertex> flights = legs(graph, carrier, flightNumber).toList();
+        flights.forEach(Vertex::remove);
+        if (flights.isEmpty()) {
+            return false;
+        }
+        changed(graph);
+        return true;
+    }
+
+    /**
+     * Replaces the flight vertices of the given flight's leg, i.e. those with its carrier and flight number that
+     * depart from its origin; the other legs of a multi-leg flight are kept.
+     */
+    static void modifyFlight(final Graph graph, final Flight flight, final ConnectionRules rules) {
+        legs(graph, flight.getCarrier(), flight.getFlightNumber())
+                .has("origin", flight.getFrom())
+                .toList()
+                .forEach(Vertex::remove);
+        addFlight(graph, flight, rules);
+    }
+
+    private static GraphTraversal<Vertex, Vertex> legs(final Graph graph, final String carrier,
+                                                      final String flightNumber) {
+        return graph.traversal().V()
+                .has("flightNumber", flightNumber)
+                .hasLabel("flight")
+                .has("carrier", carrier);
+    }
+
+    /**
+     * @return the number of changes made by {@link #addFlight}, {@link #cancelFlight} and {@link #modifyFlight},
+     * e.g. the schedule version of a {@link CachingRouteSearchEngine}
+     */
+    static long version(final Graph graph) {
+        return graph.variables().<Long>get("version").orElse(0L);
+    }
+
+    private static void changed(final Graph graph) {
+        graph.variables().set("version", version(graph) + 1);
+    }
+
+    private static Vertex addAirport(final Graph graph, final String airport) {
+        return graph.addVertex(T.id, airport, T.label, "airport", "name", airport);
+    }
+
+    private static Vertex airport(final Graph graph, final String airport) {
+        final Iterator<Vertex> vertices = graph.vertices(airport);
+        return vertices.hasNext() ? vertices.next() : addAirport(graph, airport);
+    }
+
+    /**
+     * Adds the flight vertices of a leg and their {@code from} edges, but not their {@code to} edges. The legs of
+     * a multi-leg flight share carrier, flight number and weekdays, so the vertex ids also contain the origin and the
+     * first day of the period, e.g. {@code AA-100-6-HNL-20190123}.
+     *
+     * @throws IllegalArgumentException if the graph already has a leg of the flight from the same origin, on one of
+     *                                  the same weekdays and with the same first day
+     */
+    private static Vertex[] addFlight(final Graph graph, final Vertex origin, final String destination,
+                                      final String carrier, final String flightNumber,
+                                      final int startDay, final int endDay, final int departure, final int duration,
+                                      final boolean overnight, final int days) {
+
+        // check all weekdays before adding any of them
+        final String[] ids = new String[Integer.bitCount(days)];
+        for (int dow = 1, i = 0; dow <= 7; dow++) {
+            if ((days & (1 << (dow - 1))) != 0) {
+                ids[i] = String.join("-", carrier, flightNumber, Integer.toString(dow), (String) origin.id(),
+                        LocalDate.ofEpochDay(startDay).format(DateTimeFormatter.BASIC_ISO_DATE));
+                if (graph.vertices(ids[i++]).hasNext()) {
+                    throw new IllegalArgumentException(String.format("Duplicate leg %s-%s from %s on weekday %d from %s",
+                            carrier, flightNumber, origin.id(), dow, LocalDate.ofEpochDay(startDay)));
+                }
+            }
+        }
+
+        final Vertex[] flights = new Vertex[ids.length];
+
+        for (int dow = 1, i = 0; dow <= 7; dow++) {
+
+            if ((days & (1 << (dow - 1))) != 0) {
+
+                final Vertex fv = graph.addVertex(T.id, ids[i], T.label, "flight",
+                        "carrier", carrier,
+                        "flightNumber", flightNumber,
+                        "departure", departure,
+                        "duration", duration,
+                        "overnight", overnight,
+                        "dayOfWeek", dow,
+                        "origin", origin.id(),              // denormalize origin and destination to
+                        "destination", destination);        // improve query/filter performance
+
+                fv.addEdge("from", origin,
+                        "start", (long) startDay,
+                        "end", (long) endDay,
+                        "dayOfWeek", dow,
+                        "departure", departure);
+                flights[i++] = fv;
+            }
+        }
+
+        return flights;
+    }
+
+    /**
+     * Calls the given action for all legs, grouped by the given airport of a leg; the groups are processed in
+     * parallel.
+     */
+    private static void forEachAirport(final Timetable timetable, final IntUnaryOperator airport, final IntConsumer action) {
+        final int[] offsets = new int[timetable.airportCount() + 1];
+        for (int leg = 0; leg < timetable.size(); leg++) {
+            offsets[airport.applyAsInt(leg) + 1]++;
+        }
+        for (int a = 0; a < timetable.airportCount(); a++) {
+            offsets[a + 1] += offsets[a];
+        }
+        final int[] legs = new int[timetable.size()];
+        final int[] next = Arrays.copyOf(offsets, timetable.airportCount());
+        for (int leg = 0; leg < timetable.size(); leg++) {
+            legs[next[airport.applyAsInt(leg)]++] = leg;
+        }
+        IntStream.range(0, timetable.airportCount()).parallel().forEach(a -> {
+            for (int i = offsets[a]; i < offsets[a + 1]; i++) {
+                action.accept(legs[i]);
+            }
         });
     }
 
-    private static int calculateLayoverTime(final DayOfWeek dayOfPreviousDeparture,
-                                            final int timeOfPreviousDeparture, final int duration,
-                                            final DayOfWeek dayOfNextDeparture, final int timeOfNextDeparture) {
-        final LocalTime timeOfArrival = toLocalTime(timeOfPreviousDeparture).plusMinutes(duration);
-        final DayOfWeek dayOfArrival = dayOfPreviousDeparture.plus(timeOfPreviousDeparture + duration >= 24 * 60 ? 1 : 0);
-        final int hours = daysBetween(dayOfArrival, dayOfNextDeparture) * 24 * 60 +
-                (timeOfNextDeparture - toMinutes(timeOfArrival));
-        return hours <= 0 ? 7 * 24 * 60 + hours : hours;
+    /**
+     * Connects the flights at all airports in parallel. Only the flights arriving at an airport get new out edges
+     * and only the flights departing from it new in edges, so no edge set is modified by two threads.
+     */
+    private static long computeLayovers(final Graph graph, final ConnectionRules rules) {
+
+        final List<Vertex> airports = graph.traversal().V().hasLabel("airport").toList();
+
+        return airports.parallelStream().mapToLong(airport -> {
+            final Departures departures = new Departures(airport, rules);
+            final Iterator<Edge> arrivals = airport.edges(Direction.IN, "to");
+            long edges = 0;
+            while (arrivals.hasNext()) {
+                edges += departures.connect(arrivals.next().outVertex());
+            }
+            return edges;
+        }).sum();
+    }
+
+    /**
+     * The {@code from} edges of the flights departing from an airport, ordered by their minute of the week, so that
+     * an arriving flight only needs to look at the departures within its connection window.
+     */
+    private static class Departures {
+
+        private final Edge[] edges;
+        private final int[] weekMinutes;
+        private final int minConnectTime;
+        private final int maxConnectTime;
+
+        Departures(final Vertex airport, final ConnectionRules rules) {
+            this(airport, IteratorUtils.list(airport.edges(Direction.IN, "from")), rules);
+        }
+
+        Departures(final Vertex airport, final List<Edge> departures, final ConnectionRules rules) {
+            minConnectTime = rules.minConnectTime((String) airport.id());
+            maxConnectTime = rules.maxConnectTime((String) airport.id());
+            final int n = departures.size();
+            final long[] keys = new long[n];
+            for (int i = 0; i < n; i++) {
+                final Edge e = departures.get(i);
+                keys[i] = (long) toWeekMinute(e.value("dayOfWeek"), e.value("departure")) << 32 | i;
+            }
+            Arrays.sort(keys);
+            edges = new Edge[n];
+            weekMinutes = new int[n];
+            for (int i = 0; i < n; i++) {
+                edges[i] = departures.get((int) keys[i]);
+                weekMinutes[i] = (int) (keys[i] >>> 32);
+            }
+        }
+
+        /**
+         * Adds {@code next} edges from the given flight to all departures within the airport's connect times.
+         *
+         * @return the number of added edges
+         */
+        int connect(final Vertex flight) {
+
+            final int n = edges.length;
+            if (n == 0) return 0;
+
+            final int arrival = arrivalWeekMinute(flight.value("dayOfWeek"), flight.value("departure"), flight.value("duration"));
+
+            // binary search for the first departure after the arrival
+            int first = 0, last = n;
+            while (first < last) {
+                final int mid = (first + last) >>> 1;
+                if (weekMinutes[mid] <= arrival) first = mid + 1;
+                else last = mid;
+            }
+
+            int added = 0;
+            for (int k = 0; k < n; k++) {
+                final int i = (first + k) % n;
+                final int layoverTime = layoverTime(arrival, weekMinutes[i]);
+                if (layoverTime < minConnectTime) continue;
+                if (layoverTime > maxConnectTime) break;
+                final Edge e = edges[i];
+                final Vertex next = e.outVertex();
+                flight.addEdge("next", next,
+                        "start", e.value("start"),  // denormalize start, end, ...
+                        "end", e.value("end"),
+                        "layover", layoverTime,
+                        "destination", next.value("destination"), // ... destination and flight to improve filter performance
+                        "flight", String.join("-", next.<String>value("carrier"), next.value("flightNumber")));
+                added++;
+            }
+            return added;
+        }
     }
 }
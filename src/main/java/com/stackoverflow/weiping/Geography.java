@@ -0,0 +1,117 @@
+package com.stackoverflow.weiping;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Airport coordinates (in degrees) and the detour factor that limits the layover airports of a route: a layover
+ * airport is only considered if the great-circle distance via the airport is at most the detour factor times the
+ * shortest distance a route can have, plus {@link #DETOUR_ALLOWANCE} so that short trips may still connect at a
+ * nearby hub. The shortest distance is the direct distance if there is a nonstop flight, else the shortest distance
+ * via an airport with a nonstop flight from the origin and one with a nonstop flight to the destination. Airports
+ * without coordinates are never excluded. Instances are immutable.
+ */
+class Geography {
+
+    /**
+     * No coordinates and no detour limit.
+     */
+    static final Geography NONE = new Geography(Double.POSITIVE_INFINITY);
+
+    /**
+     * No detour limit: pruning layover airports by distance is opt-in.
+     */
+    static final double DEFAULT_DETOUR_FACTOR = Double.POSITIVE_INFINITY;
+
+    /**
+     * The detour in kilometers that is allowed in addition to the detour factor.
+     */
+    static final double DETOUR_ALLOWANCE = 500;
+
+    private static final double EARTH_RADIUS = 6371; // km
+
+    private final double detourFactor;
+    private final Map<String, double[]> airports;
+
+    /**
+     * @param detourFactor at least 1, or {@link Double#POSITIVE_INFINITY} for no limit
+     */
+    Geography(final double detourFactor) {
+        this(detourFactor, new HashMap<>());
+    }
+
+    private Geography(final double detourFactor, final Map<String, double[]> airports) {
+        if (!(detourFactor >= 1)) {
+            throw new IllegalArgumentException("Invalid detour factor: " + detourFactor);
+        }
+        this.detourFactor = detourFactor;
+        this.airports = airports;
+    }
+
+    /**
+     * @return a copy of this geography with the given detour factor
+     */
+    Geography withDetourFactor(final double detourFactor) {
+        return new Geography(detourFactor, airports);
+    }
+
+    /**
+     * @return a copy of this geography with the coordinates of the given airport
+     */
+    Geography withAirport(final String airport, final double latitude, final double longitude) {
+        return withAirports(Collections.singletonMap(airport, new double[]{latitude, longitude}));
+    }
+
+    /**
+     * @param coordinates the latitude and longitude per airport
+     * @return a copy of this geography with the coordinates of the given airports
+     */
+    Geography withAirports(final Map<String, double[]> coordinates) {
+        final Map<String, double[]> airports = new HashMap<>(this.airports);
+        coordinates.forEach((airport, c) -> {
+            if (!(Math.abs(c[0]) <= 90 && Math.abs(c[1]) <= 180)) {
+                throw new IllegalArgumentException(String.format("Invalid coordinates for %s: %f,%f",
+                        airport, c[0], c[1]));
+            }
+            airports.put(airport, new double[]{c[0], c[1]});
+        });
+        return new Geography(detourFactor, airports);
+    }
+
+    double detourFactor() {
+        return detourFactor;
+    }
+
+    boolean contains(final String airport) {
+        return airports.containsKey(airport);
+    }
+
+    /**
+     * @return the latitude of the airport or {@code NaN} if it's unknown
+     */
+    double latitude(final String airport) {
+        final double[] c = airports.get(airport);
+        return c != null ? c[0] : Double.NaN;
+    }
+
+    /**
+     * @return the longitude of the airport or {@code NaN} if it's unknown
+     */
+    double longitude(final String airport) {
+        final double[] c = airports.get(airport);
+        return c != null ? c[1] : Double.NaN;
+    }
+
+    /**
+     * @return the great-circle distance in kilometers between two points given in degrees
+     */
+    static double distance(final double latitude1, final double longitude1,
+                           final double latitude2, final double longitude2) {
+        final double dLat = Math.toRadians(latitude2 - latitude1);
+        final double dLon = Math.toRadians(longitude2 - longitude1);
+        final double a = Math.pow(Math.sin(dLat / 2), 2) + Math.cos(Math.toRadians(latitude1))
+                * Math.cos(Math.toRadians(latitude2)) * Math.pow(Math.sin(dLon / 2), 2);
+        return 2 * EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+}
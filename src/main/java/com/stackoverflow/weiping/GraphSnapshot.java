@@ -0,0 +1,301 @@
+package com.stackoverflow.weiping;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import static com.stackoverflow.weiping.util.TimeUtil.layoverTime;
+
+/**
+ * A prepared flight route graph in a versioned binary file: the timetable, the connect times per airport and the
+ * {@code next} edges with their layovers, so that a process can open it without computing the layovers again.
+ * <p>
+ * The file starts with a header (magic number, format version, fingerprint of the timetable and connection rules,
+ * payload length and CRC32 of the payload), followed by the payload, which is memory-mapped when it's read. The
+ * {@code next} edges are stored per flight, numbered like the flights of a {@link FlightIndex}; their columns are
+ * read from the mapped file in place, only the timetable and the offsets of each flight's edges are on the heap.
+ */
+class GraphSnapshot {
+
+    /**
+     * Thrown if a snapshot was written by another format version or for another timetable or connection rules.
+     */
+    static class StaleSnapshotException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        StaleSnapshotException(final String message) {
+            super(message);
+        }
+    }
+
+    static final int VERSION = 1;
+
+    private static final int MAGIC = 0x57504753; // "WPGS"
+    private static final int HEADER_SIZE = 32;
+
+    private final Timetable timetable;
+    private final ConnectionRules rules;
+    private final long fingerprint;
+
+    // next[nextOffsets[f]..nextOffsets[f+1]) are the flights flight f connects to, with the layovers in between;
+    // both are views of the mapped file
+    private final int[] nextOffsets;
+    private final IntBuffer next;
+    private final CharBuffer layovers;
+
+    private GraphSnapshot(final Timetable timetable, final ConnectionRules rules, final long fingerprint,
+                          final int[] nextOffsets, final IntBuffer next, final CharBuffer layovers) {
+        this.timetable = timetable;
+        this.rules = rules;
+        this.fingerprint = fingerprint;
+        this.nextOffsets = nextOffsets;
+        this.next = next;
+        this.layovers = layovers;
+    }
+
+    Timetable getTimetable() {
+        return timetable;
+    }
+
+    ConnectionRules getRules() {
+        return rules;
+    }
+
+    long getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * @return the number of {@code next} edges
+     */
+    int size() {
+        return next.limit();
+    }
+
+    int firstNext(final int flight) {
+        return nextOffsets[flight];
+    }
+
+    int lastNext(final int flight) {
+        return nextOffsets[flight + 1];
+    }
+
+    int next(final int edge) {
+        return next.get(edge);
+    }
+
+    int layover(final int edge) {
+        return layovers.get(edge);
+    }
+
+    /**
+     * Computes the {@code next} edges of the given timetable the same way
+     * {@link FlightRouteGraph#createGraph(Timetable, ConnectionRules, BuildStats)} does and writes the snapshot.
+     */
+    static void write(final Timetable timetable, final ConnectionRules rules, final Path file) throws IOException {
+
+        final FlightIndex index = new FlightIndex(timetable, rules);
+        final int[] counts = new int[index.size()];
+        long edges = 0;
+        int maxCount = 0;
+        for (int flight = 0; flight < index.size(); flight++) {
+            edges += counts[flight] = connect(index, flight, null, null);
+            maxCount = Math.max(maxCount, counts[flight]);
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+
+            channel.position(HEADER_SIZE);
+            final CRC32 crc = new CRC32();
+            final CheckedOutputStream checked = new CheckedOutputStream(Channels.newOutputStream(channel), crc);
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(checked, 1 << 16));
+
+            timetable.write(out);
+
+            out.writeInt(rules.minConnectTime());
+            out.writeInt(rules.maxConnectTime());
+            for (int a = 0; a < index.airportCount(); a++) {
+                out.writeInt(index.minConnectTime[a]);
+                out.writeInt(index.maxConnectTime[a]);
+            }
+
+            // the edges are written column by column so that they can be read in bulk
+            out.writeInt(index.size());
+            out.writeLong(edges);
+            for (final int count : counts) {
+                out.writeInt(count);
+            }
+            final int[] next = new int[maxCount];
+            final char[] layovers = new char[maxCount];
+            for (int flight = 0; flight < index.size(); flight++) {
+                final int n = connect(index, flight, next, layovers);
+                for (int i = 0; i < n; i++) {
+                    out.writeInt(next[i]);
+                }
+            }
+            for (int flight = 0; flight < index.size(); flight++) {
+                final int n = connect(index, flight, next, layovers);
+                for (int i = 0; i < n; i++) {
+                    out.writeChar(layovers[i]);
+                }
+            }
+            out.flush();
+            if (channel.position() > Integer.MAX_VALUE) {
+                throw new IOException(String.format("Snapshot %s is too large: %d bytes", file, channel.position()));
+            }
+
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putLong(fingerprint(timetable, rules))
+                    .putLong(channel.position() - HEADER_SIZE).putLong(crc.getValue()).flip();
+            channel.write(header, 0);
+        }
+    }
+
+    /**
+     * Reads a snapshot and checks that it was built from the given timetable and connection rules.
+     *
+     * @throws StaleSnapshotException if the snapshot was written by another format version or from another
+     *                                timetable or other connection rules
+     */
+    static GraphSnapshot read(final Path file, final Timetable timetable, final ConnectionRules rules) throws IOException {
+        final GraphSnapshot snapshot = read(file);
+        if (snapshot.fingerprint != fingerprint(timetable, rules)) {
+            throw new StaleSnapshotException(String.format(
+                    "Snapshot %s was built from another timetable or other connection rules, it needs to be recreated", file));
+        }
+        return snapshot;
+    }
+
+    /**
+     * Reads a snapshot and verifies its checksum.
+     *
+     * @throws StaleSnapshotException if the snapshot was written by another format version
+     */
+    static GraphSnapshot read(final Path file) throws IOException {
+
+        final ByteBuffer in;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE) {
+                throw new IOException(String.format("%s is not a graph snapshot", file));
+            }
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(String.format("Snapshot %s is too large: %d bytes", file, channel.size()));
+            }
+            in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (in.getInt() != MAGIC) {
+            throw new IOException(String.format("%s is not a graph snapshot", file));
+        }
+        final int version = in.getInt();
+        if (version != VERSION) {
+            throw new StaleSnapshotException(String.format(
+                    "Snapshot %s has format version %d instead of %d, it needs to be recreated", file, version, VERSION));
+        }
+        final long fingerprint = in.getLong();
+        final long length = in.getLong();
+        final long checksum = in.getLong();
+        if (length != in.remaining()) {
+            throw new IOException(String.format("Snapshot %s is truncated: %d of %d bytes", file, in.remaining(), length));
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(in.duplicate());
+        if (crc.getValue() != checksum) {
+            throw new IOException(String.format("Snapshot %s is corrupt: checksum mismatch", file));
+        }
+
+        final Timetable timetable = Timetable.read(in);
+
+        final ConnectionRules defaults = new ConnectionRules(in.getInt(), in.getInt());
+        final Map<String, int[]> connectTimes = new HashMap<>();
+        for (int a = 0; a < timetable.airportCount(); a++) {
+            final int min = in.getInt(), max = in.getInt();
+            if (min != defaults.minConnectTime() || max != defaults.maxConnectTime()) {
+                connectTimes.put(timetable.airport(a), new int[]{min, max});
+            }
+        }
+        final ConnectionRules rules = defaults.withAirports(connectTimes);
+
+        final int flights = in.getInt();
+        final int edges = (int) in.getLong();
+        final int[] nextOffsets = new int[flights + 1];
+        in.asIntBuffer().get(nextOffsets, 1, flights);
+        in.position(in.position() + 4 * flights);
+        for (int f = 0; f < flights; f++) {
+            nextOffsets[f + 1] += nextOffsets[f];
+        }
+        final IntBuffer next = in.asIntBuffer();
+        next.limit(edges);
+        in.position(in.position() + 4 * edges);
+        final CharBuffer layovers = in.asCharBuffer();
+        layovers.limit(edges);
+
+        return new GraphSnapshot(timetable, rules, fingerprint, nextOffsets, next, layovers);
+    }
+
+    /**
+     * Finds the flights the given flight connects to, like {@code FlightRouteGraph.Departures#connect}.
+     *
+     * @return the number of connections; they are stored in {@code next} and {@code layovers} if these are given
+     */
+    private static int connect(final FlightIndex index, final int flight, final int[] next, final char[] layovers) {
+        final int airport = index.timetable.destination(index.leg[flight]);
+        final int from = index.departureOffsets[airport], to = index.departureOffsets[airport + 1];
+        final int first = index.firstDepartureAfter(from, to, index.arrival[flight]);
+        int n = 0;
+        for (int k = 0; k < to - from; k++) {
+            final int i = first + k < to ? first + k : first + k - (to - from);
+            final int layoverTime = layoverTime(index.arrival[flight], index.departureWeekMinutes[i]);
+            if (layoverTime < index.minConnectTime[airport]) continue;
+            if (layoverTime > index.maxConnectTime[airport]) break;
+            if (next != null) {
+                next[n] = index.departures[i];
+                layovers[n] = (char) layoverTime; // at most a week
+            }
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * @return a hash of the timetable and the connect times of its airports
+     */
+    static long fingerprint(final Timetable timetable, final ConnectionRules rules) {
+        long h = hash(0xcbf29ce484222325L, rules.minConnectTime());
+        h = hash(h, rules.maxConnectTime());
+        for (int a = 0; a < timetable.airportCount(); a++) {
+            h = hash(h, timetable.airport(a).hashCode());
+            h = hash(h, rules.minConnectTime(timetable.airport(a)));
+            h = hash(h, rules.maxConnectTime(timetable.airport(a)));
+        }
+        for (int l = 0; l < timetable.size(); l++) {
+            h = hash(h, timetable.origin(l));
+            h = hash(h, timetable.destination(l));
+            h = hash(h, timetable.carrier(l).hashCode());
+            h = hash(h, timetable.flightNumber(l).hashCode());
+            h = hash(h, timetable.departure(l));
+            h = hash(h, timetable.duration(l));
+            h = hash(h, timetable.startDay(l));
+            h = hash(h, timetable.endDay(l));
+            h = hash(h, timetable.days(l) << 1 | (timetable.isOvernight(l) ? 1 : 0));
+        }
+        return h;
+    }
+
+    private static long hash(final long h, final int value) {
+        return (h ^ value) * 0x100000001b3L;
+    }
+}
@@ -0,0 +1,444 @@
+package com.stackoverflow.weiping;
+
+import org.apache.tinkerpop.gremlin.process.traversal.Operator;
+import org.apache.tinkerpop.gremlin.process.traversal.P;
+import org.apache.tinkerpop.gremlin.process.traversal.Pop;
+import org.apache.tinkerpop.gremlin.process.traversal.Scope;
+import org.apache.tinkerpop.gremlin.process.traversal.Traverser;
+import org.apache.tinkerpop.gremlin.process.traversal.dsl.graph.GraphTraversal;
+import org.apache.tinkerpop.gremlin.process.traversal.dsl.graph.GraphTraversalSource;
+import org.apache.tinkerpop.gremlin.process.traversal.dsl.graph.__;
+import org.apache.tinkerpop.gremlin.structure.Column;
+import org.apache.tinkerpop.gremlin.structure.Direction;
+import org.apache.tinkerpop.gremlin.structure.Edge;
+import org.apache.tinkerpop.gremlin.structure.Vertex;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+class GremlinRouteSearchEngine implements RouteSearchEngine {
+
+    private final GraphTraversalSource g;
+    private final boolean counting;
+    private final boolean bidirectional;
+    private final boolean labelsPerFlight;
+    private final LayoverPruning pruning;
+
+    GremlinRouteSearchEngine(final GraphTraversalSource g) {
+        this(g, false);
+    }
+
+    /**
+     * @param counting if {@code true}, the traversals count the connections they follow and the paths they drop,
+     *                 see {@link SearchCounts}; this adds steps to the traversals
+     */
+    GremlinRouteSearchEngine(final GraphTraversalSource g, final boolean counting) {
+        this(g, counting, false);
+    }
+
+    /**
+     * @param bidirectional if {@code true}, a backward search from the flights arriving at the destination bounds the
+     *                      remaining travel time of the flights, see {@link RemainingTimes}, and the forward search
+     *                      drops the paths that can't arrive before the fastest route found so far; it only searches
+     *                      backward as far as these bounds are asked for
+     */
+    GremlinRouteSearchEngine(final GraphTraversalSource g, final boolean counting, final boolean bidirectional) {
+        this(g, ConnectionRules.UNRESTRICTED, counting, bidirectional, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * @param rules        the rules the graph was built with; with a {@link ConnectionRules#hasMaxConnectTime maximum
+     *                     connect time}, the search keeps the shortest travel time per flight instead of per airport
+     * @param detourFactor the detour limit of the layover airports, see {@link Geography}; it only applies to
+     *                     airports with {@code latitude} and {@code longitude} properties, and without a limit
+     *                     there's no {@link LayoverPruning}
+     */
+    GremlinRouteSearchEngine(final GraphTraversalSource g, final ConnectionRules rules, final boolean counting,
+                             final boolean bidirectional, final double detourFactor) {
+        this.g = g;
+        this.counting = counting;
+        this.bidirectional = bidirectional;
+        this.labelsPerFlight = rules.hasMaxConnectTime();
+        this.pruning = detourFactor != Double.POSITIVE_INFINITY ? LayoverPruning.of(g, detourFactor) : null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Iterator<Map<String, Object>> findFlights(final LocalDate travelDate,
+                                                     final String origin, final String destination,
+                                                     final int minLayover, final int departureMinTime, final int departureMaxTime,
+                                                     final String... layoverAirports) {
+        final Set<String> layovers = layovers(origin, destination, layoverAirports);
+        if (!counting) {
+            return traversal(travelDate, origin, destination, minLayover, departureMinTime, departureMaxTime,
+                    layovers, null);
+        }
+        final Counts counts = new Counts();
+        return new CountedResults(traversal(travelDate, origin, destination, minLayover, departureMinTime,
+                departureMaxTime, layovers, counts), counts);
+    }
+
+    /**
+     * @return the {@code profile()} of the query's traversal
+     */
+    @Override
+    public String profile(final RouteQuery query) {
+        return traversal(query.getTravelDate(), query.getOrigin(), query.getDestination(), query.getMinLayover(),
+                query.getDepartureMinTime(), query.getDepartureMaxTime(),
+                layovers(query.getOrigin(), query.getDestination(), query.getLayoverAirports()), null)
+                .profile().next().toString();
+    }
+
+    /**
+     * @return the airports that the query's routes may connect at, or {@code null} if there is no restriction
+     */
+    Set<String> layoverAirports(final RouteQuery query) {
+        return layovers(query.getOrigin(), query.getDestination(), query.getLayoverAirports());
+    }
+
+    private Set<String> layovers(final String origin, final String destination, final String[] layoverAirports) {
+        if (pruning == null) {
+            return layoverAirports.length > 0 ? new HashSet<>(Arrays.asList(layoverAirports)) : null;
+        }
+        return pruning.layoverAirports(origin, destination, Integer.MAX_VALUE, layoverAirports);
+    }
+
+    /**
+     * @param layovers if not {@code null}, routes only connect at these airports
+     * @param counts   if not {@code null}, receives the counts of the traversal's steps while it is iterated
+     */
+    @SuppressWarnings("unchecked")
+    private GraphTraversal traversal(final LocalDate travelDate,
+                                     final String origin, final String destination,
+                                     final int minLayover, final int departureMinTime, final int departureMaxTime,
+                                     final Set<String> layovers, final Counts counts) {
+
+        final GraphTraversal traversal = firstFlights(travelDate, origin, destination, departureMinTime, departureMaxTime,
+                layovers);
+
+        final Predicate<Traverser<Vertex>> live = bidirectional
+                ? new RemainingTimes(g, origin, destination, minLayover, layovers, counts)::canImprove : null;
+
+        final GraphTraversal connection = __.flatMap(connectionTraversal(origin, destination, minLayover, layovers));
+        connection.as("connection");
+        if (counts != null) {
+            connection.sideEffect(counts.count(Counts.EXPANDED));
+        }
+        connection
+                .sack(Operator.sum)
+                    .by("layover")
+                .inV().as("flight")
+                .map(__.union(
+                        __.select(Pop.last, "date"),
+                        __.has("overnight", true).constant(1)).sum()).as("date")
+                .select(Pop.last, "flight")
+                .sack(Operator.sum)
+                    .by("duration");
+        if (counts != null) {
+            connection.sideEffect(counts.count(Counts.CANDIDATES));
+        }
+        // The next filter prevents the traversal from following routes that just hit an airport
+        // that was already reached in a shorter travel time. The airport's entry is looked up by
+        // its key, so the cost of the filter doesn't grow with the number of reached airports.
+        // Also note, that this is another way to prevent cyclic paths.
+        // With a maximum connect time, an earlier arrival at an airport may miss a connection that a
+        // later arrival catches, so the entries are kept per flight instead, see key(), and cyclic
+        // paths are prevented by the connections.
+        connection
+                .not(__.select("m")
+                        .select(__.select(Pop.last, "flight").map(key(destination)))
+                        .project("a","b")
+                            .by()
+                            .by(__.sack())
+                        .where("a", P.lt("b")));
+        if (counts != null) {
+            connection.sideEffect(counts.count(Counts.SURVIVORS));
+        }
+        connection
+                .group("m")
+                    .by(key(destination))
+                    .by(__.sack());
+        // the paths that can't improve on the fastest route anymore still update m, like in the forward search
+        if (live != null) {
+            connection.filter(live);
+        }
+
+        traversal
+                .sack(Operator.assign)
+                    .by("duration")
+                .group("m")
+                    .by(key(destination))
+                    .by(__.sack())
+                .choose(__.values("overnight"))
+                    .option(false, __.constant(travelDate.toEpochDay()))
+                    .option(true, __.constant(travelDate.toEpochDay() + 1)).as("date")
+                .select("flight");
+        if (live != null) {
+            traversal.filter(live);
+        }
+        return traversal
+                .until(__.has("destination", destination))
+                    .repeat(connection)
+                .project("routes", "layovers", "time")
+                    .by(__.select(Pop.all, "flight")
+                            .by(__.unfold()
+                                    .project("depAirport", "depTime", "carrier", "num", "dur", "o", "arrAirport")
+                                        .by("origin")
+                                        .by("departure")
+                                        .by("carrier")
+                                        .by("flightNumber")
+                                        .by("duration")
+                                        .by("overnight")
+                                        .by("destination")
+                                    .fold()))
+                    .by(__.select(Pop.all, "connection")
+                            .unfold().values("layover").fold())
+                    .by(__.sack().math("_/60"))
+                .order()
+                    .by(__.select("time"));
+    }
+
+    /**
+     * @return the key of a flight's entry in {@code m}: its destination airport, or with labels per flight, the
+     * flight itself, unless it arrives at the destination of the query, where a later arrival never helps
+     */
+    private GraphTraversal key(final String destination) {
+        return labelsPerFlight
+                ? __.choose(__.has("destination", destination), __.values("destination"), __.id())
+                : __.values("destination");
+    }
+
+    @SuppressWarnings("unchecked")
+    private GraphTraversal firstFlights(final LocalDate travelDate, final String origin, final String destination,
+                                        final int departureMinTime, final int departureMaxTime,
+                                        final Set<String> layovers) {
+
+        final GraphTraversal traversal = g.V(origin)
+                .inE("from")
+                    .has("start", P.lte(travelDate.toEpochDay()))
+                    .has("end", P.gte(travelDate.toEpochDay()))
+                    .has("dayOfWeek", travelDate.getDayOfWeek().getValue())
+                    .has("departure", P.gte(departureMinTime).and(P.lte(departureMaxTime)))
+                .outV().as("flight");
+
+        if (layovers != null) {
+            traversal.has("destination", P.eq(destination).or(P.within(layovers)));
+        }
+        return traversal;
+    }
+
+    /**
+     * @return the connections of the last flight that don't return to the origin, the shortest one per connecting
+     * flight
+     */
+    @SuppressWarnings("unchecked")
+    private GraphTraversal connectionTraversal(final String origin, final String destination,
+                                                      final int minLayover, final Set<String> layovers) {
+
+        final GraphTraversal connectionTraversal = __.outE("next")
+                .has("layover", P.gte(minLayover))
+                .has("destination", P.neq(origin));
+        if (labelsPerFlight) {
+            connectionTraversal.not(__.values("destination").as("to")
+                    .select(Pop.all, "flight").unfold().values("destination").where(P.eq("to")));
+        }
+        connectionTraversal
+                .filter(__
+                        .project("start", "end", "date")
+                            .by("start")
+                            .by("end")
+                            .by(__.select(Pop.last, "date"))
+                        .where("date", P.gte("start").and(P.lte("end"))));
+
+        if (layovers != null) {
+            connectionTraversal.filter(__.has("destination", P.eq(destination).or(P.within(layovers))));
+        }
+
+        return connectionTraversal
+                .group()
+                    .by("flight")
+                .unfold().select(Column.values)
+                .order(Scope.local)
+                    .by("layover")
+                .limit(Scope.local, 1);
+    }
+
+    /**
+     * The remaining travel time of a flight is the shortest time from its arrival to the arrival at the destination,
+     * following the connections with the checks of {@link #connectionTraversal}, but regardless of their dates and
+     * of the airports a route visits, so it's a lower bound of the routes the forward search finds. A Dijkstra search
+     * from the flights arriving at the destination along the reversed {@code next} edges settles the flights in the
+     * order of their remaining time. It's bounded in two ways: it only goes on while the forward search asks for a
+     * flight whose bound is below the time left to improve on the fastest route found so far, and it follows at most
+     * half as many connections as the forward search has checked paths. A flight it hasn't settled yet is at least
+     * as far from the destination as the next flight it would settle.
+     * <p>
+     * The forward search drops a route that arrives at the destination after the fastest route found before it, so
+     * dropping the paths that can't arrive in time earlier doesn't lose routes.
+     */
+    private static final class RemainingTimes {
+
+        private final String origin;
+        private final String destination;
+        private final int minLayover;
+        private final Set<String> layovers;
+        private final Counts counts;
+
+        private final Map<Vertex, Integer> times = new HashMap<>();
+        private final Set<Vertex> settled = new HashSet<>();
+        private final PriorityQueue<Label> queue = new PriorityQueue<>();
+
+        // the paths checked by the forward search and the connections followed backward
+        private long forward;
+        private long backward;
+
+        RemainingTimes(final GraphTraversalSource g, final String origin, final String destination,
+                       final int minLayover, final Set<String> layovers, final Counts counts) {
+            this.origin = origin;
+            this.destination = destination;
+            this.minLayover = minLayover;
+            this.layovers = layovers;
+            this.counts = counts;
+            final Iterator<Vertex> airport = g.getGraph().vertices(destination);
+            if (airport.hasNext()) {
+                airport.next().vertices(Direction.IN, "to").forEachRemaining(flight -> {
+                    times.put(flight, 0);
+                    queue.add(new Label(flight, 0));
+                });
+            }
+        }
+
+        /**
+         * @return {@code false} if the traverser's path can't arrive at the destination before the fastest route
+         * found so far, i.e. the entry of the destination in {@code m}
+         */
+        boolean canImprove(final Traverser<Vertex> t) {
+            forward += t.bulk();
+            final Object fastest = t.<Map<Object, Object>>sideEffects("m").get(destination);
+            if (!(fastest instanceof Number) || destination.equals(t.get().value("destination"))) {
+                return true;
+            }
+            final int limit = ((Number) fastest).intValue() - t.<Number>sack().intValue();
+            return limit >= 0 && !exceeds(t.get(), limit);
+        }
+
+        /**
+         * @return {@code true} if the remaining time of the flight is more than {@code limit}, or if the flight
+         * doesn't reach the destination
+         */
+        private boolean exceeds(final Vertex flight, final int limit) {
+            while (!settled.contains(flight)) {
+                final Label label = queue.peek();
+                if (label == null || label.time > limit) {
+                    return true;
+                }
+                if (2 * backward > forward) {
+                    // the unsettled flights are at least label.time from the destination, but that isn't enough
+                    return false;
+                }
+                queue.poll();
+                if (settled.add(label.flight)) {
+                    relax(label.flight, label.time);
+                }
+            }
+            return times.get(flight) > limit;
+        }
+
+        private void relax(final Vertex flight, final int time) {
+            final String to = flight.value("destination");
+            if (!to.equals(destination) && (to.equals(origin) || layovers != null && !layovers.contains(to))) {
+                return;
+            }
+            final int duration = flight.value("duration");
+            for (final Iterator<Edge> edges = flight.edges(Direction.IN, "next"); edges.hasNext(); ) {
+                final Edge next = edges.next();
+                final int layover = next.value("layover");
+                if (layover < minLayover) {
+                    continue;
+                }
+                backward++;
+                if (counts != null) {
+                    counts.counts[Counts.EXPANDED]++;
+                }
+                final Vertex previous = next.outVertex();
+                final int previousTime = layover + duration + time;
+                final Integer known = times.get(previous);
+                if (known == null || previousTime < known) {
+                    times.put(previous, previousTime);
+                    queue.add(new Label(previous, previousTime));
+                }
+            }
+        }
+
+        private static final class Label implements Comparable<Label> {
+
+            final Vertex flight;
+            final int time;
+
+            Label(final Vertex flight, final int time) {
+                this.flight = flight;
+                this.time = time;
+            }
+
+            @Override
+            public int compareTo(final Label other) {
+                return Integer.compare(time, other.time);
+            }
+        }
+    }
+
+    /**
+     * The counts of the steps of a traversal, taking bulked traversers into account.
+     */
+    private static final class Counts {
+
+        static final int EXPANDED = 0;
+        static final int CANDIDATES = 1;
+        static final int SURVIVORS = 2;
+
+        final long[] counts = new long[3];
+
+        Consumer<Traverser<Object>> count(final int step) {
+            return t -> counts[step] += t.bulk();
+        }
+    }
+
+    private static final class CountedResults implements Iterator<Map<String, Object>>, SearchCounts {
+
+        private final Iterator<Map<String, Object>> results;
+        private final Counts counts;
+
+        CountedResults(final Iterator<Map<String, Object>> results, final Counts counts) {
+            this.results = results;
+            this.counts = counts;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return results.hasNext();
+        }
+
+        @Override
+        public Map<String, Object> next() {
+            return results.next();
+        }
+
+        @Override
+        public long getExpandedEdges() {
+            return counts.counts[Counts.EXPANDED];
+        }
+
+        @Override
+        public long getPrunedPaths() {
+            return counts.counts[Counts.CANDIDATES] - counts.counts[Counts.SURVIVORS];
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.stackoverflow.weiping;
+
+import org.apache.tinkerpop.gremlin.structure.util.CloseableIterator;
+
+import java.time.LocalDate;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Reports the latency and number of results of another engine's queries to a {@link MetricsRegistry}, along with
+ * the search work if the engine counts it. A query is reported once its results are consumed completely, or once
+ * they are closed by a consumer that stops early, like a {@link RouteCursor}; the latency only includes the time
+ * spent in the engine, not in the consumer. Slow queries are reported with the engine's
+ * {@link RouteSearchEngine#profile profile} if the registry has a {@link MetricsRegistry#getProfiler profiler},
+ * which runs the query once more off the querying thread.
+ */
+class InstrumentedRouteSearchEngine implements RouteSearchEngine {
+
+    private final RouteSearchEngine engine;
+    private final String name;
+    private final MetricsRegistry metrics;
+
+    InstrumentedRouteSearchEngine(final RouteSearchEngine engine, final String name, final MetricsRegistry metrics) {
+        this.engine = engine;
+        this.name = name;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public Iterator<Map<String, Object>> findFlights(final LocalDate travelDate,
+                                                     final String origin, final String destination,
+                                                     final int minLayover, final int departureMinTime, final int departureMaxTime,
+                                                     final String... layoverAirports) {
+        return findFlights(new RouteQuery(travelDate, origin, destination,
+                minLayover, departureMinTime, departureMaxTime, layoverAirports));
+    }
+
+    @Override
+    public Iterator<Map<String, Object>> findFlights(final RouteQuery query) {
+        final long start = System.nanoTime();
+        final Iterator<Map<String, Object>> results = engine.findFlights(query);
+        return new Results(query, results, System.nanoTime() - start);
+    }
+
+    @Override
+    public Map<LocalDate, List<Map<String, Object>>> findFlightsByDate(final LocalDate firstDate, final LocalDate lastDate,
+                                                                       final int maxRoutes,
+                                                                       final String origin, final String destination,
+                                                                       final int minLayover, final int departureMinTime,
+                                                                       final int departureMaxTime,
+                                                                       final String... layoverAirports) {
+        final long start = System.nanoTime();
+        final Map<LocalDate, List<Map<String, Object>>> results = engine.findFlightsByDate(firstDate, lastDate, maxRoutes,
+                origin, destination, minLayover, departureMinTime, departureMaxTime, layoverAirports);
+        final long nanos = System.nanoTime() - start;
+        int count = 0;
+        for (final List<Map<String, Object>> routes : results.values()) {
+            count += routes.size();
+        }
+        metrics.recordQuery(name + ".byDate", nanos, count);
+        return results;
+    }
+
+    @Override
+    public String profile(final RouteQuery query) {
+        return engine.profile(query);
+    }
+
+    private final class Results implements CloseableIterator<Map<String, Object>> {
+
+        private final RouteQuery query;
+        private final Iterator<Map<String, Object>> results;
+        private long nanos;
+        private int count;
+        private boolean reported;
+
+        Results(final RouteQuery query, final Iterator<Map<String, Object>> results, final long nanos) {
+            this.query = query;
+            this.results = results;
+            this.nanos = nanos;
+        }
+
+        @Override
+        public boolean hasNext() {
+            final long start = System.nanoTime();
+            final boolean hasNext = results.hasNext();
+            nanos += System.nanoTime() - start;
+            if (!hasNext && !reported) {
+                reported = true;
+                report();
+            }
+            return hasNext;
+        }
+
+        @Override
+        public Map<String, Object> next() {
+            final long start = System.nanoTime();
+            final Map<String, Object> result = results.next();
+            nanos += System.nanoTime() - start;
+            count++;
+            return result;
+        }
+
+        @Override
+        public void close() {
+            CloseableIterator.closeIterator(results);
+            if (!reported) {
+                reported = true;
+                report();
+            }
+        }
+
+        private void report() {
+            metrics.recordQuery(name, nanos, count);
+            if (results instanceof SearchCounts) {
+                final SearchCounts counts = (SearchCounts) results;
+                metrics.recordSearchWork(name, counts.getExpandedEdges(), counts.getPrunedPaths());
+            }
+            if (nanos >= metrics.getSlowQueryNanos()) {
+                final long slowNanos = nanos;
+                final Executor profiler = metrics.getProfiler();
+                if (profiler == null) {
+                    metrics.recordSlowQuery(name, query, slowNanos, null);
+                    return;
+                }
+                try {
+                    profiler.execute(() -> metrics.recordSlowQuery(name, query, slowNanos, engine.profile(query)));
+                } catch (final RejectedExecutionException e) {
+                    metrics.recordSlowQuery(name, query, slowNanos, null);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.stackoverflow.weiping;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A typed view of one result of a {@link RouteSearchEngine}: the flight legs and the layovers between them. Times
+ * are minutes; the departure time of a leg is its minute of the day in the timetable.
+ */
+final class Itinerary {
+
+    private final Leg[] legs;
+    private final int[] layovers;
+    private final int travelTime;
+
+    Itinerary(final Leg[] legs, final int[] layovers) {
+        if (legs.length == 0 || layovers.length != legs.length - 1) {
+            throw new IllegalArgumentException(String.format("%d legs with %d layovers", legs.length, layovers.length));
+        }
+        this.legs = legs;
+        this.layovers = layovers;
+        int time = 0;
+        for (int i = 0; i < legs.length; i++) {
+            time += legs[i].duration + (i < layovers.length ? layovers[i] : 0);
+        }
+        this.travelTime = time;
+    }
+
+    /**
+     * Converts a result map with the keys {@code routes}, {@code layovers} and {@code time}, see
+     * {@link RouteSearchEngine#findFlights}.
+     */
+    @SuppressWarnings("unchecked")
+    static Itinerary of(final Map<String, Object> result) {
+        final List<Map<String, Object>> routes = (List<Map<String, Object>>) result.get("routes");
+        final List<? extends Number> layovers = (List<? extends Number>) result.get("layovers");
+        final Leg[] legs = new Leg[routes.size()];
+        for (int i = 0; i < legs.length; i++) {
+            final Map<String, Object> route = routes.get(i);
+            legs[i] = new Leg((String) route.get("depAirport"), (String) route.get("arrAirport"),
+                    (String) route.get("carrier"), (String) route.get("num"),
+                    ((Number) route.get("depTime")).intValue(), ((Number) route.get("dur")).intValue(),
+                    (boolean) route.get("o"));
+        }
+        final int[] ls = new int[layovers.size()];
+        for (int i = 0; i < ls.length; i++) {
+            ls[i] = layovers.get(i).intValue();
+        }
+        return new Itinerary(legs, ls);
+    }
+
+    /**
+     * Converts the results of an engine lazily, see {@link #of(Map)}.
+     */
+    static Iterator<Itinerary> of(final Iterator<Map<String, Object>> results) {
+        return new Iterator<Itinerary>() {
+
+            @Override
+            public boolean hasNext() {
+                return results.hasNext();
+            }
+
+            @Override
+            public Itinerary next() {
+                return of(results.next());
+            }
+        };
+    }
+
+    int getLegCount() {
+        return legs.length;
+    }
+
+    Leg getLeg(final int i) {
+        return legs[i];
+    }
+
+    int getStops() {
+        return legs.length - 1;
+    }
+
+    /**
+     * @return the layover after the i-th leg
+     */
+    int getLayover(final int i) {
+        return layovers[i];
+    }
+
+    /**
+     * @return the minutes from the departure of the first leg to the arrival of the last leg
+     */
+    int getTravelTime() {
+        return travelTime;
+    }
+
+    String getOrigin() {
+        return legs[0].from;
+    }
+
+    String getDestination() {
+        return legs[legs.length - 1].to;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < legs.length; i++) {
+            if (i > 0) sb.append(" (").append(layovers[i - 1]).append(") ");
+            sb.append(legs[i]);
+        }
+        return sb.append(" [").append(travelTime).append(']').toString();
+    }
+
+    static final class Leg {
+
+        private final String from;
+        private final String to;
+        private final String carrier;
+        private final String flightNumber;
+        private final int departureTime;
+        private final int duration;
+        private final boolean overnight;
+
+        Leg(final String from, final String to, final String carrier, final String flightNumber,
+            final int departureTime, final int duration, final boolean overnight) {
+            this.from = from;
+            this.to = to;
+            this.carrier = carrier;
+            this.flightNumber = flightNumber;
+            this.departureTime = departureTime;
+            this.duration = duration;
+            this.overnight = overnight;
+        }
+
+        String getFrom() {
+            return from;
+        }
+
+        String getTo() {
+            return to;
+        }
+
+        String getCarrier() {
+            return carrier;
+        }
+
+        String getFlightNumber() {
+            return flightNumber;
+        }
+
+        /**
+         * @return the minute of the day
+         */
+        int getDepartureTime() {
+            return departureTime;
+        }
+
+        int getDuration() {
+            return duration;
+        }
+
+        boolean isOvernight() {
+            return overnight;
+        }
+
+        @Override
+        public String toString() {
+            return from + " --[" + carrier + "-" + flightNumber + "]-> " + to;
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package com.stackoverflow.weiping;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.TextStyle;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Locale;
+
+import static com.stackoverflow.weiping.util.TextUtil.durationToString;
+import static com.stackoverflow.weiping.util.TimeUtil.MINUTES_PER_DAY;
+import static com.stackoverflow.weiping.util.TimeUtil.dayOfWeek;
+
+/**
+ * Formats {@link Itinerary itineraries} as text or JSON into a buffer that is reused from one call to the next.
+ * Dates are formatted once per writer and day, and durations of up to two days come from a table, so once the
+ * buffer has grown to size, formatting an itinerary doesn't allocate anything. A writer is not thread-safe; use
+ * one per thread.
+ */
+final class ItineraryWriter {
+
+    private static final int CACHED_DURATIONS = 2 * MINUTES_PER_DAY;
+    private static final String[] DURATIONS = new String[CACHED_DURATIONS + 1];
+    private static final String[] DAY_NAMES = new String[7];
+
+    static {
+        for (int i = 0; i <= CACHED_DURATIONS; i++) {
+            DURATIONS[i] = durationToString(i);
+        }
+        for (final DayOfWeek day : DayOfWeek.values()) {
+            DAY_NAMES[day.getValue() - 1] = day.getDisplayName(TextStyle.FULL, Locale.ENGLISH);
+        }
+    }
+
+    private static final int DATE_CACHE_SIZE = 8; // a power of two
+
+    private final StringBuilder buffer;
+    private final char[] chunk = new char[1024];
+
+    // the formatted dates of recently used days, indexed by the epoch day modulo the cache size
+    private final long[] cachedDays = new long[DATE_CACHE_SIZE];
+    private final String[] cachedDates = new String[DATE_CACHE_SIZE];
+
+    ItineraryWriter() {
+        this(1024);
+    }
+
+    ItineraryWriter(final int capacity) {
+        this.buffer = new StringBuilder(capacity);
+        Arrays.fill(cachedDays, Long.MIN_VALUE);
+    }
+
+    /**
+     * @return the buffer with everything written since the last {@link #reset}
+     */
+    StringBuilder getBuffer() {
+        return buffer;
+    }
+
+    ItineraryWriter reset() {
+        buffer.setLength(0);
+        return this;
+    }
+
+    /**
+     * Writes the buffer to the given writer and resets it.
+     */
+    void flushTo(final Writer out) throws IOException {
+        for (int i = 0; i < buffer.length(); i += chunk.length) {
+            final int end = Math.min(buffer.length(), i + chunk.length);
+            buffer.getChars(i, end, chunk, 0);
+            out.write(chunk, 0, end - i);
+        }
+        reset();
+    }
+
+    /**
+     * Appends an itinerary as a numbered option, with the departure and arrival of each leg and the layovers in
+     * between, e.g.
+     * <pre>
+     * * Option 1 (1 stop, 18 hours)
+     *   - HNL --[AA-201]-&gt; PDX (Thursday, 2019-01-24 08:00 to 13:00)
+     *     (3 hours layover)
+     *   - PDX --[BA-203]-&gt; LHR (Thursday, 2019-01-24 16:00 to Friday, 2019-01-25 02:00)
+     * </pre>
+     * followed by an empty line. The arrival date is only shown for overnight flights.
+     */
+    ItineraryWriter appendText(final LocalDate travelDate, final int option, final Itinerary itinerary) {
+        final int stops = itinerary.getStops();
+        buffer.append("* Option ").append(option).append(" (");
+        if (stops == 0) {
+            buffer.append("direct");
+        } else {
+            buffer.append(stops).append(stops == 1 ? " stop" : " stops");
+        }
+        buffer.append(", ");
+        appendDuration(itinerary.getTravelTime());
+        buffer.append(")\n");
+
+        long time = travelDate.toEpochDay() * MINUTES_PER_DAY + itinerary.getLeg(0).getDepartureTime();
+        for (int i = 0; i <= stops; i++) {
+            final Itinerary.Leg leg = itinerary.getLeg(i);
+            buffer.append("  - ").append(leg.getFrom())
+                    .append(" --[").append(leg.getCarrier()).append('-').append(leg.getFlightNumber())
+                    .append("]-> ").append(leg.getTo()).append(" (");
+            appendDayAndTime(time);
+            buffer.append(" to ");
+            time += leg.getDuration();
+            if (leg.isOvernight()) {
+                appendDayAndTime(time);
+            } else {
+                appendTime(time);
+            }
+            buffer.append(")\n");
+            if (i < stops) {
+                buffer.append("    (");
+                appendDuration(itinerary.getLayover(i));
+                buffer.append(" layover)\n");
+                time += itinerary.getLayover(i);
+            } else {
+                buffer.append('\n');
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Appends the itineraries as a JSON array, see {@link #appendJson(LocalDate, Itinerary)}.
+     */
+    ItineraryWriter appendJson(final LocalDate travelDate, final Iterator<Itinerary> itineraries) {
+        buffer.append('[');
+        for (int i = 0; itineraries.hasNext(); i++) {
+            if (i > 0) buffer.append(',');
+            appendJson(travelDate, itineraries.next());
+        }
+        buffer.append(']');
+        return this;
+    }
+
+    /**
+     * Appends an itinerary as a JSON object, e.g.
+     * <pre>
+     * {"origin":"PDX","destination":"CAN","stops":0,"travelTime":900,"duration":"15 hours",
+     *  "departure":"2019-03-19T15:00","arrival":"2019-03-20T06:00",
+     *  "legs":[{"from":"PDX","to":"CAN","carrier":"CC","flight":"22",
+     *           "departure":"2019-03-19T15:00","arrival":"2019-03-20T06:00","duration":900}],
+     *  "layovers":[]}
+     * </pre>
+     * without any whitespace. Times are local times and durations are minutes.
+     */
+    ItineraryWriter appendJson(final LocalDate travelDate, final Itinerary itinerary) {
+        final long departure = travelDate.toEpochDay() * MINUTES_PER_DAY + itinerary.getLeg(0).getDepartureTime();
+        buffer.append("{\"origin\":");
+        appendJsonString(itinerary.getOrigin());
+        buffer.append(",\"destination\":");
+        appendJsonString(itinerary.getDestination());
+        buffer.append(",\"stops\":").append(itinerary.getStops());
+        buffer.append(",\"travelTime\":").append(itinerary.getTravelTime());
+        buffer.append(",\"duration\":\"");
+        appendDuration(itinerary.getTravelTime());
+        buffer.append("\",\"departure\":\"");
+        appendDateTime(departure);
+        buffer.append("\",\"arrival\":\"");
+        appendDateTime(departure + itinerary.getTravelTime());
+        buffer.append("\",\"legs\":[");
+        long time = departure;
+        for (int i = 0; i < itinerary.getLegCount(); i++) {
+            final Itinerary.Leg leg = itinerary.getLeg(i);
+            if (i > 0) {
+                buffer.append(',');
+                time += itinerary.getLayover(i - 1);
+            }
+            buffer.append("{\"from\":");
+            appendJsonString(leg.getFrom());
+            buffer.append(",\"to\":");
+            appendJsonString(leg.getTo());
+            buffer.append(",\"carrier\":");
+            appendJsonString(leg.getCarrier());
+            buffer.append(",\"flight\":");
+            appendJsonString(leg.getFlightNumber());
+            buffer.append(",\"departure\":\"");
+            appendDateTime(time);
+            time += leg.getDuration();
+            buffer.append("\",\"arrival\":\"");
+            appendDateTime(time);
+            buffer.append("\",\"duration\":").append(leg.getDuration()).append('}');
+        }
+        buffer.append("],\"layovers\":[");
+        for (int i = 0; i < itinerary.getStops(); i++) {
+            if (i > 0) buffer.append(',');
+            buffer.append(itinerary.getLayover(i));
+        }
+        buffer.append("]}");
+        return this;
+    }
+
+    private void appendDuration(final int minutes) {
+        if (minutes >= 0 && minutes <= CACHED_DURATIONS) {
+            buffer.append(DURATIONS[minutes]);
+        } else {
+            buffer.append(durationToString(minutes));
+        }
+    }
+
+    // e.g. Saturday, 2019-01-26 08:00
+    private void appendDayAndTime(final long minutes) {
+        final long day = Math.floorDiv(minutes, MINUTES_PER_DAY);
+        buffer.append(DAY_NAMES[dayOfWeek((int) day) - 1]).append(", ").append(date(day)).append(' ');
+        appendTime(minutes);
+    }
+
+    // e.g. 2019-01-26T08:00
+    private void appendDateTime(final long minutes) {
+        buffer.append(date(Math.floorDiv(minutes, MINUTES_PER_DAY))).append('T');
+        appendTime(minutes);
+    }
+
+    private void appendTime(final long minutes) {
+        final int minuteOfDay = (int) Math.floorMod(minutes, (long) MINUTES_PER_DAY);
+        appendTwoDigits(minuteOfDay / 60);
+        buffer.append(':');
+        appendTwoDigits(minuteOfDay % 60);
+    }
+
+    private void appendTwoDigits(final int value) {
+        buffer.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
+    }
+
+    private String date(final long day) {
+        final int slot = (int) day & (DATE_CACHE_SIZE - 1);
+        if (cachedDays[slot] != day) {
+            cachedDates[slot] = LocalDate.ofEpochDay(day).format(DateTimeFormatter.ISO_LOCAL_DATE);
+            cachedDays[slot] = day;
+        }
+        return cachedDates[slot];
+    }
+
+    private void appendJsonString(final String s) {
+        buffer.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                buffer.append('\\').append(c);
+            } else if (c < 0x20) {
+                buffer.append("\\u00").append(Character.forDigit(c >> 4, 16)).append(Character.forDigit(c & 15, 16));
+            } else {
+                buffer.append(c);
+            }
+        }
+        buffer.append('"');
+    }
+}
@@ -0,0 +1,202 @@
+package com.stackoverflow.weiping;
+
+import org.apache.tinkerpop.gremlin.process.traversal.dsl.graph.GraphTraversalSource;
+import org.apache.tinkerpop.gremlin.structure.Vertex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Decides which airports a route may connect at, before a search starts. An airport is a candidate if
+ * <ul>
+ *     <li>it can be reached from the origin and reaches the destination within the maximum number of legs,
+ *     regardless of dates and times, and</li>
+ *     <li>the distance via the airport is within the detour limit of the {@link Geography}, if the coordinates
+ *     of the origin, destination and airport are known.</li>
+ * </ul>
+ * The legs are counted per query by a breadth-first search from the origin and one to the destination, both
+ * bounded by the maximum number of legs, so only the routes between airports are kept. Instances are immutable.
+ */
+final class LayoverPruning {
+
+    private static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    private final String[] airports;
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private final double detourFactor;
+    private final int[][] routes;
+    private final int[][] reverseRoutes; // the airports with flights to the airport with the given id
+
+    /**
+     * @param latitudes  {@code NaN} for unknown coordinates
+     * @param longitudes {@code NaN} for unknown coordinates
+     * @param routes     the ids of the airports that have flights from the airport with the given id
+     */
+    LayoverPruning(final String[] airports, final double[] latitudes, final double[] longitudes,
+                   final int[][] routes, final double detourFactor) {
+        this.airports = airports;
+        this.latitudes = latitudes;
+        this.longitudes = longitudes;
+        this.detourFactor = detourFactor;
+        for (int a = 0; a < airports.length; a++) {
+            ids.put(airports[a], a);
+        }
+        this.routes = routes;
+
+        final int[] counts = new int[airports.length];
+        for (final int[] destinations : routes) {
+            for (final int to : destinations) counts[to]++;
+        }
+        reverseRoutes = new int[airports.length][];
+        for (int a = 0; a < airports.length; a++) {
+            reverseRoutes[a] = new int[counts[a]];
+        }
+        for (int from = 0; from < airports.length; from++) {
+            for (final int to : routes[from]) reverseRoutes[to][--counts[to]] = from;
+        }
+    }
+
+    /**
+     * Reads the airports, their {@code latitude} and {@code longitude} properties and the routes between them
+     * from a graph created by {@link FlightRouteGraph}.
+     */
+    static LayoverPruning of(final GraphTraversalSource g, final double detourFactor) {
+
+        final List<Vertex> vertices = g.V().hasLabel("airport").toList();
+        final String[] airports = new String[vertices.size()];
+        final double[] latitudes = new double[airports.length];
+        final double[] longitudes = new double[airports.length];
+        final Map<String, Integer> ids = new HashMap<>();
+        for (int a = 0; a < airports.length; a++) {
+            final Vertex airport = vertices.get(a);
+            airports[a] = airport.value("name");
+            latitudes[a] = airport.<Double>property("latitude").orElse(Double.NaN);
+            longitudes[a] = airport.<Double>property("longitude").orElse(Double.NaN);
+            ids.put(airports[a], a);
+        }
+
+        final List<Set<Integer>> destinations = new ArrayList<>(airports.length);
+        for (int a = 0; a < airports.length; a++) {
+            destinations.add(new HashSet<>());
+        }
+        g.V().hasLabel("flight").forEachRemaining(flight -> destinations.get(ids.get(flight.<String>value("origin")))
+                .add(ids.get(flight.<String>value("destination"))));
+        final int[][] routes = new int[airports.length][];
+        for (int a = 0; a < airports.length; a++) {
+            routes[a] = destinations.get(a).stream().mapToInt(Integer::intValue).toArray();
+        }
+        return new LayoverPruning(airports, latitudes, longitudes, routes, detourFactor);
+    }
+
+    /**
+     * @param maxLegs         the maximum number of legs of a route
+     * @param layoverAirports if not empty, only these airports are considered
+     * @return the candidate layover airports, or {@code null} if every airport is one
+     */
+    Set<String> layoverAirports(final String origin, final String destination, final int maxLegs,
+                                final String... layoverAirports) {
+
+        final Integer o = ids.get(origin);
+        final Integer d = ids.get(destination);
+        if (o == null || d == null) {
+            return layoverAirports.length > 0 ? new HashSet<>(Arrays.asList(layoverAirports)) : null;
+        }
+
+        final int n = airports.length;
+        final int[] fromOrigin = legs(o, routes, maxLegs);
+        final int[] toDestination = legs(d, reverseRoutes, maxLegs);
+        final boolean[] candidate = new boolean[n];
+        for (int a = 0; a < n; a++) {
+            candidate[a] = fromOrigin[a] != UNREACHABLE && toDestination[a] != UNREACHABLE
+                    && fromOrigin[a] + toDestination[a] <= maxLegs
+                    && (layoverAirports.length == 0 || contains(layoverAirports, airports[a]));
+        }
+
+        if (detourFactor != Double.POSITIVE_INFINITY && !Double.isNaN(latitudes[o]) && !Double.isNaN(latitudes[d])) {
+            final double[] via = new double[n];
+            for (int a = 0; a < n; a++) {
+                if (candidate[a] && !Double.isNaN(latitudes[a])) {
+                    via[a] = distance(o, a) + distance(a, d);
+                }
+            }
+            final double shortest = fromOrigin[d] == 1 ? distance(o, d)
+                    : shortestConnection(o, d, candidate, fromOrigin, toDestination);
+            final double maxDistance = detourFactor * shortest + Geography.DETOUR_ALLOWANCE;
+            for (int a = 0; a < n; a++) {
+                if (candidate[a] && !Double.isNaN(latitudes[a])) {
+                    candidate[a] = via[a] <= maxDistance;
+                }
+            }
+        }
+
+        final Set<String> candidates = new HashSet<>();
+        for (int a = 0; a < n; a++) {
+            if (candidate[a]) candidates.add(airports[a]);
+        }
+        return candidates.size() < n || layoverAirports.length > 0 ? candidates : null;
+    }
+
+    /**
+     * @return the shortest distance from the origin via a first layover with a nonstop flight from the origin and a
+     * last layover with a nonstop flight to the destination, which may be the same, to the destination
+     */
+    private double shortestConnection(final int o, final int d, final boolean[] candidate, final int[] fromOrigin,
+                                      final int[] toDestination) {
+        final int n = airports.length;
+        final List<Integer> firsts = new ArrayList<>();
+        final List<Integer> lasts = new ArrayList<>();
+        for (int a = 0; a < n; a++) {
+            if (candidate[a] && a != o && a != d && !Double.isNaN(latitudes[a])) {
+                if (fromOrigin[a] == 1) firsts.add(a);
+                if (toDestination[a] == 1) lasts.add(a);
+            }
+        }
+        double shortest = Double.POSITIVE_INFINITY;
+        for (final int first : firsts) {
+            for (final int last : lasts) {
+                shortest = Math.min(shortest, distance(o, first) + distance(first, last) + distance(last, d));
+            }
+        }
+        return shortest;
+    }
+
+    /**
+     * @return the minimum number of legs from the given airport along the given routes, up to {@code maxLegs}, or
+     * {@link #UNREACHABLE}
+     */
+    private int[] legs(final int from, final int[][] routes, final int maxLegs) {
+        final int[] legs = new int[airports.length];
+        Arrays.fill(legs, UNREACHABLE);
+        final int[] queue = new int[airports.length];
+        legs[from] = 0;
+        queue[0] = from;
+        for (int head = 0, tail = 1; head < tail && legs[queue[head]] < maxLegs; head++) {
+            final int airport = queue[head];
+            for (final int to : routes[airport]) {
+                if (legs[to] == UNREACHABLE) {
+                    legs[to] = legs[airport] + 1;
+                    queue[tail++] = to;
+                }
+            }
+        }
+        return legs;
+    }
+
+    private double distance(final int a, final int b) {
+        return Geography.distance(latitudes[a], longitudes[a], latitudes[b], longitudes[b]);
+    }
+
+    private static boolean contains(final String[] airports, final String airport) {
+        for (final String a : airports) {
+            if (a.equals(airport)) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,36 @@
+package com.stackoverflow.weiping;
+
+/**
+ * Collects the sizes and timings of a schedule file load.
+ */
+class LoadStats {
+
+    long bytes;
+    int chunks;
+    int legs;
+    // legs that can't be represented in a timetable: without a positive block time, or arriving more than a day after
+    // their departure
+    int skippedDuration;
+    int skippedArrivalDay;
+    long parseNanos;
+    long mergeNanos;
+
+    /**
+     * Records the timings of the load phases as {@code load.parse} and {@code load.merge}.
+     */
+    void recordTo(final MetricsRegistry metrics) {
+        metrics.recordBuildPhase("load.parse", parseNanos);
+        metrics.recordBuildPhase("load.merge", mergeNanos);
+    }
+
+    int skipped() {
+        return skippedDuration + skippedArrivalDay;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("load[MB:%.1f chunks:%d legs:%d skipped:%d (duration:%d arrivalDay:%d) parseMs:%.1f mergeMs:%.1f]",
+                bytes / 1048576.0, chunks, legs, skipped(), skippedDuration, skippedArrivalDay, parseNanos / 1e6,
+                mergeNanos / 1e6);
+    }
+}
@@ -0,0 +1,80 @@
+package com.stackoverflow.weiping;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Receives the metrics of route searches and graph builds, to be passed on to whatever metrics library is in use.
+ * Engines created with {@link #NOOP} aren't instrumented at all.
+ */
+interface MetricsRegistry {
+
+    MetricsRegistry NOOP = new MetricsRegistry() {
+
+        @Override
+        public boolean isEnabled() {
+            return false;
+        }
+
+        @Override
+        public long getSlowQueryNanos() {
+            return Long.MAX_VALUE;
+        }
+
+        @Override
+        public void recordQuery(final String engine, final long nanos, final int results) {
+        }
+
+        @Override
+        public void recordSearchWork(final String engine, final long expandedEdges, final long prunedPaths) {
+        }
+
+        @Override
+        public void recordSlowQuery(final String engine, final RouteQuery query, final long nanos, final String profile) {
+        }
+
+        @Override
+        public void recordBuildPhase(final String phase, final long nanos) {
+        }
+    };
+
+    default boolean isEnabled() {
+        return true;
+    }
+
+    /**
+     * @return the time spent on a query from which on it's reported by {@link #recordSlowQuery}
+     */
+    long getSlowQueryNanos();
+
+    /**
+     * @return the executor that runs the {@link RouteSearchEngine#profile profiles} of slow queries, off the
+     * querying thread, or {@code null} to record slow queries without a profile
+     */
+    default Executor getProfiler() {
+        return null;
+    }
+
+    /**
+     * Records a query whose results were consumed completely, or closed before.
+     *
+     * @param nanos the time spent in the engine, while creating and while consuming the results
+     */
+    void recordQuery(String engine, long nanos, int results);
+
+    /**
+     * Records the work of a query for engines that count it, see {@link SearchCounts}.
+     */
+    void recordSearchWork(String engine, long expandedEdges, long prunedPaths);
+
+    /**
+     * Records a slow query.
+     *
+     * @param profile how the engine executes the query, see {@link RouteSearchEngine#profile}, or {@code null}
+     */
+    void recordSlowQuery(String engine, RouteQuery query, long nanos, String profile);
+
+    /**
+     * Records the duration of a phase of building a graph or loading a schedule, e.g. {@code graph.layovers}.
+     */
+    void recordBuildPhase(String phase, long nanos);
+}
@@ -0,0 +1,379 @@
+package com.stackoverflow.weiping;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.stackoverflow.weiping.util.TimeUtil.*;
+
+/**
+ * Multi-criteria search over the flights of a {@link FlightIndex}. Instead of the fastest route per departure, it
+ * returns the Pareto set over the total travel time, the number of legs and the arrival time: a route is only left
+ * out if another route is at least as good in all three criteria and better in at least one of them.
+ * <p>
+ * The search works in rounds like rRAPTOR. The flights leaving the origin within the departure window are processed
+ * from the latest to the earliest, and for each of them round k extends the routes of round k-1 by one more leg.
+ * Like the round bags of RAPTOR, every airport keeps a Pareto bag over the arrival time and the number of legs
+ * of the labels that reached it, for all runs of a query. Since runs with later departures come first, a label is
+ * dropped if the bag of its airport holds an arrival that is no later with at most as many legs: that route departed
+ * no earlier, so it is at least as good in all three criteria. Maximum connect times may prevent an earlier arrival
+ * from catching a flight that a later arrival catches, so with them the bags are kept per arriving flight instead,
+ * see {@link FlightIndex#labelsPerFlight}, and only hold arrivals of the same flight at the same time. Routes have at
+ * most {@code maxLegs} legs.
+ * <p>
+ * Connections follow the same rules as in {@link ConnectionScanRouteSearchEngine} and routes never visit an airport
+ * twice.
+ * <p>
+ * Besides {@code routes}, {@code layovers} and {@code time}, each result contains {@code legs} (the number of
+ * flights) and {@code arrival} (minutes since midnight of the travel date). Results are ordered by travel time.
+ */
+class ParetoRouteSearchEngine implements RouteSearchEngine {
+
+    /**
+     * The default maximum number of legs of a route, i.e. of rounds of the search.
+     */
+    static final int DEFAULT_MAX_LEGS = 8;
+
+    private static final int UNREACHED = Integer.MAX_VALUE;
+
+    private final Timetable timetable;
+    private final FlightIndex index;
+    private final int maxLegs;
+    private final ThreadLocal<SearchState> searchState;
+
+    ParetoRouteSearchEngine(final Timetable timetable, final ConnectionRules rules) {
+        this(new FlightIndex(timetable, rules), DEFAULT_MAX_LEGS);
+    }
+
+    ParetoRouteSearchEngine(final FlightIndex index, final int maxLegs) {
+        if (maxLegs < 1) {
+            throw new IllegalArgumentException("maxLegs must be positive: " + maxLegs);
+        }
+        this.timetable = index.timetable;
+        this.index = index;
+        this.maxLegs = maxLegs;
+        this.searchState = ThreadLocal.withInitial(() -> new SearchState(
+                index.labelsPerFlight ? index.size() : index.airportCount()));
+    }
+
+    @Override
+    public Iterator<Map<String, Object>> findFlights(final LocalDate travelDate,
+                                                     final String origin, final String destination,
+                                                     final int minLayover, final int departureMinTime, final int departureMaxTime,
+                                                     final String... layoverAirports) {
+
+        final int originId = timetable.airportId(origin);
+        final int destinationId = timetable.airportId(destination);
+        if (originId < 0 || destinationId < 0) {
+            return Collections.emptyIterator();
+        }
+
+        final SearchState state = searchState.get();
+        state.reset(layoverAirports.length > 0 ? allowedAirports(destinationId, layoverAirports) : null);
+
+        final int date = (int) travelDate.toEpochDay();
+        final int dow = travelDate.getDayOfWeek().getValue();
+        final List<Candidate> candidates = new ArrayList<>();
+
+        // latest departures first, so that their labels prune those of earlier departures
+        for (int i = index.departureOffsets[originId + 1] - 1; i >= index.departureOffsets[originId]; i--) {
+            final int flight = index.departures[i];
+            final int l = index.leg[flight];
+            if (index.dayOfWeek[flight] == dow && timetable.departure(l) >= departureMinTime && timetable.departure(l) <= departureMaxTime
+                    && index.isValid(flight, date) && state.isAllowed(timetable.destination(l))) {
+                search(state, flight, originId, destinationId, date, minLayover, candidates);
+            }
+        }
+
+        final List<Map<String, Object>> results = new ArrayList<>();
+        for (final Candidate candidate : candidates) {
+            if (!isDominated(candidate, candidates)) {
+                results.add(candidate.result);
+            }
+        }
+        results.sort(Comparator.<Map<String, Object>>comparingDouble(r -> (double) r.get("time"))
+                .thenComparingInt(r -> (int) r.get("legs")));
+        return results.iterator();
+    }
+
+    private boolean[] allowedAirports(final int destinationId, final String[] layoverAirports) {
+        final boolean[] allowed = new boolean[timetable.airportCount()];
+        allowed[destinationId] = true;
+        for (final String airport : layoverAirports) {
+            final int id = timetable.airportId(airport);
+            if (id >= 0) allowed[id] = true;
+        }
+        return allowed;
+    }
+
+    private void search(final SearchState state, final int firstFlight, final int originId, final int destinationId,
+                        final int date, final int minLayover, final List<Candidate> candidates) {
+
+        final int l = index.leg[firstFlight];
+        final int departure = timetable.departure(l);
+        state.labelCount = 0;
+        final int arrival = departure + timetable.duration(l);
+        if (state.isDominated(firstFlight, arrival, 1)) {
+            return;
+        }
+        state.add(firstFlight, arrival, timetable.isOvernight(l) ? 1 : 0, -1, -1, 1);
+        if (timetable.destination(l) == destinationId) {
+            state.reachDestination(0, 1);
+            candidates.add(toCandidate(state, 0, departure));
+            return;
+        }
+
+        int from = 0;
+        for (int legs = 1; legs < maxLegs && from < state.labelCount; legs++) {
+            final int to = state.labelCount;
+            for (int label = from; label < to; label++) {
+                relax(state, label, legs, originId, destinationId, date, minLayover, departure, candidates);
+            }
+            from = to;
+        }
+    }
+
+    private void relax(final SearchState state, final int label, final int legs, final int originId, final int destinationId,
+                       final int date, final int minLayover, final int departure, final List<Candidate> candidates) {
+
+        final int airport = timetable.destination(index.leg[state.labelFlight[label]]);
+        final int from = index.departureOffsets[airport];
+        final int to = index.departureOffsets[airport + 1];
+        final int count = to - from;
+        if (count == 0 || airport == destinationId) {
+            return;
+        }
+
+        final int arrivalTime = state.labelArrival[label];
+        final int arrivalWeekMinute = index.arrival[state.labelFlight[label]];
+        final int dateOffset = state.labelDateOffset[label];
+        final int minConnectTime = Math.max(minLayover, index.minConnectTime[airport]);
+        final int maxConnectTime = index.maxConnectTime[airport];
+
+        // walk the departures in order of increasing layover, starting right after the arrival
+        final int first = index.firstDepartureAfter(from, to, arrivalWeekMinute) - from;
+        for (int k = 0; k < count; k++) {
+            final int i = from + (first + k) % count;
+            final int layover = layoverTime(arrivalWeekMinute, index.departureWeekMinutes[i]);
+            if (layover < minConnectTime) {
+                continue;
+            }
+            final int departs = arrivalTime + layover;
+            if (layover > maxConnectTime || departs >= state.bestArrival(legs + 1)) {
+                break; // no later departure can beat the best arrival at the destination with as many legs
+            }
+            final int flight = index.departures[i];
+            final int l = index.leg[flight];
+            final int next = timetable.destination(l);
+            final int arrives = departs + timetable.duration(l);
+            final int offset = dateOffset + (timetable.isOvernight(l) ? 1 : 0);
+            if (next == originId || !state.isAllowed(next) || !index.isValid(flight, date + dateOffset)
+                    || arrives >= state.bestArrival(legs + 1) || state.isDominated(flight, arrives, legs + 1)
+                    || state.visits(label, next)) {
+                continue;
+            }
+            final int added = state.add(flight, arrives, offset, layover, label, legs + 1);
+            if (next == destinationId) {
+                state.reachDestination(added, legs + 1);
+                candidates.add(toCandidate(state, added, departure));
+            }
+        }
+    }
+
+    private Candidate toCandidate(final SearchState state, final int label, final int departure) {
+
+        final List<Map<String, Object>> routes = new ArrayList<>();
+        final List<Integer> layovers = new ArrayList<>();
+
+        for (int i = label; i >= 0; i = state.labelParent[i]) {
+            final int l = index.leg[state.labelFlight[i]];
+            final Map<String, Object> route = new LinkedHashMap<>();
+            route.put("depAirport", timetable.airport(timetable.origin(l)));
+            route.put("depTime", timetable.departure(l));
+            route.put("carrier", timetable.carrier(l));
+            route.put("num", timetable.flightNumber(l));
+            route.put("dur", timetable.duration(l));
+            route.put("o", timetable.isOvernight(l));
+            route.put("arrAirport", timetable.airport(timetable.destination(l)));
+            routes.add(route);
+            if (state.labelParent[i] >= 0) {
+                layovers.add(state.labelLayover[i]);
+            }
+        }
+        Collections.reverse(routes);
+        Collections.reverse(layovers);
+
+        final int arrival = state.labelArrival[label];
+        final int legs = routes.size();
+        final Map<String, Object> result = new LinkedHashMap<>();
+        result.put("routes", routes);
+        result.put("layovers", layovers);
+        result.put("time", (arrival - departure) / 60.0);
+        result.put("legs", legs);
+        result.put("arrival", arrival);
+        return new Candidate(arrival - departure, legs, arrival, result);
+    }
+
+    private static boolean isDominated(final Candidate candidate, final List<Candidate> candidates) {
+        for (final Candidate other : candidates) {
+            if (other.elapsed <= candidate.elapsed && other.legs <= candidate.legs && other.arrival <= candidate.arrival
+                    && (other.elapsed < candidate.elapsed || other.legs < candidate.legs || other.arrival < candidate.arrival)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class Candidate {
+
+        final int elapsed;
+        final int legs;
+        final int arrival;
+        final Map<String, Object> result;
+
+        Candidate(final int elapsed, final int legs, final int arrival, final Map<String, Object> result) {
+            this.elapsed = elapsed;
+            this.legs = legs;
+            this.arrival = arrival;
+            this.result = result;
+        }
+    }
+
+    /**
+     * Per-thread scratch space. Times are given in minutes since midnight of the travel date. Generation stamps
+     * avoid clearing the bags between queries.
+     */
+    private final class SearchState {
+
+        // the bag of airport or flight b: the earliest arrival with at most k legs in bags[b * (maxLegs + 1) + k],
+        // or per flight, the last arrival with exactly k legs
+        final int[] bags;
+        final int[] bagQuery;
+        int query;
+
+        boolean[] allowed;
+
+        // earliest arrival at the destination by number of legs
+        int[] bestArrival = new int[8];
+
+        // labels of the current run; labelParent links a label to the one it connects from
+        int[] labelFlight = new int[64];
+        int[] labelArrival = new int[64];
+        int[] labelDateOffset = new int[64];
+        int[] labelLayover = new int[64];
+        int[] labelParent = new int[64];
+        int labelCount;
+
+        SearchState(final int numBags) {
+            bags = new int[Math.multiplyExact(numBags, maxLegs + 1)];
+            bagQuery = new int[numBags];
+        }
+
+        void reset(final boolean[] allowed) {
+            query++;
+            this.allowed = allowed;
+            Arrays.fill(bestArrival, UNREACHED);
+        }
+
+        boolean isAllowed(final int airport) {
+            return allowed == null || allowed[airport];
+        }
+
+        /**
+         * @return the earliest arrival at the destination with at most the given number of legs
+         */
+        int bestArrival(final int legs) {
+            int best = UNREACHED;
+            for (int i = 1; i <= legs && i < bestArrival.length; i++) {
+                best = Math.min(best, bestArrival[i]);
+            }
+            return best;
+        }
+
+        void reachDestination(final int label, final int legs) {
+            if (legs >= bestArrival.length) {
+                final int length = bestArrival.length;
+                bestArrival = Arrays.copyOf(bestArrival, Math.max(legs + 1, 2 * length));
+                Arrays.fill(bestArrival, length, bestArrival.length, UNREACHED);
+            }
+            bestArrival[legs] = Math.min(bestArrival[legs], labelArrival[label]);
+        }
+
+        private int bag(final int flight) {
+            return index.labelsPerFlight ? flight : timetable.destination(index.leg[flight]);
+        }
+
+        /**
+         * @return {@code true} if the bag of the flight's arrival holds an arrival as early with at most as many legs
+         */
+        boolean isDominated(final int flight, final int arrival, final int legs) {
+            final int bag = bag(flight);
+            if (bagQuery[bag] != query) {
+                return false;
+            }
+            final int offset = bag * (maxLegs + 1);
+            if (!index.labelsPerFlight) {
+                return bags[offset + legs] <= arrival;
+            }
+            for (int k = 1; k <= legs; k++) {
+                if (bags[offset + k] == arrival) return true;
+            }
+            return false;
+        }
+
+        private void addToBag(final int flight, final int arrival, final int legs) {
+            final int bag = bag(flight);
+            final int offset = bag * (maxLegs + 1);
+            if (bagQuery[bag] != query) {
+                bagQuery[bag] = query;
+                Arrays.fill(bags, offset, offset + maxLegs + 1, UNREACHED);
+            }
+            if (index.labelsPerFlight) {
+                bags[offset + legs] = arrival;
+            } else {
+                for (int k = legs; k <= maxLegs; k++) {
+                    bags[offset + k] = Math.min(bags[offset + k], arrival);
+                }
+            }
+        }
+
+        /**
+         * @return {@code true} if the route of the given label already departed from or arrived at the given airport
+         */
+        boolean visits(final int label, final int airport) {
+            for (int i = label; i >= 0; i = labelParent[i]) {
+                final int l = index.leg[labelFlight[i]];
+                if (timetable.destination(l) == airport || timetable.origin(l) == airport) return true;
+            }
+            return false;
+        }
+
+        int add(final int flight, final int arrival, final int dateOffset,
+                final int layover, final int parent, final int legs) {
+
+            addToBag(flight, arrival, legs);
+
+            if (labelCount == labelFlight.length) {
+                final int capacity = 2 * labelCount;
+                labelFlight = Arrays.copyOf(labelFlight, capacity);
+                labelArrival = Arrays.copyOf(labelArrival, capacity);
+                labelDateOffset = Arrays.copyOf(labelDateOffset, capacity);
+                labelLayover = Arrays.copyOf(labelLayover, capacity);
+                labelParent = Arrays.copyOf(labelParent, capacity);
+            }
+            final int label = labelCount++;
+            labelFlight[label] = flight;
+            labelArrival[label] = arrival;
+            labelDateOffset[label] = dateOffset;
+            labelLayover[label] = layover;
+            labelParent[label] = parent;
+            return label;
+        }
+    }
+}
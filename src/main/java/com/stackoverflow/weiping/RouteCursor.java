@@ -0,0 +1,64 @@
+package com.stackoverflow.weiping;
+
+import org.apache.tinkerpop.gremlin.structure.util.CloseableIterator;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pages through the routes of a query. Each page continues where the previous one stopped; with an engine that
+ * returns its routes lazily, like {@link ConnectionScanRouteSearchEngine}, the search itself only runs as far as
+ * the requested pages need, so the first page of k routes is the top k. A cursor that isn't read to the end should
+ * be closed.
+ */
+class RouteCursor implements AutoCloseable {
+
+    private final RouteQuery query;
+    private final Iterator<Map<String, Object>> routes;
+    private int position;
+
+    RouteCursor(final RouteSearchEngine engine, final RouteQuery query) {
+        this.query = query;
+        this.routes = engine.findFlights(query);
+    }
+
+    /**
+     * @return the next {@code pageSize} routes, fewer if the search is exhausted
+     */
+    List<Map<String, Object>> nextPage(final int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("pageSize must be positive: " + pageSize);
+        }
+        final List<Map<String, Object>> page = new ArrayList<>(Math.min(pageSize, 16));
+        while (page.size() < pageSize && routes.hasNext()) {
+            page.add(routes.next());
+        }
+        position += page.size();
+        return page;
+    }
+
+    boolean hasNext() {
+        return routes.hasNext();
+    }
+
+    RouteQuery getQuery() {
+        return query;
+    }
+
+    /**
+     * @return the number of routes returned so far
+     */
+    int getPosition() {
+        return position;
+    }
+
+    /**
+     * Closes the routes, so e.g. an {@link InstrumentedRouteSearchEngine} reports the query.
+     */
+    @Override
+    public void close() {
+        CloseableIterator.closeIterator(routes);
+    }
+}
@@ -0,0 +1,94 @@
+package com.stackoverflow.weiping;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.TreeSet;
+
+/**
+ * The parameters of a route search. Layover airports are kept as a sorted set, so two queries that only differ in
+ * the order or repetition of their layover airports are equal.
+ */
+final class RouteQuery {
+
+    private final LocalDate travelDate;
+    private final String origin;
+    private final String destination;
+    private final int minLayover;
+    private final int departureMinTime;
+    private final int departureMaxTime;
+    private final String[] layoverAirports;
+
+    RouteQuery(final LocalDate travelDate, final String origin, final String destination,
+               final int minLayover, final int departureMinTime, final int departureMaxTime,
+               final String... layoverAirports) {
+        this.travelDate = travelDate;
+        this.origin = origin;
+        this.destination = destination;
+        this.minLayover = minLayover;
+        this.departureMinTime = departureMinTime;
+        this.departureMaxTime = departureMaxTime;
+        this.layoverAirports = new TreeSet<>(Arrays.asList(layoverAirports)).toArray(new String[0]);
+    }
+
+    LocalDate getTravelDate() {
+        return travelDate;
+    }
+
+    String getOrigin() {
+        return origin;
+    }
+
+    String getDestination() {
+        return destination;
+    }
+
+    int getMinLayover() {
+        return minLayover;
+    }
+
+    int getDepartureMinTime() {
+        return departureMinTime;
+    }
+
+    int getDepartureMaxTime() {
+        return departureMaxTime;
+    }
+
+    String[] getLayoverAirports() {
+        return layoverAirports.clone();
+    }
+
+    /**
+     * @return {@code true} if the query mentions the given airport as its origin, destination or layover airport
+     */
+    boolean mentions(final String airport) {
+        return origin.equals(airport) || destination.equals(airport) || Arrays.binarySearch(layoverAirports, airport) >= 0;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) return true;
+        if (!(o instanceof RouteQuery)) return false;
+        final RouteQuery that = (RouteQuery) o;
+        return minLayover == that.minLayover &&
+                departureMinTime == that.departureMinTime &&
+                departureMaxTime == that.departureMaxTime &&
+                travelDate.equals(that.travelDate) &&
+                origin.equals(that.origin) &&
+                destination.equals(that.destination) &&
+                Arrays.equals(layoverAirports, that.layoverAirports);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Objects.hash(travelDate, origin, destination, minLayover, departureMinTime, departureMaxTime)
+                + Arrays.hashCode(layoverAirports);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s -> %s on %s (MCT %d, departure %d-%d, via %s)", origin, destination, travelDate,
+                minLayover, departureMinTime, departureMaxTime, Arrays.toString(layoverAirports));
+    }
+}
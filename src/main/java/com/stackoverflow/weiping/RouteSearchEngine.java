@@ -0,0 +1,181 @@
+package com.stackoverflow.weiping;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+interface RouteSearchEngine {
+
+    /**
+     * Finds all routes from {@code origin} to {@code destination}. Each result is a map with the keys
+     * {@code routes} (list of flight maps), {@code layovers} (list of layover minutes) and {@code time}
+     * (total travel time in hours), ordered by travel time.
+     * <p>
+     * A route never visits an airport twice. In particular, it doesn't pass through the origin again: that would
+     * be a round trip followed by a departure outside of the departure window.
+     */
+    Iterator<Map<String, Object>> findFlights(LocalDate travelDate, String origin, String destination,
+                                              int minLayover, int departureMinTime, int departureMaxTime,
+                                              String... layoverAirports);
+
+    default Iterator<Map<String, Object>> findFlights(final RouteQuery query) {
+        return findFlights(query.getTravelDate(), query.getOrigin(), query.getDestination(), query.getMinLayover(),
+                query.getDepartureMinTime(), query.getDepartureMaxTime(), query.getLayoverAirports());
+    }
+
+    /**
+     * Same as {@link #findFlights(RouteQuery)}, with typed results.
+     */
+    default Iterator<Itinerary> findItineraries(final RouteQuery query) {
+        return Itinerary.of(findFlights(query));
+    }
+
+    /**
+     * Finds the fastest routes for every travel date from {@code firstDate} to {@code lastDate}, at most
+     * {@code maxRoutes} per date, in the order of {@link #findFlights}. The map has an entry for every date, in
+     * date order; dates without routes map to empty lists.
+     */
+    default Map<LocalDate, List<Map<String, Object>>> findFlightsByDate(final LocalDate firstDate, final LocalDate lastDate,
+                                                                        final int maxRoutes,
+                                                                        final String origin, final String destination,
+                                                                        final int minLayover, final int departureMinTime,
+                                                                        final int departureMaxTime,
+                                                                        final String... layoverAirports) {
+        if (lastDate.isBefore(firstDate)) {
+            throw new IllegalArgumentException(String.format("lastDate %s is before firstDate %s", lastDate, firstDate));
+        }
+        if (maxRoutes < 1) {
+            throw new IllegalArgumentException("maxRoutes must be positive: " + maxRoutes);
+        }
+        final Map<LocalDate, List<Map<String, Object>>> results = new LinkedHashMap<>();
+        for (LocalDate date = firstDate; !date.isAfter(lastDate); date = date.plusDays(1)) {
+            final Iterator<Map<String, Object>> routes = findFlights(date, origin, destination, minLayover,
+                    departureMinTime, departureMaxTime, layoverAirports);
+            final List<Map<String, Object>> best = new ArrayList<>();
+            while (best.size() < maxRoutes && routes.hasNext()) {
+                best.add(routes.next());
+            }
+            results.put(date, best);
+        }
+        return results;
+    }
+
+    /**
+     * Same as {@link #findFlightsByDate(LocalDate, LocalDate, int, String, String, int, int, int, String...)} for
+     * the dates from the query's travel date to {@code lastDate}.
+     */
+    default Map<LocalDate, List<Map<String, Object>>> findFlightsByDate(final RouteQuery query, final LocalDate lastDate,
+                                                                        final int maxRoutes) {
+        return findFlightsByDate(query.getTravelDate(), lastDate, maxRoutes, query.getOrigin(), query.getDestination(),
+                query.getMinLayover(), query.getDepartureMinTime(), query.getDepartureMaxTime(), query.getLayoverAirports());
+    }
+
+    /**
+     * Describes how the engine executes the given query, for engines that can, e.g. the {@code profile()} of a
+     * Gremlin traversal. This usually runs the query.
+     *
+     * @return the description or {@code null}
+     */
+    default String profile(final RouteQuery query) {
+        return null;
+    }
+
+    static RouteSearchEngine create(final String name, final Timetable timetable) {
+        return create(name, timetable, ConnectionRules.UNRESTRICTED);
+    }
+
+    static RouteSearchEngine create(final String name, final Timetable timetable, final ConnectionRules rules) {
+        return create(name, timetable, rules, MetricsRegistry.NOOP);
+    }
+
+    /**
+     * @param metrics unless it's {@link MetricsRegistry#NOOP}, receives the build phase timings and the engine
+     *                is {@link InstrumentedRouteSearchEngine instrumented}
+     */
+    static RouteSearchEngine create(final String name, final Timetable timetable, final ConnectionRules rules,
+                                    final MetricsRegistry metrics) {
+        return create(name, timetable, rules, Geography.NONE, metrics);
+    }
+
+    /**
+     * Same as {@link #create(String, Timetable, ConnectionRules, MetricsRegistry)}; the Gremlin engines only
+     * connect at layover airports within the geography's detour limit.
+     */
+    static RouteSearchEngine create(final String name, final Timetable timetable, final ConnectionRules rules,
+                                    final Geography geography, final MetricsRegistry metrics) {
+        final long start = System.nanoTime();
+        final RouteSearchEngine engine;
+        switch (name) {
+            case "gremlin":
+            case "bidirectional":
+                final BuildStats stats = new BuildStats();
+                engine = new GremlinRouteSearchEngine(FlightRouteGraph.createGraph(timetable, rules, geography, stats)
+                        .traversal(), rules, metrics.isEnabled(),
+                        name.equals("bidirectional"), geography.detourFactor());
+                stats.recordTo(metrics);
+                break;
+            case "native":
+                engine = new ConnectionScanRouteSearchEngine(timetable, rules);
+                break;
+            case "pareto":
+                engine = new ParetoRouteSearchEngine(timetable, rules);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown route search engine: " + name);
+        }
+        return instrument(name, engine, start, metrics);
+    }
+
+    /**
+     * Same as {@link #create(String, Timetable, ConnectionRules)} with the snapshot's timetable and rules, except
+     * that the graph restores the snapshot's {@code next} edges instead of computing them.
+     */
+    static RouteSearchEngine create(final String name, final GraphSnapshot snapshot) {
+        return create(name, snapshot, MetricsRegistry.NOOP);
+    }
+
+    /**
+     * Same as {@link #create(String, GraphSnapshot)}, instrumented like
+     * {@link #create(String, Timetable, ConnectionRules, MetricsRegistry)}.
+     */
+    static RouteSearchEngine create(final String name, final GraphSnapshot snapshot, final MetricsRegistry metrics) {
+        return create(name, snapshot, Geography.NONE, metrics);
+    }
+
+    /**
+     * Same as {@link #create(String, GraphSnapshot, MetricsRegistry)}, with the geography of
+     * {@link #create(String, Timetable, ConnectionRules, Geography, MetricsRegistry)}.
+     */
+    static RouteSearchEngine create(final String name, final GraphSnapshot snapshot, final Geography geography,
+                                    final MetricsRegistry metrics) {
+        switch (name) {
+            case "gremlin":
+            case "bidirectional":
+                final long start = System.nanoTime();
+                final BuildStats stats = new BuildStats();
+                final RouteSearchEngine engine = new GremlinRouteSearchEngine(FlightRouteGraph.createGraph(snapshot,
+                        geography, stats).traversal(), snapshot.getRules(), metrics.isEnabled(),
+                        name.equals("bidirectional"), geography.detourFactor());
+                stats.recordTo(metrics);
+                return instrument(name, engine, start, metrics);
+            default:
+                return create(name, snapshot.getTimetable(), snapshot.getRules(), geography, metrics);
+        }
+    }
+
+    /**
+     * Records the engine's setup time as the build phase {@code <name>.create} and wraps the engine, unless the
+     * registry is {@link MetricsRegistry#NOOP}.
+     */
+    static RouteSearchEngine instrument(final String name, final RouteSearchEngine engine, final long start,
+                                        final MetricsRegistry metrics) {
+        if (!metrics.isEnabled()) {
+            return engine;
+        }
+        metrics.recordBuildPhase(name + ".create", System.nanoTime() - start);
+        return new InstrumentedRouteSearchEngine(engine, name, metrics);
+    }
+}
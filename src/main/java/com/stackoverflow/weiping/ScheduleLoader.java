@@ -0,0 +1,502 @@
+package com.stackoverflow.weiping;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.ToIntFunction;
+import java.util.stream.IntStream;
+
+import static com.stackoverflow.weiping.util.TimeUtil.*;
+
+/**
+ * Loads timetables from CSV or SSIM files with millions of legs. The file is memory-mapped in chunks of whole lines
+ * which are parsed in parallel straight from the mapped bytes, without creating Strings for the fields: airport,
+ * carrier and flight number codes are packed into longs and only turned into Strings once per distinct code when
+ * the chunks are merged into the timetable.
+ * <p>
+ * CSV files have one leg per line with the same fields as a {@link Flight}; a header line starting with
+ * {@code from,}, empty lines and lines starting with {@code #} are skipped:
+ * <pre>
+ * from,to,carrier,flightNumber,startDate,endDate,departure,arrival,overnight,days
+ * HNL,PDX,AA,100,2019-01-23,2019-03-20,08:00,13:00,false,67
+ * </pre>
+ * The days are the digits of the weekdays the leg is operated on (1 being Monday), other characters are ignored.
+ * <p>
+ * SSIM files (IATA SSIM chapter 7, one record per line) contribute their leg records (type 3). Their local times are
+ * converted to UTC with the records' UTC time variations, so that durations are block times and connections between
+ * flights from different time zones line up; periods and days of operation are shifted to the UTC day of departure,
+ * like those of legs of multi-leg flights that depart a day or more after the flight's first leg. Legs with a block
+ * time that isn't positive and legs that arrive neither on the day of their departure nor on the day after can't be
+ * represented and are skipped, see {@link LoadStats}.
+ */
+class ScheduleLoader {
+
+    enum Format {
+
+        CSV, SSIM;
+
+        /**
+         * @return {@link #SSIM} if the file starts with an SSIM header record, otherwise {@link #CSV}
+         */
+        static Format of(final Path file) throws IOException {
+            final ByteBuffer header = ByteBuffer.allocate(SSIM_HEADER.length);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                while (header.hasRemaining() && channel.read(header) >= 0) ;
+            }
+            return Arrays.equals(header.array(), SSIM_HEADER) ? SSIM : CSV;
+        }
+    }
+
+    private static final byte[] SSIM_HEADER = "1AIRLINE STANDARD SCHEDULE DATA SET".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] MONTHS = "JANFEBMARAPRMAYJUNJULAUGSEPOCTNOVDEC".getBytes(StandardCharsets.US_ASCII);
+
+    private static final int MIN_CHUNK_SIZE = 1 << 20;
+    private static final int MAX_CHUNK_SIZE = 64 << 20;
+
+    static Timetable load(final Path file) throws IOException {
+        return load(file, new LoadStats());
+    }
+
+    static Timetable load(final Path file, final LoadStats stats) throws IOException {
+        return load(file, Format.of(file), stats);
+    }
+
+    /**
+     * @param stats receives the file size, the number of loaded and skipped legs and the time spent on each phase
+     * @throws IllegalArgumentException if a record is malformed
+     */
+    static Timetable load(final Path file, final Format format, final LoadStats stats) throws IOException {
+
+        final long start = System.nanoTime();
+
+        final List<Chunk> chunks = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            final long chunkSize = Math.max(MIN_CHUNK_SIZE,
+                    Math.min(MAX_CHUNK_SIZE, size / (4 * Runtime.getRuntime().availableProcessors()) + 1));
+            for (long offset = 0, end; offset < size; offset = end) {
+                end = lineEnd(channel, Math.min(size, offset + chunkSize));
+                chunks.add(new Chunk(channel.map(FileChannel.MapMode.READ_ONLY, offset, end - offset), offset, format));
+            }
+            stats.bytes += size;
+        }
+
+        // the mappings stay valid after the channel is closed
+        final Legs[] legs = IntStream.range(0, chunks.size()).parallel()
+                .mapToObj(i -> chunks.get(i).parse()).toArray(Legs[]::new);
+
+        final long mergeStart = System.nanoTime();
+        final Timetable timetable = merge(legs, stats);
+
+        stats.chunks += chunks.size();
+        stats.parseNanos += mergeStart - start;
+        stats.mergeNanos += System.nanoTime() - mergeStart;
+        return timetable;
+    }
+
+    /**
+     * @return the position after the first line break at or after {@code position - 1}, or the file size
+     */
+    private static long lineEnd(final FileChannel channel, final long position) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(4096);
+        for (long p = position - 1; p < channel.size(); p += buffer.limit()) {
+            buffer.clear();
+            channel.read(buffer, p);
+            buffer.flip();
+            for (int i = 0; i < buffer.limit(); i++) {
+                if (buffer.get(i) == '\n') return p + i + 1;
+            }
+        }
+        return channel.size();
+    }
+
+    private static Timetable merge(final Legs[] chunks, final LoadStats stats) {
+
+        int size = 0;
+        for (final Legs legs : chunks) {
+            size += legs.size;
+            stats.skippedDuration += legs.skippedDuration;
+            stats.skippedArrivalDay += legs.skippedArrivalDay;
+        }
+
+        final Timetable.Builder builder = new Timetable.Builder(size);
+        final Codes airports = new Codes(builder::airport);
+        final Codes carriers = new Codes(builder::carrier);
+        final Codes flightNumbers = new Codes(builder::flightNumber);
+
+        for (final Legs legs : chunks) {
+            for (int i = 0; i < legs.size; i++) {
+                builder.add(airports.id(legs.origin[i]), airports.id(legs.destination[i]),
+                        carriers.id(legs.carrier[i]), flightNumbers.id(legs.flightNumber[i]),
+                        legs.startDay[i], legs.endDay[i], legs.departure[i], legs.duration[i],
+                        legs.overnight[i], legs.days[i]);
+            }
+        }
+
+        stats.legs += size;
+        return builder.build();
+    }
+
+    /**
+     * A part of the file that only contains whole lines.
+     */
+    private static class Chunk {
+
+        private final ByteBuffer bytes;
+        private final long offset;
+        private final Format format;
+
+        // the current line
+        private int start;
+        private int end;
+        private int pos;
+
+        Chunk(final ByteBuffer bytes, final long offset, final Format format) {
+            this.bytes = bytes;
+            this.offset = offset;
+            this.format = format;
+        }
+
+        Legs parse() {
+            final Legs legs = new Legs(bytes.limit() / (format == Format.SSIM ? 200 : 64) + 16);
+            for (int next = 0; next < bytes.limit(); next = end + 1) {
+                start = pos = next;
+                end = start;
+                while (end < bytes.limit() && bytes.get(end) != '\n') end++;
+                final int length = (end > start && bytes.get(end - 1) == '\r' ? end - 1 : end) - start;
+                if (length > 0) {
+                    if (format == Format.SSIM) parseSsim(length, legs);
+                    else parseCsv(start + length, legs);
+                }
+            }
+            return legs;
+        }
+
+        private void parseCsv(final int lineEnd, final Legs legs) {
+
+            final byte first = bytes.get(start);
+            if (first == '#' || (offset == 0 && start == 0 && matches(start, Math.min(start + 5, lineEnd), "from,"))) {
+                return;
+            }
+
+            final long origin = code(pos, field(lineEnd));
+            final long destination = code(pos, field(lineEnd));
+            final long carrier = code(pos, field(lineEnd));
+            final long flightNumber = code(pos, field(lineEnd));
+            final int startDay = isoDate(pos, field(lineEnd));
+            final int endDay = isoDate(pos, field(lineEnd));
+            final int departure = time(pos, field(lineEnd), true);
+            final int arrival = time(pos, field(lineEnd), true);
+
+            final int from = pos, to = field(lineEnd);
+            final boolean overnight;
+            if (matches(from, to, "true") || matches(from, to, "1")) overnight = true;
+            else if (matches(from, to, "false") || matches(from, to, "0")) overnight = false;
+            else throw invalid();
+
+            final int days = days(pos, lineEnd);
+            legs.add(origin, destination, carrier, flightNumber, startDay, endDay,
+                    departure, arrival - departure + (overnight ? MINUTES_PER_DAY : 0), overnight, days);
+        }
+
+        private void parseSsim(final int length, final Legs legs) {
+
+            if (bytes.get(start) != '3') {
+                return;
+            }
+            if (length < 194) {
+                throw invalid();
+            }
+
+            // minutes in UTC after midnight of the flight's date
+            final int departure = dateVariation(start + 192) * MINUTES_PER_DAY + time(start + 39, start + 43, false)
+                    - utcVariation(start + 47);
+            final int arrival = dateVariation(start + 193) * MINUTES_PER_DAY + time(start + 61, start + 65, false)
+                    - utcVariation(start + 65);
+            final int duration = arrival - departure;
+            if (duration <= 0) {
+                legs.skippedDuration++;
+                return;
+            }
+
+            // the UTC day of departure shifts the flight's period and days of operation to this leg
+            final int departureDays = Math.floorDiv(departure, MINUTES_PER_DAY);
+            final int departureTime = departure - departureDays * MINUTES_PER_DAY;
+            if (departureTime + duration >= 2 * MINUTES_PER_DAY) {
+                legs.skippedArrivalDay++;
+                return;
+            }
+
+            final int endDay = ssimDate(start + 21);
+            final int days = days(start + 28, start + 35);
+            final int shift = Math.floorMod(departureDays, 7);
+            legs.add(code(start + 36, start + 39), code(start + 54, start + 57),
+                    code(start + 2, start + 5), flightNumber(start + 5, start + 9),
+                    ssimDate(start + 14) + departureDays, endDay == Integer.MAX_VALUE ? endDay : endDay + departureDays,
+                    departureTime, duration, departureTime + duration >= MINUTES_PER_DAY,
+                    ((days << shift) | (days >>> (7 - shift))) & 0x7f);
+        }
+
+        /**
+         * Moves to the start of the next CSV field.
+         *
+         * @return the end of the current field
+         */
+        private int field(final int lineEnd) {
+            int i = pos;
+            while (i < lineEnd && bytes.get(i) != ',') i++;
+            if (i == lineEnd) throw invalid();
+            pos = i + 1;
+            return i;
+        }
+
+        /**
+         * Packs up to 8 ASCII characters into a long, ignoring leading and trailing spaces.
+         */
+        private long code(int from, int to) {
+            while (from < to && bytes.get(from) == ' ') from++;
+            while (to > from && bytes.get(to - 1) == ' ') to--;
+            if (from == to || to - from > 8) throw invalid();
+            long code = 0;
+            for (int i = from; i < to; i++) {
+                final byte b = bytes.get(i);
+                if (b <= ' ' || b >= 0x7f) throw invalid();
+                code = code << 8 | b;
+            }
+            return code;
+        }
+
+        /**
+         * SSIM flight numbers are right-aligned and may be padded with zeros.
+         */
+        private long flightNumber(int from, final int to) {
+            while (from < to - 1 && (bytes.get(from) == ' ' || bytes.get(from) == '0')) from++;
+            return code(from, to);
+        }
+
+        /**
+         * @return the epoch day of a {@code yyyy-MM-dd} date
+         */
+        private int isoDate(final int from, final int to) {
+            if (to - from != 10 || bytes.get(from + 4) != '-' || bytes.get(from + 7) != '-') throw invalid();
+            return date(number(from, from + 4), number(from + 5, from + 7), number(from + 8, from + 10));
+        }
+
+        /**
+         * @return the epoch day of a {@code ddMMMyy} date or {@link Integer#MAX_VALUE} for the open end
+         * {@code 00XXX00}
+         */
+        private int ssimDate(final int from) {
+            if (matches(from, from + 7, "00XXX00")) return Integer.MAX_VALUE;
+            for (int m = 0; m < 12; m++) {
+                if (bytes.get(from + 2) == MONTHS[3 * m] && bytes.get(from + 3) == MONTHS[3 * m + 1]
+                        && bytes.get(from + 4) == MONTHS[3 * m + 2]) {
+                    return date(2000 + number(from + 5, from + 7), m + 1, number(from, from + 2));
+                }
+            }
+            throw invalid();
+        }
+
+        private int date(final int year, final int month, final int day) {
+            if (month < 1 || month > 12 || day < 1 || day > 31) throw invalid();
+            return toEpochDay(year, month, day);
+        }
+
+        /**
+         * @return the minutes after midnight of a {@code HH:mm} (or {@code HHmm}) time
+         */
+        private int time(final int from, final int to, final boolean colon) {
+            if (to - from != (colon ? 5 : 4) || (colon && bytes.get(from + 2) != ':')) throw invalid();
+            final int hours = number(from, from + 2);
+            final int minutes = number(to - 2, to);
+            if (hours > 23 || minutes > 59) throw invalid();
+            return hours * 60 + minutes;
+        }
+
+        /**
+         * @return the number of days a time refers to after the flight's date; {@code A} stands for the day before
+         */
+        private int dateVariation(final int at) {
+            final byte b = bytes.get(at);
+            if (b == ' ') return 0;
+            if (b == 'A') return -1;
+            if (b < '0' || b > '9') throw invalid();
+            return b - '0';
+        }
+
+        /**
+         * @return the minutes a local time is ahead of UTC, given as {@code +HHMM} or {@code -HHMM}
+         */
+        private int utcVariation(final int from) {
+            final byte sign = bytes.get(from);
+            if (sign != '+' && sign != '-') throw invalid();
+            final int variation = number(from + 1, from + 3) * 60 + number(from + 3, from + 5);
+            return sign == '-' ? -variation : variation;
+        }
+
+        /**
+         * @return the bitmask of the weekday digits (1 = Monday) in the given range
+         */
+        private int days(final int from, final int to) {
+            int days = 0;
+            for (int i = from; i < to; i++) {
+                final byte b = bytes.get(i);
+                if (b >= '1' && b <= '7') days |= 1 << (b - '1');
+            }
+            return days;
+        }
+
+        private int number(final int from, final int to) {
+            int n = 0;
+            for (int i = from; i < to; i++) {
+                final byte b = bytes.get(i);
+                if (b < '0' || b > '9') throw invalid();
+                n = n * 10 + b - '0';
+            }
+            return n;
+        }
+
+        private boolean matches(final int from, final int to, final String word) {
+            if (to - from != word.length()) return false;
+            for (int i = 0; i < word.length(); i++) {
+                if (Character.toLowerCase(bytes.get(from + i)) != Character.toLowerCase(word.charAt(i))) return false;
+            }
+            return true;
+        }
+
+        private IllegalArgumentException invalid() {
+            final byte[] line = new byte[end - start];
+            for (int i = 0; i < line.length; i++) {
+                line[i] = bytes.get(start + i);
+            }
+            return new IllegalArgumentException(String.format("Invalid %s record at byte %d: %s",
+                    format, offset + start, new String(line, StandardCharsets.US_ASCII).trim()));
+        }
+    }
+
+    /**
+     * The legs parsed from a chunk, with packed codes instead of ids.
+     */
+    private static class Legs {
+
+        private int size;
+        private int skippedDuration;
+        private int skippedArrivalDay;
+        private long[] origin;
+        private long[] destination;
+        private long[] carrier;
+        private long[] flightNumber;
+        private int[] startDay;
+        private int[] endDay;
+        private int[] departure;
+        private int[] duration;
+        private byte[] days;
+        private boolean[] overnight;
+
+        Legs(final int capacity) {
+            origin = new long[capacity];
+            destination = new long[capacity];
+            carrier = new long[capacity];
+            flightNumber = new long[capacity];
+            startDay = new int[capacity];
+            endDay = new int[capacity];
+            departure = new int[capacity];
+            duration = new int[capacity];
+            days = new byte[capacity];
+            overnight = new boolean[capacity];
+        }
+
+        void add(final long origin, final long destination, final long carrier, final long flightNumber,
+                 final int startDay, final int endDay, final int departure, final int duration,
+                 final boolean overnight, final int days) {
+            if (size == this.origin.length) grow();
+            this.origin[size] = origin;
+            this.destination[size] = destination;
+            this.carrier[size] = carrier;
+            this.flightNumber[size] = flightNumber;
+            this.startDay[size] = startDay;
+            this.endDay[size] = endDay;
+            this.departure[size] = departure;
+            this.duration[size] = duration;
+            this.overnight[size] = overnight;
+            this.days[size] = (byte) days;
+            size++;
+        }
+
+        private void grow() {
+            final int capacity = size + (size >> 1);
+            origin = Arrays.copyOf(origin, capacity);
+            destination = Arrays.copyOf(destination, capacity);
+            carrier = Arrays.copyOf(carrier, capacity);
+            flightNumber = Arrays.copyOf(flightNumber, capacity);
+            startDay = Arrays.copyOf(startDay, capacity);
+            endDay = Arrays.copyOf(endDay, capacity);
+            departure = Arrays.copyOf(departure, capacity);
+            duration = Arrays.copyOf(duration, capacity);
+            days = Arrays.copyOf(days, capacity);
+            overnight = Arrays.copyOf(overnight, capacity);
+        }
+    }
+
+    /**
+     * Maps packed codes to the ids of a timetable dictionary (open addressing, 0 marks a free slot).
+     */
+    private static class Codes {
+
+        private final ToIntFunction<String> intern;
+        private long[] codes = new long[1024];
+        private int[] ids = new int[1024];
+        private int size;
+
+        Codes(final ToIntFunction<String> intern) {
+            this.intern = intern;
+        }
+
+        int id(final long code) {
+            int i = slot(code, codes.length);
+            while (codes[i] != 0) {
+                if (codes[i] == code) return ids[i];
+                i = (i + 1) & (codes.length - 1);
+            }
+            final int id = intern.applyAsInt(decode(code));
+            codes[i] = code;
+            ids[i] = id;
+            if (++size * 2 > codes.length) rehash();
+            return id;
+        }
+
+        private void rehash() {
+            final long[] oldCodes = codes;
+            final int[] oldIds = ids;
+            codes = new long[2 * oldCodes.length];
+            ids = new int[2 * oldIds.length];
+            for (int j = 0; j < oldCodes.length; j++) {
+                if (oldCodes[j] != 0) {
+                    int i = slot(oldCodes[j], codes.length);
+                    while (codes[i] != 0) i = (i + 1) & (codes.length - 1);
+                    codes[i] = oldCodes[j];
+                    ids[i] = oldIds[j];
+                }
+            }
+        }
+
+        private static int slot(final long code, final int capacity) {
+            return (int) ((code * 0x9E3779B97F4A7C15L) >>> 32) & (capacity - 1);
+        }
+
+        private static String decode(long code) {
+            final char[] chars = new char[8];
+            int n = chars.length;
+            for (; code != 0; code >>>= 8) {
+                chars[--n] = (char) (code & 0xff);
+            }
+            return new String(chars, n, chars.length - n);
+        }
+    }
+}
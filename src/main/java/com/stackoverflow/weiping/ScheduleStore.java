@@ -0,0 +1,216 @@
+package com.stackoverflow.weiping;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+
+/**
+ * Keeps a schedule that changes while it's searched. Each {@link Version} is an immutable timetable with its own
+ * engine; updates are applied copy-on-write to a new timetable, for which a new engine is built before the version
+ * is published. Searches run against the version that was current when they started, so they never see a half
+ * applied update, and they never wait for one: reading the current version is a single volatile read.
+ * <p>
+ * Updates are applied one at a time. Updates {@link #submit submitted} while a version is being built are applied
+ * together in the next version, so a stream of small updates doesn't build an engine for each of them. If such a
+ * batch fails, its updates are applied again one at a time, so that an invalid update doesn't fail the others.
+ */
+class ScheduleStore implements RouteSearchEngine {
+
+    private final Function<Timetable, RouteSearchEngine> engines;
+    private final Executor executor;
+
+    private volatile Version current;
+
+    // guarded by pending
+    private final List<Pending> pending = new ArrayList<>();
+    private boolean building;
+
+    /**
+     * Creates a store whose versions use engines created by {@link RouteSearchEngine#create(String, Timetable,
+     * ConnectionRules, MetricsRegistry)}.
+     */
+    ScheduleStore(final Timetable timetable, final String engine, final ConnectionRules rules,
+                  final MetricsRegistry metrics) {
+        this(timetable, t -> RouteSearchEngine.create(engine, t, rules, metrics), ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param engines creates the engine of a new version
+     * @param executor builds the versions of submitted updates
+     */
+    ScheduleStore(final Timetable timetable, final Function<Timetable, RouteSearchEngine> engines,
+                  final Executor executor) {
+        this.engines = engines;
+        this.executor = executor;
+        this.current = new Version(1, timetable, engines.apply(timetable));
+    }
+
+    Version current() {
+        return current;
+    }
+
+    /**
+     * Applies an update and publishes the new version, after any updates applied or submitted before. Blocks
+     * until the new version's engine is built.
+     */
+    synchronized Version apply(final ScheduleUpdate update) {
+        final Version base = current;
+        final Timetable timetable = update.applyTo(base.timetable);
+        final Version next = new Version(base.number + 1, timetable, engines.apply(timetable));
+        current = next;
+        return next;
+    }
+
+    /**
+     * Applies an update asynchronously, together with other updates submitted in the meantime.
+     *
+     * @return the first version that includes the update; if the executor rejects the build, the update and
+     * the ones submitted with it fail with the {@link RejectedExecutionException}
+     */
+    CompletableFuture<Version> submit(final ScheduleUpdate update) {
+        final CompletableFuture<Version> version = new CompletableFuture<>();
+        synchronized (pending) {
+            pending.add(new Pending(update, version));
+            if (building) {
+                return version;
+            }
+            building = true;
+        }
+        try {
+            executor.execute(this::build);
+        } catch (final RejectedExecutionException e) {
+            final List<Pending> rejected;
+            synchronized (pending) {
+                building = false;
+                rejected = new ArrayList<>(pending);
+                pending.clear();
+            }
+            rejected.forEach(p -> p.version.completeExceptionally(e));
+        }
+        return version;
+    }
+
+    private void build() {
+        while (true) {
+            final List<Pending> batch;
+            synchronized (pending) {
+                if (pending.isEmpty()) {
+                    building = false;
+                    return;
+                }
+                batch = new ArrayList<>(pending);
+                pending.clear();
+            }
+            final List<ScheduleUpdate> updates = new ArrayList<>(batch.size());
+            batch.forEach(p -> updates.add(p.update));
+            try {
+                final Version version = apply(ScheduleUpdate.concat(updates));
+                batch.forEach(p -> p.version.complete(version));
+            } catch (final RuntimeException | Error e) {
+                if (batch.size() == 1) {
+                    batch.get(0).version.completeExceptionally(e);
+                } else {
+                    // only the updates that fail on their own fail, the others are published one at a time
+                    batch.forEach(this::applyAlone);
+                }
+            }
+        }
+    }
+
+    private void applyAlone(final Pending update) {
+        try {
+            update.version.complete(apply(update.update));
+        } catch (final RuntimeException | Error e) {
+            update.version.completeExceptionally(e);
+        }
+    }
+
+    @Override
+    public Iterator<Map<String, Object>> findFlights(final LocalDate travelDate,
+                                                     final String origin, final String destination,
+                                                     final int minLayover, final int departureMinTime, final int departureMaxTime,
+                                                     final String... layoverAirports) {
+        return current.engine.findFlights(travelDate, origin, destination, minLayover, departureMinTime,
+                departureMaxTime, layoverAirports);
+    }
+
+    @Override
+    public Iterator<Map<String, Object>> findFlights(final RouteQuery query) {
+        return current.engine.findFlights(query);
+    }
+
+    @Override
+    public Map<LocalDate, List<Map<String, Object>>> findFlightsByDate(final LocalDate firstDate, final LocalDate lastDate,
+                                                                       final int maxRoutes,
+                                                                       final String origin, final String destination,
+                                                                       final int minLayover, final int departureMinTime,
+                                                                       final int departureMaxTime,
+                                                                       final String... layoverAirports) {
+        return current.engine.findFlightsByDate(firstDate, lastDate, maxRoutes, origin, destination, minLayover,
+                departureMinTime, departureMaxTime, layoverAirports);
+    }
+
+    @Override
+    public String profile(final RouteQuery query) {
+        return current.engine.profile(query);
+    }
+
+    @Override
+    public String toString() {
+        return "store[" + current + "]";
+    }
+
+    /**
+     * A published state of the schedule.
+     */
+    static final class Version {
+
+        private final long number;
+        private final Timetable timetable;
+        private final RouteSearchEngine engine;
+
+        private Version(final long number, final Timetable timetable, final RouteSearchEngine engine) {
+            this.number = number;
+            this.timetable = timetable;
+            this.engine = engine;
+        }
+
+        /**
+         * @return the number of the version, starting at 1 and incremented by each published update
+         */
+        long getNumber() {
+            return number;
+        }
+
+        Timetable getTimetable() {
+            return timetable;
+        }
+
+        RouteSearchEngine getEngine() {
+            return engine;
+        }
+
+        @Override
+        public String toString() {
+            return "version " + number + " " + timetable;
+        }
+    }
+
+    private static final class Pending {
+
+        private final ScheduleUpdate update;
+        private final CompletableFuture<Version> version;
+
+        Pending(final ScheduleUpdate update, final CompletableFuture<Version> version) {
+            this.update = update;
+            this.version = version;
+        }
+    }
+}
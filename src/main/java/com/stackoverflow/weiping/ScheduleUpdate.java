@@ -0,0 +1,198 @@
+package com.stackoverflow.weiping;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A batch of schedule changes. Like {@link FlightRouteGraph#cancelFlight}, flights are identified by carrier and
+ * flight number; cancelling a flight affects all of its legs, modifying one only the legs from the same origin. The
+ * changes are applied in order, so a batch may add a flight and cancel it again.
+ */
+final class ScheduleUpdate {
+
+    private final List<Change> changes;
+
+    private ScheduleUpdate(final List<Change> changes) {
+        this.changes = changes;
+    }
+
+    /**
+     * @return the changes of the given batches, in order
+     */
+    static ScheduleUpdate concat(final List<ScheduleUpdate> updates) {
+        final List<Change> changes = new ArrayList<>();
+        for (final ScheduleUpdate update : updates) {
+            changes.addAll(update.changes);
+        }
+        return new ScheduleUpdate(Collections.unmodifiableList(changes));
+    }
+
+    int size() {
+        return changes.size();
+    }
+
+    /**
+     * @return a copy of the timetable with the changes applied; the given timetable is left as is
+     * @throws IllegalArgumentException if an added flight duplicates another added flight or a leg of the timetable
+     *                                  that isn't cancelled, see {@link #duplicates}
+     */
+    Timetable applyTo(final Timetable timetable) {
+
+        // cancelled flight numbers by carrier, and the origins of the modified legs by carrier and flight number
+        final Map<String, Set<String>> cancelled = new HashMap<>();
+        final Map<String, Set<String>> modified = new HashMap<>();
+        final List<Flight> added = new ArrayList<>();
+        for (final Change change : changes) {
+            if (change.cancels) {
+                if (change.origin == null) {
+                    cancelled.computeIfAbsent(change.carrier, c -> new HashSet<>()).add(change.flightNumber);
+                } else {
+                    modified.computeIfAbsent(change.carrier + "-" + change.flightNumber, f -> new HashSet<>())
+                            .add(change.origin);
+                }
+                added.removeIf(change::matches);
+            }
+            if (change.flight != null) {
+                // batches concatenated from several updates aren't checked by the builder
+                for (final Flight flight : added) {
+                    if (change.matches(flight) && duplicates(flight, change.flight.getFrom(), change.flight.getDays(),
+                            change.flight.getStartDate().toEpochDay(), change.flight.getEndDate().toEpochDay())) {
+                        throw new IllegalArgumentException(String.format(
+                                "Flight %s-%s from %s is already added on one of its weekdays",
+                                flight.getCarrier(), flight.getFlightNumber(), flight.getFrom()));
+                    }
+                }
+                added.add(change.flight);
+            }
+        }
+
+        // added flights by carrier and flight number
+        final Map<String, List<Flight>> flights = new HashMap<>();
+        added.forEach(flight -> flights.computeIfAbsent(flight.getCarrier() + "-" + flight.getFlightNumber(),
+                f -> new ArrayList<>()).add(flight));
+
+        final Timetable.Builder builder = timetable.toBuilder(leg -> {
+            final Set<String> flightNumbers = cancelled.get(timetable.carrier(leg));
+            if (flightNumbers != null && flightNumbers.contains(timetable.flightNumber(leg))) {
+                return false;
+            }
+            final Set<String> origins = modified.get(timetable.carrier(leg) + "-" + timetable.flightNumber(leg));
+            if (origins != null && origins.contains(timetable.airport(timetable.origin(leg)))) {
+                return false;
+            }
+            final List<Flight> sameNumber = flights.get(timetable.carrier(leg) + "-" + timetable.flightNumber(leg));
+            if (sameNumber != null) {
+                for (final Flight flight : sameNumber) {
+                    if (duplicates(flight, timetable.airport(timetable.origin(leg)), timetable.days(leg),
+                            timetable.startDay(leg), timetable.endDay(leg))) {
+                        throw new IllegalArgumentException(String.format(
+                                "Flight %s-%s from %s already exists on one of its weekdays",
+                                flight.getCarrier(), flight.getFlightNumber(), flight.getFrom()));
+                    }
+                }
+            }
+            return true;
+        }, added.size());
+        added.forEach(builder::add);
+        return builder.build();
+    }
+
+    /**
+     * @return {@code true} if the flight departs from the given origin on one of the given weekdays within the
+     * given period; two legs with the same carrier and flight number would then be the same flight instance
+     */
+    private static boolean duplicates(final Flight flight, final String origin, final int days,
+                                      final long startDay, final long endDay) {
+        return flight.getFrom().equals(origin) && (flight.getDays() & days) != 0
+                && flight.getStartDate().toEpochDay() <= endDay && startDay <= flight.getEndDate().toEpochDay();
+    }
+
+    @Override
+    public String toString() {
+        return "update" + changes;
+    }
+
+    private static final class Change {
+
+        private final String carrier;
+        private final String flightNumber;
+        private final String origin; // null if all legs are affected
+        private final Flight flight; // null if the flight is only cancelled
+        private final boolean cancels;
+
+        Change(final String carrier, final String flightNumber, final String origin, final Flight flight,
+               final boolean cancels) {
+            this.carrier = carrier;
+            this.flightNumber = flightNumber;
+            this.origin = origin;
+            this.flight = flight;
+            this.cancels = cancels;
+        }
+
+        boolean matches(final Flight flight) {
+            return carrier.equals(flight.getCarrier()) && flightNumber.equals(flight.getFlightNumber())
+                    && (origin == null || origin.equals(flight.getFrom()));
+        }
+
+        @Override
+        public String toString() {
+            return (flight == null ? "cancel " : cancels ? "modify " : "add ") + carrier + "-" + flightNumber;
+        }
+    }
+
+    static class Builder {
+
+        private final List<Change> changes = new ArrayList<>();
+
+        /**
+         * Adds a flight, in addition to any legs with the same carrier and flight number.
+         *
+         * @throws IllegalArgumentException if the batch already adds a leg with the same carrier and flight number
+         *                                  from the same origin, on one of the same weekdays and within the same
+         *                                  period, that isn't cancelled or modified since
+         */
+        Builder add(final Flight flight) {
+            for (int i = changes.size() - 1; i >= 0; i--) {
+                final Change change = changes.get(i);
+                if (change.flight != null && change.matches(flight)
+                        && duplicates(change.flight, flight.getFrom(), flight.getDays(),
+                        flight.getStartDate().toEpochDay(), flight.getEndDate().toEpochDay())) {
+                    throw new IllegalArgumentException(String.format(
+                            "Flight %s-%s from %s is already added on one of its weekdays",
+                            flight.getCarrier(), flight.getFlightNumber(), flight.getFrom()));
+                }
+                if (change.cancels && change.matches(flight)) {
+                    break;
+                }
+            }
+            changes.add(new Change(flight.getCarrier(), flight.getFlightNumber(), flight.getFrom(), flight, false));
+            return this;
+        }
+
+        /**
+         * Cancels all legs of a flight.
+         */
+        Builder cancel(final String carrier, final String flightNumber) {
+            changes.add(new Change(carrier, flightNumber, null, null, true));
+            return this;
+        }
+
+        /**
+         * Replaces the legs of a flight that depart from the given flight's origin, like
+         * {@link FlightRouteGraph#modifyFlight}; the other legs of a multi-leg flight are kept.
+         */
+        Builder modify(final Flight flight) {
+            changes.add(new Change(flight.getCarrier(), flight.getFlightNumber(), flight.getFrom(), flight, true));
+            return this;
+        }
+
+        ScheduleUpdate build() {
+            return new ScheduleUpdate(Collections.unmodifiableList(new ArrayList<>(changes)));
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.stackoverflow.weiping;
+
+/**
+ * Implemented by the results of engines that count the work of a query. The counts grow while the results are
+ * consumed.
+ */
+interface SearchCounts {
+
+    /**
+     * @return the number of connections that were followed
+     */
+    long getExpandedEdges();
+
+    /**
+     * @return the number of paths that were dropped because their airport was already reached in a shorter
+     * travel time
+     */
+    long getPrunedPaths();
+}
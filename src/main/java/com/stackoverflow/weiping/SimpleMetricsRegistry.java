@@ -0,0 +1,180 @@
+package com.stackoverflow.weiping;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link MetricsRegistry} that keeps everything in memory: histograms of the query latencies and results per
+ * engine, totals of the search work, the last slow queries and the build phase timings.
+ */
+class SimpleMetricsRegistry implements MetricsRegistry {
+
+    private static final int MAX_SLOW_QUERIES = 16;
+
+    private final long slowQueryNanos;
+    private final Executor profiler;
+    private final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    // guarded by itself
+    private final Deque<String> slowQueries = new ArrayDeque<>();
+
+    SimpleMetricsRegistry(final long slowQueryTime, final TimeUnit unit) {
+        this(slowQueryTime, unit, null);
+    }
+
+    /**
+     * @param profiler runs the profiles of slow queries, see {@link #getProfiler()}, or {@code null}
+     */
+    SimpleMetricsRegistry(final long slowQueryTime, final TimeUnit unit, final Executor profiler) {
+        this.slowQueryNanos = unit.toNanos(slowQueryTime);
+        this.profiler = profiler;
+    }
+
+    @Override
+    public long getSlowQueryNanos() {
+        return slowQueryNanos;
+    }
+
+    @Override
+    public Executor getProfiler() {
+        return profiler;
+    }
+
+    @Override
+    public void recordQuery(final String engine, final long nanos, final int results) {
+        histogram(engine + ".latency").record(nanos);
+        histogram(engine + ".results").record(results);
+    }
+
+    @Override
+    public void recordSearchWork(final String engine, final long expandedEdges, final long prunedPaths) {
+        counter(engine + ".expandedEdges").add(expandedEdges);
+        counter(engine + ".prunedPaths").add(prunedPaths);
+    }
+
+    @Override
+    public void recordSlowQuery(final String engine, final RouteQuery query, final long nanos, final String profile) {
+        counter(engine + ".slowQueries").increment();
+        final String entry = String.format("%s %s: %.1f ms%s", engine, query, nanos / 1e6,
+                profile != null ? "\n" + profile : "");
+        synchronized (slowQueries) {
+            if (slowQueries.size() == MAX_SLOW_QUERIES) {
+                slowQueries.removeFirst();
+            }
+            slowQueries.addLast(entry);
+        }
+    }
+
+    @Override
+    public void recordBuildPhase(final String phase, final long nanos) {
+        histogram(phase).record(nanos);
+    }
+
+    Histogram getHistogram(final String name) {
+        return histograms.get(name);
+    }
+
+    long getCount(final String name) {
+        final LongAdder counter = counters.get(name);
+        return counter != null ? counter.sum() : 0;
+    }
+
+    /**
+     * @return the last slow queries with their profiles, oldest first
+     */
+    String[] getSlowQueries() {
+        synchronized (slowQueries) {
+            return slowQueries.toArray(new String[0]);
+        }
+    }
+
+    private Histogram histogram(final String name) {
+        return histograms.computeIfAbsent(name, n -> new Histogram());
+    }
+
+    private LongAdder counter(final String name) {
+        return counters.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        for (final Map.Entry<String, Histogram> e : new TreeMap<>(histograms).entrySet()) {
+            final boolean nanos = !e.getKey().endsWith(".results");
+            sb.append(e.getKey()).append(' ').append(e.getValue().toString(nanos ? 1e6 : 1, nanos ? "ms" : "")).append('\n');
+        }
+        for (final Map.Entry<String, LongAdder> e : new TreeMap<>(counters).entrySet()) {
+            sb.append(e.getKey()).append(' ').append(e.getValue().sum()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * A histogram of non-negative values with power of two buckets, so percentiles are accurate within a factor
+     * of two.
+     */
+    static final class Histogram {
+
+        // bucket i counts the values with i significant bits
+        private final LongAdder[] buckets = new LongAdder[64];
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        Histogram() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(final long value) {
+            buckets[64 - Long.numberOfLeadingZeros(Math.max(0, value)) & 63].increment();
+            count.increment();
+            sum.add(value);
+            max.accumulateAndGet(value, Math::max);
+        }
+
+        long getCount() {
+            return count.sum();
+        }
+
+        long getMax() {
+            return max.get();
+        }
+
+        double getMean() {
+            final long n = count.sum();
+            return n == 0 ? 0 : (double) sum.sum() / n;
+        }
+
+        /**
+         * @return the upper end of the bucket that contains the given percentile, at most the maximum
+         */
+        long getPercentile(final double percentile) {
+            final long rank = (long) Math.ceil(percentile / 100 * count.sum());
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i].sum();
+                if (seen >= rank && seen > 0) {
+                    return Math.min(max.get(), i == 0 ? 0 : (1L << i) - 1);
+                }
+            }
+            return max.get();
+        }
+
+        String toString(final double scale, final String unit) {
+            return String.format("count:%d mean:%.2f%s p50:%.2f%s p99:%.2f%s max:%.2f%s", getCount(),
+                    getMean() / scale, unit, getPercentile(50) / scale, unit, getPercentile(99) / scale, unit,
+                    getMax() / scale, unit);
+        }
+    }
+}
@@ -0,0 +1,380 @@
+package com.stackoverflow.weiping;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.DayOfWeek;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntPredicate;
+import java.util.stream.Stream;
+
+import static com.stackoverflow.weiping.util.TimeUtil.toMinutes;
+
+/**
+ * Columnar (struct-of-arrays) flight schedule. Each leg is an index into a set of primitive arrays;
+ * airports, carriers and flight numbers are interned as ints, validity is stored as a pair of epoch
+ * days and the weekdays a leg is operated on as a bitmask (bit 0 = Monday).
+ */
+class Timetable {
+
+    private final String[] airports;
+    private final Map<String, Integer> airportIds;
+    private final String[] carriers;
+    private final String[] flightNumbers;
+
+    private final int size;
+    private final int[] origin;
+    private final int[] destination;
+    private final int[] carrier;
+    private final int[] flightNumber;
+    private final int[] departure;
+    private final int[] duration;
+    private final int[] startDay;
+    private final int[] endDay;
+    private final byte[] days;
+    private final boolean[] overnight;
+
+    private Timetable(final Builder builder) {
+        this.airports = builder.airports.toArray();
+        this.airportIds = builder.airports.ids;
+        this.carriers = builder.carriers.toArray();
+        this.flightNumbers = builder.flightNumbers.toArray();
+        this.size = builder.size;
+        this.origin = trim(builder.origin, size);
+        this.destination = trim(builder.destination, size);
+        this.carrier = trim(builder.carrier, size);
+        this.flightNumber = trim(builder.flightNumber, size);
+        this.departure = trim(builder.departure, size);
+        this.duration = trim(builder.duration, size);
+        this.startDay = trim(builder.startDay, size);
+        this.endDay = trim(builder.endDay, size);
+        this.days = trim(builder.days, size);
+        this.overnight = trim(builder.overnight, size);
+    }
+
+    // the builder never writes to its arrays below its size again, so full arrays can be shared
+    private static int[] trim(final int[] values, final int size) {
+        return values.length == size ? values : Arrays.copyOf(values, size);
+    }
+
+    private static byte[] trim(final byte[] values, final int size) {
+        return values.length == size ? values : Arrays.copyOf(values, size);
+    }
+
+    private static boolean[] trim(final boolean[] values, final int size) {
+        return values.length == size ? values : Arrays.copyOf(values, size);
+    }
+
+    static Timetable of(final Stream<Flight> flights) {
+        final Builder builder = new Builder();
+        flights.forEach(builder::add);
+        return builder.build();
+    }
+
+    /**
+     * @param keep          selects the legs to copy
+     * @param extraCapacity the expected number of legs to add
+     * @return a builder with the selected legs of this timetable; airports, carriers and flight numbers keep their
+     * ids, even if no leg refers to them anymore
+     */
+    Builder toBuilder(final IntPredicate keep, final int extraCapacity) {
+        final Builder builder = new Builder(size + extraCapacity);
+        for (final String airport : airports) builder.airport(airport);
+        for (final String carrier : carriers) builder.carrier(carrier);
+        for (final String flightNumber : flightNumbers) builder.flightNumber(flightNumber);
+        for (int leg = 0; leg < size; leg++) {
+            if (keep.test(leg)) {
+                builder.add(origin[leg], destination[leg], carrier[leg], flightNumber[leg], startDay[leg], endDay[leg],
+                        departure[leg], duration[leg], overnight[leg], days[leg]);
+            }
+        }
+        return builder;
+    }
+
+    /**
+     * @return the number of legs
+     */
+    int size() {
+        return size;
+    }
+
+    int airportCount() {
+        return airports.length;
+    }
+
+    String airport(final int id) {
+        return airports[id];
+    }
+
+    /**
+     * @return the id of the given airport or -1 if the timetable doesn't know the airport
+     */
+    int airportId(final String airport) {
+        final Integer id = airportIds.get(airport);
+        return id != null ? id : -1;
+    }
+
+    int origin(final int leg) {
+        return origin[leg];
+    }
+
+    int destination(final int leg) {
+        return destination[leg];
+    }
+
+    String carrier(final int leg) {
+        return carriers[carrier[leg]];
+    }
+
+    String flightNumber(final int leg) {
+        return flightNumbers[flightNumber[leg]];
+    }
+
+    /**
+     * @return the departure time in minutes after midnight
+     */
+    int departure(final int leg) {
+        return departure[leg];
+    }
+
+    /**
+     * @return the flight time in minutes
+     */
+    int duration(final int leg) {
+        return duration[leg];
+    }
+
+    int startDay(final int leg) {
+        return startDay[leg];
+    }
+
+    int endDay(final int leg) {
+        return endDay[leg];
+    }
+
+    boolean isOvernight(final int leg) {
+        return overnight[leg];
+    }
+
+    int days(final int leg) {
+        return days[leg];
+    }
+
+    boolean flyingOnWeekday(final int leg, final int dayOfWeek) {
+        return (days[leg] & (1 << (dayOfWeek - 1))) != 0;
+    }
+
+    /**
+     * Writes this timetable in the binary form {@link #read(ByteBuffer)} reads: the dictionaries as length-prefixed
+     * UTF-8 strings followed by the leg columns.
+     */
+    void write(final DataOutput out) throws IOException {
+        writeStrings(out, airports);
+        writeStrings(out, carriers);
+        writeStrings(out, flightNumbers);
+        out.writeInt(size);
+        for (final int[] column : new int[][]{origin, destination, carrier, flightNumber, departure, duration, startDay, endDay}) {
+            for (int i = 0; i < size; i++) {
+                out.writeInt(column[i]);
+            }
+        }
+        out.write(days, 0, size);
+        for (int i = 0; i < size; i++) {
+            out.writeBoolean(overnight[i]);
+        }
+    }
+
+    static Timetable read(final ByteBuffer in) {
+        final String[] airports = readStrings(in);
+        final String[] carriers = readStrings(in);
+        final String[] flightNumbers = readStrings(in);
+        final int size = in.getInt();
+        final Builder builder = new Builder(size);
+        for (final String airport : airports) builder.airport(airport);
+        for (final String carrier : carriers) builder.carrier(carrier);
+        for (final String flightNumber : flightNumbers) builder.flightNumber(flightNumber);
+        for (final int[] column : new int[][]{builder.origin, builder.destination, builder.carrier, builder.flightNumber,
+                builder.departure, builder.duration, builder.startDay, builder.endDay}) {
+            in.asIntBuffer().get(column, 0, size);
+            in.position(in.position() + 4 * size);
+        }
+        in.get(builder.days, 0, size);
+        for (int i = 0; i < size; i++) {
+            builder.overnight[i] = in.get() != 0;
+        }
+        builder.size = size;
+        return builder.build();
+    }
+
+    private static void writeStrings(final DataOutput out, final String[] strings) throws IOException {
+        out.writeInt(strings.length);
+        for (final String s : strings) {
+            final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String[] readStrings(final ByteBuffer in) {
+        final String[] strings = new String[in.getInt()];
+        for (int i = 0; i < strings.length; i++) {
+            final byte[] bytes = new byte[in.getInt()];
+            in.get(bytes);
+            strings[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return strings;
+    }
+
+    /**
+     * @return the approximate number of bytes retained by this timetable, assuming compressed references
+     */
+    long memoryFootprint() {
+        return 8 * arrayFootprint(size, 4) + 2 * arrayFootprint(size, 1)
+                + stringsFootprint(airports) + stringsFootprint(carriers) + stringsFootprint(flightNumbers)
+                + (long) airportIds.size() * 48; // HashMap node and boxed id per airport
+    }
+
+    private static long arrayFootprint(final int length, final int elementSize) {
+        return (16 + (long) length * elementSize + 7) & ~7;
+    }
+
+    private static long stringsFootprint(final String[] strings) {
+        long bytes = arrayFootprint(strings.length, 4);
+        for (final String s : strings) {
+            bytes += 24 + arrayFootprint(s.length(), 1);
+        }
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("timetable[legs:%d airports:%d carriers:%d bytes:%d]",
+                size, airports.length, carriers.length, memoryFootprint());
+    }
+
+    static class Builder {
+
+        private final Dictionary airports = new Dictionary();
+        private final Dictionary carriers = new Dictionary();
+        private final Dictionary flightNumbers = new Dictionary();
+
+        private int size;
+        private int[] origin;
+        private int[] destination;
+        private int[] carrier;
+        private int[] flightNumber;
+        private int[] departure;
+        private int[] duration;
+        private int[] startDay;
+        private int[] endDay;
+        private byte[] days;
+        private boolean[] overnight;
+
+        Builder() {
+            this(16);
+        }
+
+        /**
+         * @param capacity the expected number of legs
+         */
+        Builder(final int capacity) {
+            final int n = Math.max(capacity, 1);
+            origin = new int[n];
+            destination = new int[n];
+            carrier = new int[n];
+            flightNumber = new int[n];
+            departure = new int[n];
+            duration = new int[n];
+            startDay = new int[n];
+            endDay = new int[n];
+            days = new byte[n];
+            overnight = new boolean[n];
+        }
+
+        Builder add(final Flight flight) {
+            return add(flight.getFrom(), flight.getTo(), flight.getCarrier(), flight.getFlightNumber(),
+                    (int) flight.getStartDate().toEpochDay(), (int) flight.getEndDate().toEpochDay(),
+                    toMinutes(flight.getDepartureTime()), flight.getDuration(), flight.isOvernight(), flight.getDays());
+        }
+
+        /**
+         * @param days bitmask of the weekdays the leg is operated on, bit 0 being {@link DayOfWeek#MONDAY}
+         */
+        Builder add(final String from, final String to, final String carrier, final String flightNumber,
+                    final int startDay, final int endDay, final int departure, final int duration,
+                    final boolean overnight, final int days) {
+            return add(airport(from), airport(to), carrier(carrier), flightNumber(flightNumber),
+                    startDay, endDay, departure, duration, overnight, days);
+        }
+
+        /**
+         * Same as {@link #add(String, String, String, String, int, int, int, int, boolean, int)}, but with the ids
+         * returned by {@link #airport(String)}, {@link #carrier(String)} and {@link #flightNumber(String)}.
+         */
+        Builder add(final int origin, final int destination, final int carrier, final int flightNumber,
+                    final int startDay, final int endDay, final int departure, final int duration,
+                    final boolean overnight, final int days) {
+            if (size == this.origin.length) grow();
+            this.origin[size] = origin;
+            this.destination[size] = destination;
+            this.carrier[size] = carrier;
+            this.flightNumber[size] = flightNumber;
+            this.startDay[size] = startDay;
+            this.endDay[size] = endDay;
+            this.departure[size] = departure;
+            this.duration[size] = duration;
+            this.overnight[size] = overnight;
+            this.days[size] = (byte) days;
+            size++;
+            return this;
+        }
+
+        int airport(final String airport) {
+            return airports.intern(airport);
+        }
+
+        int carrier(final String carrier) {
+            return carriers.intern(carrier);
+        }
+
+        int flightNumber(final String flightNumber) {
+            return flightNumbers.intern(flightNumber);
+        }
+
+        Timetable build() {
+            return new Timetable(this);
+        }
+
+        private void grow() {
+            final int capacity = size * 2;
+            origin = Arrays.copyOf(origin, capacity);
+            destination = Arrays.copyOf(destination, capacity);
+            carrier = Arrays.copyOf(carrier, capacity);
+            flightNumber = Arrays.copyOf(flightNumber, capacity);
+            departure = Arrays.copyOf(departure, capacity);
+            duration = Arrays.copyOf(duration, capacity);
+            startDay = Arrays.copyOf(startDay, capacity);
+            endDay = Arrays.copyOf(endDay, capacity);
+            days = Arrays.copyOf(days, capacity);
+            overnight = Arrays.copyOf(overnight, capacity);
+        }
+    }
+
+    private static class Dictionary {
+
+        private final Map<String, Integer> ids = new HashMap<>();
+
+        int intern(final String value) {
+            return ids.computeIfAbsent(value, v -> ids.size());
+        }
+
+        String[] toArray() {
+            final String[] values = new String[ids.size()];
+            ids.forEach((value, id) -> values[id] = value);
+            return values;
+        }
+    }
+}
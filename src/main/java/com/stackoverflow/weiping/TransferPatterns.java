@@ -0,0 +1,230 @@
+package com.stackoverflow.weiping;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * The transfer patterns of a timetable for a range of days: for every origin and destination, the sequences of
+ * layover airports of the fastest routes that {@link ConnectionScanRouteSearchEngine} finds from any first flight on
+ * these days. A query on one of the days then only needs to follow the connections between consecutive airports of
+ * the patterns of its origin and destination, its query graph.
+ * <p>
+ * The patterns are computed with one search per first flight to all airports and are only valid for the minimum
+ * layover they were computed with.
+ */
+class TransferPatterns {
+
+    private static final int AIRPORT_BITS = 21;
+    private static final long AIRPORT_MASK = (1L << AIRPORT_BITS) - 1;
+
+    private final LocalDate firstDay;
+    private final LocalDate lastDay;
+    private final int minLayover;
+
+    // per origin: the destinations with patterns in ascending order, and the query graph of destinations[o][k] as
+    // (from, to) pairs in hops[o][offsets[o][k]..offsets[o][k+1]); all null for origins without routes
+    private final int[][] destinations;
+    private final int[][] offsets;
+    private final int[][] hops;
+
+    private TransferPatterns(final LocalDate firstDay, final LocalDate lastDay, final int minLayover,
+                             final int[][] destinations, final int[][] offsets, final int[][] hops) {
+        this.firstDay = firstDay;
+        this.lastDay = lastDay;
+        this.minLayover = minLayover;
+        this.destinations = destinations;
+        this.offsets = offsets;
+        this.hops = hops;
+    }
+
+    /**
+     * Computes the transfer patterns for the days from {@code firstDay} to {@code lastDay}, in parallel per origin.
+     */
+    static TransferPatterns build(final ConnectionScanRouteSearchEngine engine, final LocalDate firstDay,
+                                  final LocalDate lastDay, final int minLayover) {
+
+        if (lastDay.isBefore(firstDay)) {
+            throw new IllegalArgumentException(String.format("lastDay %s is before firstDay %s", lastDay, firstDay));
+        }
+        final FlightIndex index = engine.getIndex();
+        if (index.airportCount() > AIRPORT_MASK) {
+            throw new IllegalArgumentException("Too many airports for transfer patterns: " + index.airportCount());
+        }
+
+        final int[][] destinations = new int[index.airportCount()][];
+        final int[][] offsets = new int[index.airportCount()][];
+        final int[][] hops = new int[index.airportCount()][];
+
+        IntStream.range(0, index.airportCount()).parallel().forEach(origin -> {
+
+            final int[] settled = new int[engine.maxSettled()];
+            final int[] parents = new int[engine.maxSettled()];
+            final int[] seen = new int[index.airportCount()];
+            int search = 0;
+            final LongSet keys = new LongSet();
+
+            for (LocalDate day = firstDay; !day.isAfter(lastDay); day = day.plusDays(1)) {
+                final int date = (int) day.toEpochDay();
+                final int dow = day.getDayOfWeek().getValue();
+                for (int i = index.departureOffsets[origin]; i < index.departureOffsets[origin + 1]; i++) {
+                    final int flight = index.departures[i];
+                    if (index.dayOfWeek[flight] != dow || !index.isValid(flight, date)) {
+                        continue;
+                    }
+                    final int n = engine.searchAll(flight, date, minLayover, settled, parents);
+                    search++;
+                    for (int j = 0; j < n; j++) {
+                        // the first time an airport is settled is its fastest route
+                        final int destination = settled[j];
+                        if (seen[destination] == search) {
+                            continue;
+                        }
+                        seen[destination] = search;
+                        for (int k = j; k >= 0; k = parents[k]) {
+                            final long from = parents[k] >= 0 ? settled[parents[k]] : origin;
+                            keys.add((long) destination << 2 * AIRPORT_BITS | from << AIRPORT_BITS | settled[k]);
+                        }
+                    }
+                }
+            }
+            if (keys.size() == 0) {
+                return;
+            }
+
+            // sorted keys group the hops by destination
+            final long[] sorted = keys.toArray();
+            Arrays.sort(sorted);
+            int count = 0;
+            for (int i = 0; i < sorted.length; i++) {
+                if (i == 0 || sorted[i] >>> 2 * AIRPORT_BITS != sorted[i - 1] >>> 2 * AIRPORT_BITS) count++;
+            }
+            final int[] ds = new int[count];
+            final int[] os = new int[count + 1];
+            final int[] hs = new int[2 * sorted.length];
+            for (int i = 0, k = -1; i < sorted.length; i++) {
+                final int destination = (int) (sorted[i] >>> 2 * AIRPORT_BITS);
+                if (k < 0 || ds[k] != destination) {
+                    ds[++k] = destination;
+                    os[k] = 2 * i;
+                }
+                hs[2 * i] = (int) (sorted[i] >>> AIRPORT_BITS & AIRPORT_MASK);
+                hs[2 * i + 1] = (int) (sorted[i] & AIRPORT_MASK);
+            }
+            os[count] = hs.length;
+            destinations[origin] = ds;
+            offsets[origin] = os;
+            hops[origin] = hs;
+        });
+
+        return new TransferPatterns(firstDay, lastDay, minLayover, destinations, offsets, hops);
+    }
+
+    LocalDate getFirstDay() {
+        return firstDay;
+    }
+
+    LocalDate getLastDay() {
+        return lastDay;
+    }
+
+    int getMinLayover() {
+        return minLayover;
+    }
+
+    /**
+     * @return {@code true} if the patterns answer queries on the given day with the given minimum layover
+     */
+    boolean covers(final LocalDate travelDate, final int minLayover) {
+        return this.minLayover == minLayover && !travelDate.isBefore(firstDay) && !travelDate.isAfter(lastDay);
+    }
+
+    /**
+     * @return the position of the destination among the origin's destinations, or -1 if no route was found
+     * between them
+     */
+    int indexOf(final int origin, final int destination) {
+        return destinations[origin] == null ? -1 : Math.max(-1, Arrays.binarySearch(destinations[origin], destination));
+    }
+
+    /**
+     * @return the query graphs of the given origin, see {@link #firstHop} and {@link #lastHop}
+     */
+    int[] hops(final int origin) {
+        return hops[origin];
+    }
+
+    int firstHop(final int origin, final int k) {
+        return offsets[origin][k];
+    }
+
+    int lastHop(final int origin, final int k) {
+        return offsets[origin][k + 1];
+    }
+
+    /**
+     * @return the number of origin and destination pairs with a route
+     */
+    long pairs() {
+        long pairs = 0;
+        for (final int[] ds : destinations) {
+            if (ds != null) pairs += ds.length;
+        }
+        return pairs;
+    }
+
+    @Override
+    public String toString() {
+        long size = 0;
+        for (final int[] hs : hops) {
+            if (hs != null) size += hs.length / 2;
+        }
+        return String.format("patterns[days:%s..%s minLayover:%d pairs:%d hops:%d]", firstDay, lastDay, minLayover, pairs(), size);
+    }
+
+    /**
+     * An open addressing set of non-zero longs.
+     */
+    private static final class LongSet {
+
+        private long[] table = new long[1024];
+        private int size;
+
+        void add(final long key) {
+            int i = slot(key, table.length);
+            while (table[i] != 0) {
+                if (table[i] == key) return;
+                i = (i + 1) & (table.length - 1);
+            }
+            table[i] = key;
+            if (++size * 2 > table.length) {
+                final long[] old = table;
+                table = new long[2 * old.length];
+                for (final long k : old) {
+                    if (k == 0) continue;
+                    int j = slot(k, table.length);
+                    while (table[j] != 0) j = (j + 1) & (table.length - 1);
+                    table[j] = k;
+                }
+            }
+        }
+
+        int size() {
+            return size;
+        }
+
+        long[] toArray() {
+            final long[] keys = new long[size];
+            int n = 0;
+            for (final long k : table) {
+                if (k != 0) keys[n++] = k;
+            }
+            return keys;
+        }
+
+        private static int slot(final long key, final int length) {
+            final long h = key * 0x9e3779b97f4a7c15L;
+            return (int) (h >>> 40) & (length - 1);
+        }
+    }
+}
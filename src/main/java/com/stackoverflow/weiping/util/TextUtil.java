@@ -2,28 +2,36 @@ package com.stackoverflow.weiping.util;
 
 public class TextUtil {
 
-    private static String pluralize(final String word, final Number amount) {
-        return amount.doubleValue() == 1 ? word : word + "s";
+    public static String durationToString(final int minutes) {
+        return appendDuration(new StringBuilder(24), minutes).toString();
     }
 
-    public static String durationToString(final int minutes) {
+    public static String durationToString(final double hours) {
+        return durationToString((int) (hours * 60));
+    }
+
+    /**
+     * Appends the same text as {@link #durationToString(int)}.
+     */
+    public static StringBuilder appendDuration(final StringBuilder sb, final int minutes) {
         final int d = minutes / (24 * 60);
         final int h = (minutes % (24 * 60)) / 60;
         final int m = minutes % 60;
-        final StringBuilder result = new StringBuilder();
-        if (d > 0) result.append(String.format("%d %s", d, pluralize("day", d)));
+        final int start = sb.length();
+        if (d > 0) appendAmount(sb, d, "day");
         if (h > 0) {
-            if (result.length() > 0) result.append(" ");
-            result.append(String.format("%d %s", h, pluralize("hour", h)));
+            if (sb.length() > start) sb.append(' ');
+            appendAmount(sb, h, "hour");
         }
-        if (m > 0 || result.length() == 0) {
-            if (result.length() > 0) result.append(" ");
-            result.append(String.format("%d %s", m, pluralize("minute", m)));
+        if (m > 0 || sb.length() == start) {
+            if (sb.length() > start) sb.append(' ');
+            appendAmount(sb, m, "minute");
         }
-        return result.toString();
+        return sb;
     }
 
-    public static String durationToString(final double hours) {
-        return durationToString((int) (hours * 60));
+    private static void appendAmount(final StringBuilder sb, final int amount, final String unit) {
+        sb.append(amount).append(' ').append(unit);
+        if (amount != 1) sb.append('s');
     }
 }
@@ -5,6 +5,9 @@ import java.time.LocalTime;
 
 public class TimeUtil {
 
+    public static final int MINUTES_PER_DAY = 24 * 60;
+    public static final int MINUTES_PER_WEEK = 7 * MINUTES_PER_DAY;
+
     public static LocalTime toLocalTime(final int minutes) {
         return LocalTime.of(minutes / 60, minutes % 60);
     }
@@ -13,9 +16,44 @@ public class TimeUtil {
         return time.getHour() * 60 + time.getMinute();
     }
 
+    /**
+     * Same as {@code LocalDate.of(year, month, day).toEpochDay()}, but without validating (or allocating) the date.
+     */
+    public static int toEpochDay(final int year, final int month, final int day) {
+        final int y = month <= 2 ? year - 1 : year;
+        final int era = (y >= 0 ? y : y - 399) / 400;
+        final int yearOfEra = y - era * 400;
+        final int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        return era * 146097 + yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear - 719468;
+    }
+
+    /**
+     * Same as {@code LocalDate.ofEpochDay(epochDay).getDayOfWeek().getValue()}.
+     */
+    public static int dayOfWeek(final int epochDay) {
+        return Math.floorMod(epochDay + 3, 7) + 1;
+    }
+
     public static int daysBetween(final DayOfWeek day1, final DayOfWeek day2) {
         return day1.getValue() <= day2.getValue()
                 ? (day2.getValue() - day1.getValue())
                 : (7 - (day1.getValue() - day2.getValue()));
     }
+
+    public static int toWeekMinute(final int dayOfWeek, final int minuteOfDay) {
+        return (dayOfWeek - 1) * MINUTES_PER_DAY + minuteOfDay;
+    }
+
+    public static int arrivalWeekMinute(final int dayOfWeek, final int departure, final int duration) {
+        final int arrival = departure + duration;
+        return toWeekMinute((dayOfWeek - 1 + (arrival >= MINUTES_PER_DAY ? 1 : 0)) % 7 + 1, arrival % MINUTES_PER_DAY);
+    }
+
+    /**
+     * Calculates the layover between an arrival and a departure given as minutes of the week. A departure at
+     * the same minute of the week as the arrival (or earlier) is considered to be a week later.
+     */
+    public static int layoverTime(final int arrivalWeekMinute, final int departureWeekMinute) {
+        return ((departureWeekMinute - arrivalWeekMinute) % MINUTES_PER_WEEK + MINUTES_PER_WEEK - 1) % MINUTES_PER_WEEK + 1;
+    }
 }
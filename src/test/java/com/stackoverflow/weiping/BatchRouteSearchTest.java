@@ -0,0 +1,133 @@
+package com.stackoverflow.weiping;
+
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BatchRouteSearchTest {
+
+    private static final RouteSearchEngine ENGINE = RouteSearchEngine.create("native",
+            FlightRouteGraph.sampleTimetable());
+
+    /**
+     * HNL to LHR and PDX to CAN on every day of the first quarter, which the flights of the sample serve on some
+     * days only.
+     */
+    private static List<RouteQuery> queries() {
+        final List<RouteQuery> queries = new ArrayList<>();
+        final LocalDate end = LocalDate.of(2019, 4, 1);
+        for (LocalDate date = LocalDate.of(2019, 1, 1); date.isBefore(end); date = date.plusDays(1)) {
+            queries.add(new RouteQuery(date, "HNL", "LHR", 90, 0, 24 * 60 - 1));
+            queries.add(new RouteQuery(date, "PDX", "CAN", 60, 0, 24 * 60 - 1));
+        }
+        return queries;
+    }
+
+    @Test
+    public void everyQueryYieldsOneResult() {
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final Map<RouteQuery, String> routes = new HashMap<>();
+            new BatchRouteSearch(ENGINE, executor, 8).search(queries()).forEach(result -> {
+                assertNull(result.getError());
+                assertNull(result.getQuery() + " twice", routes.put(result.getQuery(), result.getRoutes().toString()));
+            });
+
+            assertEquals(queries().size(), routes.size());
+            for (final RouteQuery query : queries()) {
+                final List<Map<String, Object>> expected = new ArrayList<>();
+                ENGINE.findFlights(query).forEachRemaining(expected::add);
+                assertEquals(query.toString(), expected.toString(), routes.get(query));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void errorsAreCapturedPerQuery() {
+        final RouteSearchEngine failing = new RouteSearchEngine() {
+            @Override
+            public Iterator<Map<String, Object>> findFlights(final LocalDate travelDate, final String origin,
+                                                             final String destination, final int minLayover,
+                                                             final int departureMinTime, final int departureMaxTime,
+                                                             final String... layoverAirports) {
+                if (origin.equals("PDX")) {
+                    throw new IllegalStateException("no PDX");
+                }
+                return ENGINE.findFlights(travelDate, origin, destination, minLayover, departureMinTime,
+                        departureMaxTime, layoverAirports);
+            }
+        };
+        final AtomicInteger failed = new AtomicInteger();
+        final AtomicInteger found = new AtomicInteger();
+        new BatchRouteSearch(failing, Runnable::run, 4).search(queries().stream()).forEach(result -> {
+            if (result.getQuery().getOrigin().equals("PDX")) {
+                assertTrue(result.getError() instanceof IllegalStateException);
+                assertTrue(result.getRoutes().isEmpty());
+                failed.incrementAndGet();
+            } else {
+                assertNull(result.getError());
+                if (!result.getRoutes().isEmpty()) {
+                    found.incrementAndGet();
+                }
+            }
+        });
+        assertEquals(queries().size() / 2, failed.get());
+        assertTrue(found.get() > 0);
+    }
+
+    @Test
+    public void slowConsumerThrottlesTheSearches() {
+        final int maxPending = 3;
+        final AtomicInteger pulled = new AtomicInteger();
+        final Iterator<RouteQuery> queries = queries().iterator();
+        final Iterator<RouteQuery> counted = new Iterator<RouteQuery>() {
+            @Override
+            public boolean hasNext() {
+                return queries.hasNext();
+            }
+
+            @Override
+            public RouteQuery next() {
+                pulled.incrementAndGet();
+                return queries.next();
+            }
+        };
+
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final AtomicInteger consumed = new AtomicInteger();
+            new BatchRouteSearch(ENGINE, executor, maxPending).search(counted).forEach(result -> {
+                // the query of this result and at most maxPending - 1 others are pending
+                assertTrue(pulled.get() + " queries pulled after " + consumed.get() + " results",
+                        pulled.get() <= consumed.incrementAndGet() + maxPending - 1);
+                try {
+                    Thread.sleep(1);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            assertEquals(queries().size(), consumed.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void maxPendingMustBePositive() {
+        new BatchRouteSearch(ENGINE, Runnable::run, 0);
+    }
+}
@@ -0,0 +1,58 @@
+package com.stackoverflow.weiping;
+
+import org.apache.tinkerpop.gremlin.structure.Graph;
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static com.stackoverflow.weiping.util.TimeUtil.toMinutes;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CachingRouteSearchEngineTest {
+
+    private static final RouteQuery HNL_LHR = new RouteQuery(LocalDate.of(2019, 1, 24), "HNL", "LHR", 90,
+            toMinutes(LocalTime.of(8, 0)), toMinutes(LocalTime.of(12, 0)));
+
+    @Test
+    public void changesOfTheGraphDropTheEntries() {
+        final Graph graph = FlightRouteGraph.createSampleGraph();
+        final CachingRouteSearchEngine cache = new CachingRouteSearchEngine(
+                new GremlinRouteSearchEngine(graph.traversal()), () -> FlightRouteGraph.version(graph), 10);
+
+        assertTrue(cache.findFlights(HNL_LHR).hasNext());
+        assertTrue(cache.findFlights(HNL_LHR).hasNext());
+        assertEquals(1, cache.hits());
+
+        assertTrue(FlightRouteGraph.cancelFlight(graph, "AA", "201"));
+        assertFalse(cache.findFlights(HNL_LHR).hasNext());
+        assertEquals(1, cache.hits());
+    }
+
+    @Test
+    public void newVersionsOfTheStoreDropTheEntries() {
+        final ScheduleStore store = new ScheduleStore(FlightRouteGraph.sampleTimetable(),
+                t -> RouteSearchEngine.create("native", t, ConnectionRules.UNRESTRICTED), Runnable::run);
+        final CachingRouteSearchEngine cache = new CachingRouteSearchEngine(store, 10);
+
+        assertTrue(cache.findFlights(HNL_LHR).hasNext());
+        store.apply(new ScheduleUpdate.Builder().cancel("AA", "201").build());
+        assertFalse(cache.findFlights(HNL_LHR).hasNext());
+        assertEquals(0, cache.hits());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    @SuppressWarnings("unchecked")
+    public void cachedResultsAreImmutable() {
+        final CachingRouteSearchEngine cache = new CachingRouteSearchEngine(
+                RouteSearchEngine.create("gremlin", FlightRouteGraph.sampleTimetable(), ConnectionRules.UNRESTRICTED),
+                10);
+        final Iterator<Map<String, Object>> results = cache.findFlights(HNL_LHR);
+        ((List<Object>) results.next().get("routes")).clear();
+    }
+}
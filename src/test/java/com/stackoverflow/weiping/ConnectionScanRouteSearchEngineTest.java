@@ -0,0 +1,171 @@
+package com.stackoverflow.weiping;
+
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ConnectionScanRouteSearchEngineTest {
+
+    /**
+     * With a maximum connect time, the first arrival at an airport may not catch a connection that a later arrival
+     * catches, so settling the airport with the first arrival would lose the route.
+     */
+    @Test
+    public void laterArrivalCatchesConnectionBeyondMaxConnectTime() {
+        final SyntheticSchedule schedule = new SyntheticSchedule(120, 8, 2, 3, 3, 7);
+        final ConnectionScanRouteSearchEngine engine = new ConnectionScanRouteSearchEngine(schedule.timetable(),
+                new ConnectionRules(0, 360));
+        final RouteQuery query = new RouteQuery(LocalDate.of(2019, 6, 10), "S00098", "S00027", 45, 0, 24 * 60 - 1);
+
+        final Iterator<Itinerary> routes = engine.findItineraries(query);
+        assertTrue(routes.hasNext());
+        final Itinerary fastest = routes.next();
+        assertEquals("S00098 --[AC-49]-> H0002 (350) H0002 --[AC-64]-> H0003 (310) H0003 --[AD-14]-> S00027 [1030]",
+                fastest.toString());
+
+        // the transfer patterns come from the same search
+        engine.setTransferPatterns(TransferPatterns.build(engine, query.getTravelDate(), query.getTravelDate(), 45));
+        assertEquals(fastest.toString(), engine.findItineraries(query).next().toString());
+    }
+
+    /**
+     * The transfer patterns only record the fastest routes over all airports, so routes via given layover airports
+     * come from the full search.
+     */
+    @Test
+    public void transferPatternsDontRestrictLayoverAirports() {
+        final LocalDate monday = LocalDate.of(2019, 6, 10);
+        final SyntheticSchedule schedule = new SyntheticSchedule(120, 8, 2, 3, 3, 7);
+        final ConnectionScanRouteSearchEngine full = new ConnectionScanRouteSearchEngine(schedule.timetable(),
+                ConnectionRules.UNRESTRICTED);
+        final ConnectionScanRouteSearchEngine engine = new ConnectionScanRouteSearchEngine(schedule.timetable(),
+                ConnectionRules.UNRESTRICTED);
+        engine.setTransferPatterns(TransferPatterns.build(engine, monday, monday.plusDays(2), 45));
+
+        final Random random = new Random(7);
+        final List<RouteQuery> queries = new ArrayList<>();
+        queries.add(new RouteQuery(monday, "S00069", "S00089", 45, 0, 24 * 60 - 1, "H0001", "H0004", "H0005"));
+        for (int i = 0; i < 100; i++) {
+            final String origin = schedule.spoke(random.nextInt(schedule.hubs()), random.nextInt(10));
+            final String destination = schedule.spoke(random.nextInt(schedule.hubs()), random.nextInt(10));
+            final Set<String> hubs = new TreeSet<>();
+            while (hubs.size() < 3) {
+                hubs.add(schedule.hub(random.nextInt(schedule.hubs())));
+            }
+            if (!origin.equals(destination)) {
+                queries.add(new RouteQuery(monday.plusDays(random.nextInt(3)), origin, destination, 45, 0,
+                        24 * 60 - 1, hubs.toArray(new String[0])));
+            }
+        }
+        for (final RouteQuery query : queries) {
+            assertEquals("routes of " + query, routes(full.findItineraries(query)),
+                    routes(engine.findItineraries(query)));
+            assertEquals("routes by date of " + query,
+                    full.findFlightsByDate(query, monday.plusDays(2), 3).toString(),
+                    engine.findFlightsByDate(query, monday.plusDays(2), 3).toString());
+        }
+    }
+
+    /**
+     * Consuming only the first routes cuts the searches of the other first flights off at the slowest returned
+     * route, which must not drop a route that is faster than one returned later.
+     */
+    @Test
+    public void topRoutesStopEarlyWithoutLosingFasterRoutes() {
+        final SyntheticSchedule schedule = new SyntheticSchedule(120, 8, 2, 3, 3, 7);
+        final ConnectionScanRouteSearchEngine engine = new ConnectionScanRouteSearchEngine(schedule.timetable(),
+                ConnectionRules.UNRESTRICTED);
+        final Random random = new Random(7);
+        long topEdges = 0, allEdges = 0;
+        for (int i = 0; i < 40; i++) {
+            final String origin = schedule.hub(random.nextInt(schedule.hubs()));
+            final String destination = schedule.spoke(random.nextInt(schedule.hubs()), random.nextInt(10));
+            final RouteQuery query = new RouteQuery(LocalDate.of(2019, 6, 10).plusDays(random.nextInt(7)), origin,
+                    destination, 45, 0, 24 * 60 - 1);
+
+            final Iterator<Map<String, Object>> all = engine.findFlights(query);
+            final List<String> expected = new ArrayList<>();
+            all.forEachRemaining(route -> expected.add(route.toString()));
+            allEdges += ((SearchCounts) all).getExpandedEdges();
+
+            final Iterator<Map<String, Object>> top = engine.findFlights(query);
+            final List<String> actual = new ArrayList<>();
+            while (actual.size() < 3 && top.hasNext()) {
+                actual.add(top.next().toString());
+            }
+            topEdges += ((SearchCounts) top).getExpandedEdges();
+            assertEquals("top routes of " + query, expected.subList(0, Math.min(3, expected.size())), actual);
+        }
+        assertTrue(topEdges + " edges expanded for the top routes, " + allEdges + " for all",
+                topEdges < allEdges);
+    }
+
+    /**
+     * Searching all dates at once finds the same routes as a search per date, also across the start and end dates
+     * of the flights.
+     */
+    @Test
+    public void routesByDateAreTheRoutesOfEachDate() {
+        final ConnectionScanRouteSearchEngine sample = new ConnectionScanRouteSearchEngine(
+                FlightRouteGraph.sampleTimetable(), ConnectionRules.UNRESTRICTED);
+        assertSameRoutesByDate(sample, new RouteQuery(LocalDate.of(2019, 1, 14), "HNL", "LHR", 90, 0, 24 * 60 - 1),
+                LocalDate.of(2019, 4, 1));
+        assertSameRoutesByDate(sample, new RouteQuery(LocalDate.of(2019, 3, 1), "PDX", "CAN", 60, 0, 24 * 60 - 1),
+                LocalDate.of(2019, 9, 1));
+
+        final SyntheticSchedule schedule = new SyntheticSchedule(120, 8, 2, 3, 3, 42);
+        for (final ConnectionRules rules : new ConnectionRules[]{ConnectionRules.UNRESTRICTED,
+                new ConnectionRules(0, 360)}) {
+            final ConnectionScanRouteSearchEngine engine = new ConnectionScanRouteSearchEngine(schedule.timetable(),
+                    rules);
+            final Random random = new Random(42);
+            for (int i = 0; i < 30; i++) {
+                final String origin = schedule.spoke(random.nextInt(schedule.hubs()), random.nextInt(10));
+                final String destination = random.nextBoolean() ? schedule.hub(random.nextInt(schedule.hubs()))
+                        : schedule.spoke(random.nextInt(schedule.hubs()), random.nextInt(10));
+                final int departureMinTime = 60 * random.nextInt(24);
+                if (!origin.equals(destination)) {
+                    assertSameRoutesByDate(engine, new RouteQuery(LocalDate.of(2019, 6, 10), origin, destination,
+                            45, departureMinTime, Math.min(24 * 60 - 1, departureMinTime + 12 * 60)),
+                            LocalDate.of(2019, 6, 10 + random.nextInt(10)));
+                }
+            }
+        }
+    }
+
+    private static void assertSameRoutesByDate(final RouteSearchEngine engine, final RouteQuery query,
+                                               final LocalDate lastDate) {
+        // only the per-date default of findFlightsByDate
+        final RouteSearchEngine perDate = new RouteSearchEngine() {
+            @Override
+            public Iterator<Map<String, Object>> findFlights(final LocalDate travelDate, final String origin,
+                                                             final String destination, final int minLayover,
+                                                             final int departureMinTime, final int departureMaxTime,
+                                                             final String... layoverAirports) {
+                return engine.findFlights(travelDate, origin, destination, minLayover, departureMinTime,
+                        departureMaxTime, layoverAirports);
+            }
+        };
+        for (final int maxRoutes : new int[]{1, 3}) {
+            assertEquals("routes by date of " + query + " until " + lastDate,
+                    perDate.findFlightsByDate(query, lastDate, maxRoutes).toString(),
+                    engine.findFlightsByDate(query, lastDate, maxRoutes).toString());
+        }
+    }
+
+    private static List<String> routes(final Iterator<Itinerary> routes) {
+        final List<String> list = new ArrayList<>();
+        routes.forEachRemaining(route -> list.add(route.toString()));
+        return list;
+    }
+}
@@ -0,0 +1,119 @@
+package com.stackoverflow.weiping;
+
+import org.apache.tinkerpop.gremlin.structure.Graph;
+import org.junit.Test;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that the incremental changes of a graph result in the same flights and {@code next} edges as building
+ * the graph of the changed timetable.
+ */
+public class FlightRouteGraphTest {
+
+    private static final ConnectionRules[] RULES = {ConnectionRules.UNRESTRICTED, new ConnectionRules(0, 360)};
+
+    /**
+     * The two legs of AA-300, HNL-PDX-LHR.
+     */
+    private static final Flight FIRST_LEG = leg("HNL", "PDX", LocalTime.of(7, 0), LocalTime.of(12, 0));
+    private static final Flight SECOND_LEG = leg("PDX", "LHR", LocalTime.of(14, 0), LocalTime.of(23, 0));
+
+    @Test
+    public void addedFlightsAreConnectedLikeInAFullBuild() {
+        for (final ConnectionRules rules : RULES) {
+            final Graph graph = createGraph(sampleFlights(), rules);
+            FlightRouteGraph.addFlight(graph, FIRST_LEG, rules);
+            FlightRouteGraph.addFlight(graph, SECOND_LEG, rules);
+            assertEquals(2, FlightRouteGraph.version(graph));
+            assertSameGraph(createGraph(flights(FIRST_LEG, SECOND_LEG), rules), graph);
+        }
+    }
+
+    @Test
+    public void cancelledFlightsAreRemovedLikeInAFullBuild() {
+        for (final ConnectionRules rules : RULES) {
+            final Graph graph = createGraph(flights(FIRST_LEG, SECOND_LEG), rules);
+            FlightRouteGraph.cancelFlight(graph, "AA", "300");
+            assertEquals(1, FlightRouteGraph.version(graph));
+            assertSameGraph(createGraph(sampleFlights(), rules), graph);
+        }
+    }
+
+    @Test
+    public void modifiedLegIsReplacedLikeInAFullBuild() {
+        final Flight modified = leg("PDX", "LHR", LocalTime.of(16, 0), LocalTime.of(2, 0));
+        for (final ConnectionRules rules : RULES) {
+            final Graph graph = createGraph(flights(FIRST_LEG, SECOND_LEG), rules);
+            FlightRouteGraph.modifyFlight(graph, modified, rules);
+            assertSameGraph(createGraph(flights(FIRST_LEG, modified), rules), graph);
+        }
+    }
+
+    @Test
+    public void duplicateLegLeavesTheGraphAsIs() {
+        final Graph graph = FlightRouteGraph.createSampleGraph();
+        final List<String> flights = flights(graph);
+        final List<String> edges = nextEdges(graph);
+        try {
+            FlightRouteGraph.addFlight(graph, new Flight("HNL", "SFO", "AA", "100", LocalDate.of(2019, 1, 23),
+                    LocalDate.of(2019, 3, 20), LocalTime.of(9, 0), LocalTime.of(14, 0), false,
+                    DayOfWeek.FRIDAY, DayOfWeek.SATURDAY), ConnectionRules.UNRESTRICTED);
+            fail();
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+        assertEquals(flights, flights(graph));
+        assertEquals(edges, nextEdges(graph));
+        assertEquals(0, graph.traversal().V("SFO").count().next().longValue());
+        assertEquals(0, FlightRouteGraph.version(graph));
+    }
+
+    private static Flight leg(final String from, final String to, final LocalTime departure, final LocalTime arrival) {
+        return new Flight(from, to, "AA", "300", LocalDate.of(2019, 1, 23), LocalDate.of(2019, 3, 20), departure,
+                arrival, arrival.isBefore(departure), DayOfWeek.MONDAY, DayOfWeek.THURSDAY, DayOfWeek.SATURDAY);
+    }
+
+    private static List<Flight> sampleFlights() {
+        return FlightRouteGraph.sampleFlights().collect(Collectors.toList());
+    }
+
+    private static List<Flight> flights(final Flight... more) {
+        return Stream.concat(sampleFlights().stream(), Arrays.stream(more)).collect(Collectors.toList());
+    }
+
+    private static Graph createGraph(final List<Flight> flights, final ConnectionRules rules) {
+        return FlightRouteGraph.createGraph(Timetable.of(flights.stream()), rules, new BuildStats());
+    }
+
+    static void assertSameGraph(final Graph expected, final Graph actual) {
+        assertEquals(flights(expected), flights(actual));
+        assertEquals(nextEdges(expected), nextEdges(actual));
+    }
+
+    private static List<String> flights(final Graph graph) {
+        return graph.traversal().V().hasLabel("flight").toList().stream()
+                .map(v -> v.id() + " " + v.value("departure") + " " + v.value("duration") + " "
+                        + v.value("destination"))
+                .sorted()
+                .collect(Collectors.toList());
+    }
+
+    private static List<String> nextEdges(final Graph graph) {
+        return graph.traversal().E().hasLabel("next").toList().stream()
+                .map(e -> e.outVertex().id() + " -> " + e.inVertex().id() + " " + e.value("layover") + " "
+                        + e.value("start") + "-" + e.value("end") + " " + e.value("destination") + " "
+                        + e.value("flight"))
+                .sorted()
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,115 @@
+package com.stackoverflow.weiping;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class GraphSnapshotTest {
+
+    private static final ConnectionRules RULES = new ConnectionRules(0, 360).withAirport("LAX", 60, 240);
+
+    @Test
+    public void snapshotRestoresTheGraph() throws IOException {
+        final Timetable timetable = FlightRouteGraph.sampleTimetable();
+        final Path file = write(timetable, RULES);
+        try {
+            final GraphSnapshot snapshot = GraphSnapshot.read(file, timetable, RULES);
+            assertEquals(timetable.size(), snapshot.getTimetable().size());
+            assertEquals(60, snapshot.getRules().minConnectTime("LAX"));
+            assertEquals(240, snapshot.getRules().maxConnectTime("LAX"));
+            assertEquals(360, snapshot.getRules().maxConnectTime("HNL"));
+            assertEquals(GraphSnapshot.fingerprint(timetable, RULES), snapshot.getFingerprint());
+            assertTrue(snapshot.size() > 0);
+            FlightRouteGraphTest.assertSameGraph(FlightRouteGraph.createGraph(timetable, RULES, new BuildStats()),
+                    FlightRouteGraph.createGraph(snapshot, new BuildStats()));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void snapshotOfAnotherTimetableIsStale() throws IOException {
+        final Path file = write(FlightRouteGraph.sampleTimetable(), RULES);
+        try {
+            assertStale(file, Timetable.of(FlightRouteGraph.sampleFlights().skip(1)), RULES);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void snapshotOfOtherRulesIsStale() throws IOException {
+        final Path file = write(FlightRouteGraph.sampleTimetable(), RULES);
+        try {
+            assertStale(file, FlightRouteGraph.sampleTimetable(), new ConnectionRules(0, 360));
+            assertStale(file, FlightRouteGraph.sampleTimetable(), ConnectionRules.UNRESTRICTED);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void snapshotOfAnotherFormatVersionIsStale() throws IOException {
+        final Path file = write(FlightRouteGraph.sampleTimetable(), RULES);
+        try {
+            overwrite(file, 4, ByteBuffer.allocate(4).putInt(0, GraphSnapshot.VERSION + 1));
+            assertStale(file, FlightRouteGraph.sampleTimetable(), RULES);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void corruptSnapshotIsRejected() throws IOException {
+        final Path file = write(FlightRouteGraph.sampleTimetable(), RULES);
+        try {
+            final long last = Files.size(file) - 1;
+            final ByteBuffer b = ByteBuffer.allocate(1);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                channel.read(b, last);
+            }
+            overwrite(file, last, ByteBuffer.allocate(1).put(0, (byte) ~b.get(0)));
+            try {
+                GraphSnapshot.read(file);
+                fail();
+            } catch (final IOException e) {
+                assertFalse(e instanceof GraphSnapshot.StaleSnapshotException);
+                assertTrue(e.getMessage(), e.getMessage().contains("checksum mismatch"));
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static Path write(final Timetable timetable, final ConnectionRules rules) throws IOException {
+        final Path file = Files.createTempFile("graph", ".snapshot");
+        GraphSnapshot.write(timetable, rules, file);
+        return file;
+    }
+
+    private static void overwrite(final Path file, final long position, final ByteBuffer bytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(bytes, position);
+        }
+    }
+
+    private static void assertStale(final Path file, final Timetable timetable, final ConnectionRules rules)
+            throws IOException {
+        try {
+            GraphSnapshot.read(file, timetable, rules);
+            fail();
+        } catch (final GraphSnapshot.StaleSnapshotException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.stackoverflow.weiping;
+
+import org.apache.tinkerpop.gremlin.process.traversal.dsl.graph.GraphTraversalSource;
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static com.stackoverflow.weiping.util.TimeUtil.toMinutes;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class GremlinRouteSearchEngineTest {
+
+    private static final LocalDate MONDAY = LocalDate.of(2019, 6, 10);
+
+    @Test
+    public void bidirectionalSearchFindsTheForwardRoutesOfTheSampleQueries() {
+        final GraphTraversalSource g = FlightRouteGraph.createGraph(FlightRouteGraph.sampleTimetable()).traversal();
+        final RouteSearchEngine forward = new GremlinRouteSearchEngine(g, false, false);
+        final RouteSearchEngine bidirectional = new GremlinRouteSearchEngine(g, false, true);
+        assertSameRoutes(forward, bidirectional, new RouteQuery(LocalDate.of(2019, 1, 24), "HNL", "LHR", 90,
+                toMinutes(LocalTime.of(8, 0)), toMinutes(LocalTime.of(12, 0))));
+        assertSameRoutes(forward, bidirectional, new RouteQuery(LocalDate.of(2019, 3, 19), "PDX", "CAN", 60,
+                toMinutes(LocalTime.of(15, 0)), toMinutes(LocalTime.of(20, 0))));
+        assertSameRoutes(forward, bidirectional, new RouteQuery(LocalDate.of(2019, 8, 20), "ORD", "CAN", 60,
+                toMinutes(LocalTime.of(6, 0)), toMinutes(LocalTime.of(10, 0)), "LAX"));
+    }
+
+    @Test
+    public void bidirectionalSearchFindsTheForwardRoutes() {
+        for (final long seed : new long[]{7, 42}) {
+            final SyntheticSchedule schedule = new SyntheticSchedule(120, 8, 2, 3, 3, seed);
+            assertSameRoutes(schedule, ConnectionRules.UNRESTRICTED, seed, 40);
+            assertSameRoutes(schedule, new ConnectionRules(0, 360), seed, 100);
+        }
+    }
+
+    /**
+     * The backward search only goes as far as the forward search asks for, so a direct route costs nothing, and
+     * on longer routes it saves more connections than it follows.
+     */
+    @Test
+    public void bidirectionalSearchExpandsFewerEdges() {
+        final SyntheticSchedule schedule = new SyntheticSchedule(120, 8, 2, 3, 3, 7);
+        final ConnectionRules rules = new ConnectionRules(0, 360);
+        final GraphTraversalSource g = FlightRouteGraph.createGraph(schedule.timetable(), rules, new BuildStats())
+                .traversal();
+        final RouteSearchEngine forward = new GremlinRouteSearchEngine(g, rules, true, false,
+                Double.POSITIVE_INFINITY);
+        final RouteSearchEngine bidirectional = new GremlinRouteSearchEngine(g, rules, true, true,
+                Double.POSITIVE_INFINITY);
+
+        final RouteQuery direct = new RouteQuery(LocalDate.of(2019, 6, 12), "S00000", "H0000", 45, 0, 24 * 60 - 1);
+        assertEquals(0, expandedEdges(bidirectional, direct));
+
+        final RouteQuery twoStops = new RouteQuery(LocalDate.of(2019, 6, 13), "S00071", "S00054", 45, 0, 24 * 60 - 1);
+        assertSameRoutes(forward, bidirectional, twoStops);
+        final long forwardEdges = expandedEdges(forward, twoStops);
+        final long bidirectionalEdges = expandedEdges(bidirectional, twoStops);
+        assertTrue(bidirectionalEdges + " edges expanded bidirectionally, " + forwardEdges + " forward",
+                bidirectionalEdges < forwardEdges);
+    }
+
+    private static long expandedEdges(final RouteSearchEngine engine, final RouteQuery query) {
+        final Iterator<Map<String, Object>> results = engine.findFlights(query);
+        results.forEachRemaining(result -> { });
+        return ((SearchCounts) results).getExpandedEdges();
+    }
+
+    private static void assertSameRoutes(final SyntheticSchedule schedule, final ConnectionRules rules,
+                                         final long seed, final int queries) {
+        final GraphTraversalSource g = FlightRouteGraph.createGraph(schedule.timetable(), rules, new BuildStats())
+                .traversal();
+        final RouteSearchEngine forward = new GremlinRouteSearchEngine(g, rules, false, false,
+                Double.POSITIVE_INFINITY);
+        final RouteSearchEngine bidirectional = new GremlinRouteSearchEngine(g, rules, false, true,
+                Double.POSITIVE_INFINITY);
+
+        final Random random = new Random(seed);
+        for (int i = 0; i < queries; i++) {
+            final String origin = randomAirport(schedule, random);
+            final String destination = randomAirport(schedule, random);
+            if (origin.equals(destination)) {
+                continue;
+            }
+            final int departureMinTime = 60 * random.nextInt(24);
+            final int departureMaxTime = Math.min(24 * 60 - 1, departureMinTime + 60 * (1 + random.nextInt(12)));
+            assertSameRoutes(forward, bidirectional, new RouteQuery(MONDAY.plusDays(random.nextInt(7)), origin,
+                    destination, 45, departureMinTime, departureMaxTime));
+        }
+    }
+
+    private static void assertSameRoutes(final RouteSearchEngine forward, final RouteSearchEngine bidirectional,
+                                         final RouteQuery query) {
+        assertEquals("routes of " + query, routes(forward, query), routes(bidirectional, query));
+    }
+
+    private static List<String> routes(final RouteSearchEngine engine, final RouteQuery query) {
+        final List<String> routes = new ArrayList<>();
+        for (final Iterator<Itinerary> results = engine.findItineraries(query); results.hasNext(); ) {
+            routes.add(results.next().toString());
+        }
+        return routes;
+    }
+
+    private static String randomAirport(final SyntheticSchedule schedule, final Random random) {
+        final int hub = random.nextInt(schedule.hubs());
+        final int spokes = (schedule.airports() - schedule.hubs()) / schedule.hubs();
+        return random.nextInt(4) == 0 ? schedule.hub(hub) : schedule.spoke(hub, random.nextInt(spokes));
+    }
+}
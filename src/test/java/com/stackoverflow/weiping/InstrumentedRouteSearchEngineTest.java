@@ -0,0 +1,89 @@
+package com.stackoverflow.weiping;
+
+import org.apache.tinkerpop.gremlin.structure.util.CloseableIterator;
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.stackoverflow.weiping.util.TimeUtil.toMinutes;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class InstrumentedRouteSearchEngineTest {
+
+    private static final RouteQuery HNL_LHR = new RouteQuery(LocalDate.of(2019, 1, 24), "HNL", "LHR", 90,
+            toMinutes(LocalTime.of(8, 0)), toMinutes(LocalTime.of(12, 0)));
+
+    private static RouteSearchEngine gremlin(final MetricsRegistry metrics) {
+        return new InstrumentedRouteSearchEngine(new GremlinRouteSearchEngine(FlightRouteGraph.createSampleGraph()
+                .traversal(), true), "gremlin", metrics);
+    }
+
+    @Test
+    public void consumedQueryIsReportedOnce() {
+        final SimpleMetricsRegistry registry = new SimpleMetricsRegistry(1, TimeUnit.HOURS);
+        final Iterator<Map<String, Object>> results = gremlin(registry).findFlights(HNL_LHR);
+        int count = 0;
+        for (; results.hasNext(); count++) {
+            results.next();
+        }
+        assertFalse(results.hasNext());
+        CloseableIterator.closeIterator(results);
+
+        assertTrue(count > 0);
+        assertEquals(1, registry.getHistogram("gremlin.latency").getCount());
+        assertEquals(count, registry.getHistogram("gremlin.results").getMax());
+        assertTrue(registry.getCount("gremlin.expandedEdges") > 0);
+        assertEquals(0, registry.getSlowQueries().length);
+    }
+
+    @Test
+    public void closedQueryIsReportedWithTheConsumedResults() {
+        final SyntheticSchedule schedule = new SyntheticSchedule(120, 8, 2, 3, 3, 7);
+        final SimpleMetricsRegistry registry = new SimpleMetricsRegistry(1, TimeUnit.HOURS);
+        final RouteSearchEngine engine = new InstrumentedRouteSearchEngine(
+                RouteSearchEngine.create("native", schedule.timetable()), "native", registry);
+
+        try (RouteCursor cursor = new RouteCursor(engine, new RouteQuery(LocalDate.of(2019, 6, 13), "S00071",
+                "S00054", 45, 0, 24 * 60 - 1))) {
+            assertEquals(1, cursor.nextPage(1).size());
+            assertTrue(cursor.hasNext());
+            assertNull(registry.getHistogram("native.latency"));
+        }
+        assertEquals(1, registry.getHistogram("native.latency").getCount());
+        assertEquals(1, registry.getHistogram("native.results").getMax());
+    }
+
+    @Test
+    public void slowQueriesAreProfiledByTheProfiler() {
+        final Deque<Runnable> profiles = new ArrayDeque<>();
+        final SimpleMetricsRegistry registry = new SimpleMetricsRegistry(0, TimeUnit.NANOSECONDS, profiles::add);
+        final Iterator<Map<String, Object>> results = gremlin(registry).findFlights(HNL_LHR);
+        results.next();
+        CloseableIterator.closeIterator(results);
+
+        assertEquals(1, registry.getHistogram("gremlin.latency").getCount());
+        assertEquals(0, registry.getSlowQueries().length);
+        assertEquals(1, profiles.size());
+        profiles.poll().run();
+        assertEquals(1, registry.getSlowQueries().length);
+        assertTrue(registry.getSlowQueries()[0], registry.getSlowQueries()[0].contains("\nTraversal Metrics"));
+    }
+
+    @Test
+    public void slowQueriesAreRecordedWithoutProfileByDefault() {
+        final SimpleMetricsRegistry registry = new SimpleMetricsRegistry(0, TimeUnit.NANOSECONDS);
+        gremlin(registry).findFlights(HNL_LHR).forEachRemaining(result -> { });
+
+        assertEquals(1, registry.getSlowQueries().length);
+        assertFalse(registry.getSlowQueries()[0], registry.getSlowQueries()[0].contains("\n"));
+    }
+}
@@ -0,0 +1,102 @@
+package com.stackoverflow.weiping;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+public class ItineraryWriterTest {
+
+    private static final LocalDate THURSDAY = LocalDate.of(2019, 1, 24);
+
+    /**
+     * HNL-PDX-LHR with a 3 hour layover; the second leg lands the next day.
+     */
+    private static final Itinerary HNL_LHR = new Itinerary(new Itinerary.Leg[]{
+            new Itinerary.Leg("HNL", "PDX", "AA", "201", 8 * 60, 5 * 60, false),
+            new Itinerary.Leg("PDX", "LHR", "BA", "203", 16 * 60, 10 * 60, true)}, new int[]{3 * 60});
+
+    private static final Itinerary PDX_CAN = new Itinerary(new Itinerary.Leg[]{
+            new Itinerary.Leg("PDX", "CAN", "CC", "22", 15 * 60, 15 * 60, true)}, new int[0]);
+
+    @Test
+    public void textShowsTheLegsAndLayovers() {
+        assertEquals("* Option 1 (1 stop, 18 hours)\n"
+                        + "  - HNL --[AA-201]-> PDX (Thursday, 2019-01-24 08:00 to 13:00)\n"
+                        + "    (3 hours layover)\n"
+                        + "  - PDX --[BA-203]-> LHR (Thursday, 2019-01-24 16:00 to Friday, 2019-01-25 02:00)\n"
+                        + "\n"
+                        + "* Option 2 (direct, 15 hours)\n"
+                        + "  - PDX --[CC-22]-> CAN (Tuesday, 2019-03-19 15:00 to Wednesday, 2019-03-20 06:00)\n"
+                        + "\n",
+                new ItineraryWriter().appendText(THURSDAY, 1, HNL_LHR)
+                        .appendText(LocalDate.of(2019, 3, 19), 2, PDX_CAN).getBuffer().toString());
+    }
+
+    @Test
+    public void jsonHasTheLocalTimesOfEachLeg() {
+        assertEquals("[{\"origin\":\"HNL\",\"destination\":\"LHR\",\"stops\":1,\"travelTime\":1080,"
+                        + "\"duration\":\"18 hours\",\"departure\":\"2019-01-24T08:00\","
+                        + "\"arrival\":\"2019-01-25T02:00\","
+                        + "\"legs\":[{\"from\":\"HNL\",\"to\":\"PDX\",\"carrier\":\"AA\",\"flight\":\"201\","
+                        + "\"departure\":\"2019-01-24T08:00\",\"arrival\":\"2019-01-24T13:00\",\"duration\":300},"
+                        + "{\"from\":\"PDX\",\"to\":\"LHR\",\"carrier\":\"BA\",\"flight\":\"203\","
+                        + "\"departure\":\"2019-01-24T16:00\",\"arrival\":\"2019-01-25T02:00\",\"duration\":600}],"
+                        + "\"layovers\":[180]},"
+                        + "{\"origin\":\"PDX\",\"destination\":\"CAN\",\"stops\":0,\"travelTime\":900,"
+                        + "\"duration\":\"15 hours\",\"departure\":\"2019-01-24T15:00\","
+                        + "\"arrival\":\"2019-01-25T06:00\","
+                        + "\"legs\":[{\"from\":\"PDX\",\"to\":\"CAN\",\"carrier\":\"CC\",\"flight\":\"22\","
+                        + "\"departure\":\"2019-01-24T15:00\",\"arrival\":\"2019-01-25T06:00\",\"duration\":900}],"
+                        + "\"layovers\":[]}]",
+                new ItineraryWriter().appendJson(THURSDAY, Arrays.asList(HNL_LHR, PDX_CAN).iterator())
+                        .getBuffer().toString());
+        assertEquals("[]", new ItineraryWriter().appendJson(THURSDAY, Collections.<Itinerary>emptyIterator())
+                .getBuffer().toString());
+    }
+
+    @Test
+    public void jsonStringsAreEscaped() {
+        final Itinerary itinerary = new Itinerary(new Itinerary.Leg[]{
+                new Itinerary.Leg("A\"B", "C\\D", "E\nF", "1", 0, 60, false)}, new int[0]);
+        final String json = new ItineraryWriter().appendJson(THURSDAY, itinerary).getBuffer().toString();
+        assertEquals("{\"origin\":\"A\\\"B\",\"destination\":\"C\\\\D\"",
+                json.substring(0, json.indexOf(",\"stops\"")));
+        assertEquals(",\"carrier\":\"E\\u000aF\"",
+                json.substring(json.indexOf(",\"carrier\""), json.indexOf(",\"flight\"")));
+    }
+
+    /**
+     * Days that share a slot of the date cache replace each other's dates.
+     */
+    @Test
+    public void datesOfDaysInTheSameCacheSlotAreFormattedAgain() {
+        final ItineraryWriter writer = new ItineraryWriter();
+        for (final LocalDate date : new LocalDate[]{THURSDAY, THURSDAY.plusDays(8), THURSDAY, THURSDAY.plusDays(16)}) {
+            final String json = writer.reset().appendJson(date, PDX_CAN).getBuffer().toString();
+            assertEquals(date + "T15:00", json.substring(json.indexOf("\"departure\":\"") + 13,
+                    json.indexOf("T15:00") + 6));
+            assertEquals(date.plusDays(1) + "T06:00", json.substring(json.indexOf("\"arrival\":\"") + 11,
+                    json.indexOf("T06:00") + 6));
+        }
+    }
+
+    @Test
+    public void flushWritesEverythingAndResets() throws IOException {
+        final ItineraryWriter writer = new ItineraryWriter(16);
+        final StringBuilder expected = new StringBuilder();
+        for (int i = 1; i <= 20; i++) {
+            writer.appendText(THURSDAY, i, HNL_LHR);
+            expected.append(new ItineraryWriter().appendText(THURSDAY, i, HNL_LHR).getBuffer());
+        }
+        final StringWriter out = new StringWriter();
+        writer.flushTo(out);
+        assertEquals(expected.toString(), out.toString());
+        assertEquals(0, writer.getBuffer().length());
+    }
+}
@@ -0,0 +1,86 @@
+package com.stackoverflow.weiping;
+
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks on random queries that the candidate layover airports of a detour limit keep the fastest route that the
+ * native engine finds.
+ */
+public class LayoverPruningTest {
+
+    /**
+     * The detour factor to use with the synthetic schedules. Factors up to 6 drop fastest routes between hubs whose
+     * nonstop flight doesn't operate at a suitable time, since the detour limit is relative to the nonstop distance.
+     */
+    private static final double DETOUR_FACTOR = 8;
+
+    @Test
+    public void detourFactorKeepsTheFastestRoutes() {
+        for (final long seed : new long[]{7, 42}) {
+            assertKeepsTheFastestRoutes(new SyntheticSchedule(120, 8, 2, 3, 3, seed), ConnectionRules.UNRESTRICTED,
+                    seed, 200);
+            // the larger schedule's graph needs a maximum connect time to fit into the heap
+            assertKeepsTheFastestRoutes(new SyntheticSchedule(400, 20, 3, 3, 4, seed), new ConnectionRules(0, 360),
+                    seed, 200);
+        }
+    }
+
+    private static void assertKeepsTheFastestRoutes(final SyntheticSchedule schedule, final ConnectionRules rules,
+                                                    final long seed, final int queries) {
+        final RouteSearchEngine nativeEngine = RouteSearchEngine.create("native", schedule.timetable(), rules);
+        final GremlinRouteSearchEngine gremlin = (GremlinRouteSearchEngine) RouteSearchEngine.create("gremlin",
+                schedule.timetable(), rules, schedule.geography(DETOUR_FACTOR), MetricsRegistry.NOOP);
+
+        final Random random = new Random(seed);
+        for (int i = 0; i < queries; i++) {
+            final String origin = randomAirport(schedule, random);
+            final String destination = randomAirport(schedule, random);
+            if (origin.equals(destination)) {
+                continue;
+            }
+            final RouteQuery query = new RouteQuery(LocalDate.of(2019, 6, 10).plusDays(random.nextInt(7)),
+                    origin, destination, 45, 0, 24 * 60 - 1);
+            final Set<String> layovers = gremlin.layoverAirports(query);
+            if (layovers == null) {
+                continue;
+            }
+            // the native engine finds the fastest route per first flight; one of the fastest needs to be kept
+            int fastest = Integer.MAX_VALUE;
+            boolean kept = false;
+            Itinerary dropped = null;
+            for (final Iterator<Itinerary> routes = nativeEngine.findItineraries(query); routes.hasNext(); ) {
+                final Itinerary route = routes.next();
+                if (route.getTravelTime() < fastest) {
+                    fastest = route.getTravelTime();
+                    kept = false;
+                }
+                if (route.getTravelTime() == fastest) {
+                    if (isKept(route, layovers)) kept = true;
+                    else dropped = route;
+                }
+            }
+            assertTrue("Detour factor " + DETOUR_FACTOR + " drops " + dropped + " of " + query,
+                    fastest == Integer.MAX_VALUE || kept);
+        }
+    }
+
+    private static boolean isKept(final Itinerary route, final Set<String> layovers) {
+        for (int leg = 1; leg < route.getLegCount(); leg++) {
+            if (!layovers.contains(route.getLeg(leg).getFrom())) return false;
+        }
+        return true;
+    }
+
+    private static String randomAirport(final SyntheticSchedule schedule, final Random random) {
+        final int hub = random.nextInt(schedule.hubs());
+        final int spokes = (schedule.airports() - schedule.hubs()) / schedule.hubs();
+        return random.nextInt(4) == 0 ? schedule.hub(hub) : schedule.spoke(hub, random.nextInt(spokes));
+    }
+}
@@ -0,0 +1,162 @@
+package com.stackoverflow.weiping;
+
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static com.stackoverflow.weiping.util.TimeUtil.layoverTime;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ParetoRouteSearchEngineTest {
+
+    /**
+     * Without a route, nothing stops the rounds but the bags: labels that only differ in the departure of their
+     * route or in earlier rounds used to be kept until the heap ran out.
+     */
+    @Test(timeout = 10_000)
+    public void searchWithoutRouteTerminates() {
+        final SyntheticSchedule schedule = new SyntheticSchedule(120, 8, 2, 3, 3, 7);
+        final RouteQuery query = new RouteQuery(LocalDate.of(2019, 6, 10), "H0007", "S00055", 45, 660, 900);
+
+        assertFalse(new ConnectionScanRouteSearchEngine(schedule.timetable(), ConnectionRules.UNRESTRICTED)
+                .findItineraries(query).hasNext());
+        assertFalse(new ParetoRouteSearchEngine(schedule.timetable(), ConnectionRules.UNRESTRICTED)
+                .findItineraries(query).hasNext());
+    }
+
+    @Test
+    public void routesHaveAtMostMaxLegs() {
+        final SyntheticSchedule schedule = new SyntheticSchedule(120, 8, 2, 3, 3, 7);
+        final RouteQuery query = new RouteQuery(LocalDate.of(2019, 6, 10), "S00098", "S00027", 45, 0, 24 * 60 - 1);
+
+        final ParetoRouteSearchEngine defaultLegs = new ParetoRouteSearchEngine(schedule.timetable(),
+                ConnectionRules.UNRESTRICTED);
+        assertTrue(defaultLegs.findItineraries(query).next().getLegCount() > 2);
+
+        final ParetoRouteSearchEngine engine = new ParetoRouteSearchEngine(
+                new FlightIndex(schedule.timetable(), ConnectionRules.UNRESTRICTED), 2);
+        for (final Iterator<Itinerary> routes = engine.findItineraries(query); routes.hasNext(); ) {
+            assertTrue(routes.next().getLegCount() <= 2);
+        }
+    }
+
+    /**
+     * The results are the non-dominated set of all routes, enumerated by brute force with the connection rules of
+     * the index: per airport bags without a maximum connect time, per flight bags with one.
+     */
+    @Test
+    public void resultsAreTheNonDominatedRoutes() {
+        final FlightIndex sample = new FlightIndex(FlightRouteGraph.sampleTimetable(), ConnectionRules.UNRESTRICTED);
+        final int maxLegs = ParetoRouteSearchEngine.DEFAULT_MAX_LEGS;
+        assertNonDominated(sample, maxLegs, new RouteQuery(LocalDate.of(2019, 1, 24), "HNL", "LHR", 90, 0, 1439));
+        assertNonDominated(sample, maxLegs, new RouteQuery(LocalDate.of(2019, 3, 19), "PDX", "CAN", 60, 0, 1439));
+
+        final SyntheticSchedule schedule = new SyntheticSchedule(120, 8, 2, 3, 3, 7);
+        final FlightIndex unrestricted = new FlightIndex(schedule.timetable(), ConnectionRules.UNRESTRICTED);
+        final FlightIndex bounded = new FlightIndex(schedule.timetable(), new ConnectionRules(0, 360));
+        final Random random = new Random(7);
+        for (int i = 0; i < 20; i++) {
+            final String origin = schedule.spoke(random.nextInt(schedule.hubs()), random.nextInt(10));
+            final String destination = random.nextBoolean() ? schedule.hub(random.nextInt(schedule.hubs()))
+                    : schedule.spoke(random.nextInt(schedule.hubs()), random.nextInt(10));
+            if (!origin.equals(destination)) {
+                final RouteQuery query = new RouteQuery(LocalDate.of(2019, 6, 10).plusDays(random.nextInt(7)),
+                        origin, destination, 45, 0, 24 * 60 - 1);
+                assertNonDominated(unrestricted, 3, query);
+                assertNonDominated(bounded, 4, query);
+            }
+        }
+    }
+
+    private static void assertNonDominated(final FlightIndex index, final int maxLegs, final RouteQuery query) {
+        final Set<String> expected = new TreeSet<>();
+        final List<int[]> routes = allRoutes(index, maxLegs, query);
+        for (final int[] route : routes) {
+            if (!isDominated(route, routes)) {
+                expected.add(route[0] + " min, " + route[1] + " legs, arrival " + route[2]);
+            }
+        }
+
+        final Set<String> actual = new TreeSet<>();
+        for (final Iterator<Map<String, Object>> results = new ParetoRouteSearchEngine(index, maxLegs)
+                .findFlights(query); results.hasNext(); ) {
+            final Map<String, Object> result = results.next();
+            actual.add(Math.round((double) result.get("time") * 60) + " min, " + result.get("legs") + " legs, arrival "
+                    + result.get("arrival"));
+        }
+        assertEquals("non-dominated routes of " + query, expected, actual);
+    }
+
+    private static boolean isDominated(final int[] route, final List<int[]> routes) {
+        for (final int[] other : routes) {
+            if (other[0] <= route[0] && other[1] <= route[1] && other[2] <= route[2]
+                    && (other[0] < route[0] || other[1] < route[1] || other[2] < route[2])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the travel time, the number of legs and the arrival of every route with at most {@code maxLegs}
+     * legs that doesn't visit an airport twice
+     */
+    private static List<int[]> allRoutes(final FlightIndex index, final int maxLegs, final RouteQuery query) {
+        final Timetable timetable = index.timetable;
+        final int origin = timetable.airportId(query.getOrigin());
+        final int date = (int) query.getTravelDate().toEpochDay();
+        final List<int[]> routes = new ArrayList<>();
+        for (int i = index.departureOffsets[origin]; i < index.departureOffsets[origin + 1]; i++) {
+            final int flight = index.departures[i];
+            final int l = index.leg[flight];
+            if (index.dayOfWeek[flight] == query.getTravelDate().getDayOfWeek().getValue()
+                    && timetable.departure(l) >= query.getDepartureMinTime()
+                    && timetable.departure(l) <= query.getDepartureMaxTime() && index.isValid(flight, date)) {
+                final Set<Integer> visited = new HashSet<>();
+                visited.add(origin);
+                visited.add(timetable.destination(l));
+                extend(index, maxLegs, query, timetable.departure(l), flight,
+                        timetable.departure(l) + timetable.duration(l), timetable.isOvernight(l) ? 1 : 0, 1, visited,
+                        routes);
+            }
+        }
+        return routes;
+    }
+
+    private static void extend(final FlightIndex index, final int maxLegs, final RouteQuery query, final int departure,
+                               final int flight, final int arrival, final int dateOffset, final int legs,
+                               final Set<Integer> visited, final List<int[]> routes) {
+        final Timetable timetable = index.timetable;
+        final int airport = timetable.destination(index.leg[flight]);
+        if (airport == timetable.airportId(query.getDestination())) {
+            routes.add(new int[]{arrival - departure, legs, arrival});
+            return;
+        }
+        if (legs == maxLegs) {
+            return;
+        }
+        for (int i = index.departureOffsets[airport]; i < index.departureOffsets[airport + 1]; i++) {
+            final int layover = layoverTime(index.arrival[flight], index.departureWeekMinutes[i]);
+            final int next = index.departures[i];
+            final int l = index.leg[next];
+            if (layover >= Math.max(query.getMinLayover(), index.minConnectTime[airport])
+                    && layover <= index.maxConnectTime[airport]
+                    && index.isValid(next, (int) query.getTravelDate().toEpochDay() + dateOffset)
+                    && visited.add(timetable.destination(l))) {
+                extend(index, maxLegs, query, departure, next, arrival + layover + timetable.duration(l),
+                        dateOffset + (timetable.isOvernight(l) ? 1 : 0), legs + 1, visited, routes);
+                visited.remove(timetable.destination(l));
+            }
+        }
+    }
+}
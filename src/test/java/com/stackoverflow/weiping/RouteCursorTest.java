@@ -0,0 +1,46 @@
+package com.stackoverflow.weiping;
+
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RouteCursorTest {
+
+    private static final RouteQuery QUERY = new RouteQuery(LocalDate.of(2019, 6, 12), "H0001", "S00010", 45, 0,
+            24 * 60 - 1);
+
+    @Test
+    public void pagesContinueWhereThePreviousPageStopped() {
+        final SyntheticSchedule schedule = new SyntheticSchedule(120, 8, 2, 3, 3, 7);
+        final RouteSearchEngine engine = RouteSearchEngine.create("native", schedule.timetable());
+        final List<Map<String, Object>> expected = new ArrayList<>();
+        engine.findFlights(QUERY).forEachRemaining(expected::add);
+        assertTrue(expected.size() > 3);
+
+        final List<Map<String, Object>> actual = new ArrayList<>();
+        try (RouteCursor cursor = new RouteCursor(engine, QUERY)) {
+            while (cursor.hasNext()) {
+                final List<Map<String, Object>> page = cursor.nextPage(3);
+                assertEquals(cursor.hasNext() ? 3 : (expected.size() - 1) % 3 + 1, page.size());
+                actual.addAll(page);
+                assertEquals(actual.size(), cursor.getPosition());
+            }
+            assertTrue(cursor.nextPage(3).isEmpty());
+            assertFalse(cursor.hasNext());
+        }
+        assertEquals(expected.toString(), actual.toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void pageSizeMustBePositive() {
+        final RouteSearchEngine engine = RouteSearchEngine.create("native", FlightRouteGraph.sampleTimetable());
+        new RouteCursor(engine, QUERY).nextPage(0);
+    }
+}
@@ -0,0 +1,167 @@
+package com.stackoverflow.weiping;
+
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static com.stackoverflow.weiping.util.TimeUtil.toMinutes;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Compares the engines on the sample schedule and on seeded synthetic schedules. The Gremlin traversal prunes routes
+ * depending on the order in which traversers arrive, so its results aren't compared one by one. Instead, for every
+ * query
+ * <ul>
+ *     <li>the native and the Pareto engine find the same fastest travel time, and the Gremlin engine finds routes if
+ *     and only if they do,</li>
+ *     <li>for the first flight of every Gremlin route, the native engine offers a route that is not slower, and</li>
+ *     <li>no route of any engine visits an airport twice, including the origin.</li>
+ * </ul>
+ */
+public class RouteSearchParityTest {
+
+    private static final LocalDate MONDAY = LocalDate.of(2019, 6, 10);
+
+    @Test
+    public void sampleQueries() {
+        final Timetable timetable = FlightRouteGraph.sampleTimetable();
+        final Engines engines = new Engines(timetable, ConnectionRules.UNRESTRICTED);
+        assertParity(engines, new RouteQuery(LocalDate.of(2019, 1, 24), "HNL", "LHR", 90,
+                toMinutes(LocalTime.of(8, 0)), toMinutes(LocalTime.of(12, 0))));
+        assertParity(engines, new RouteQuery(LocalDate.of(2019, 3, 19), "PDX", "CAN", 60,
+                toMinutes(LocalTime.of(15, 0)), toMinutes(LocalTime.of(20, 0))));
+        assertParity(engines, new RouteQuery(LocalDate.of(2019, 8, 20), "ORD", "CAN", 60,
+                toMinutes(LocalTime.of(6, 0)), toMinutes(LocalTime.of(10, 0)), "LAX"));
+    }
+
+    @Test
+    public void syntheticSchedules() {
+        for (final long seed : new long[]{7, 42}) {
+            final SyntheticSchedule schedule = new SyntheticSchedule(120, 8, 2, 3, 3, seed);
+            assertParity(schedule, new Engines(schedule.timetable(), ConnectionRules.UNRESTRICTED), seed, 40);
+        }
+    }
+
+    @Test
+    public void syntheticSchedulesWithMaxConnectTime() {
+        for (final long seed : new long[]{7, 42}) {
+            final SyntheticSchedule schedule = new SyntheticSchedule(120, 8, 2, 3, 3, seed);
+            assertParity(schedule, new Engines(schedule.timetable(), new ConnectionRules(0, 360)), seed, 100);
+        }
+    }
+
+    /**
+     * Routes back through the origin would connect to flights outside of the departure window.
+     */
+    @Test
+    public void routesDontReturnToTheOrigin() {
+        final SyntheticSchedule schedule = new SyntheticSchedule(120, 8, 2, 3, 3, 42);
+        final Engines engines = new Engines(schedule.timetable(), ConnectionRules.UNRESTRICTED);
+        assertParity(engines, new RouteQuery(LocalDate.of(2019, 6, 12), "H0004", "S00101", 45, 0, 24 * 60 - 1));
+    }
+
+    static void assertParity(final SyntheticSchedule schedule, final Engines engines, final long seed,
+                             final int queries) {
+        final Random random = new Random(seed);
+        for (int i = 0; i < queries; i++) {
+            final String origin = randomAirport(schedule, random);
+            final String destination = randomAirport(schedule, random);
+            if (origin.equals(destination)) {
+                continue;
+            }
+            final int departureMinTime = 60 * random.nextInt(24);
+            final int departureMaxTime = Math.min(24 * 60 - 1, departureMinTime + 60 * (1 + random.nextInt(12)));
+            assertParity(engines, new RouteQuery(MONDAY.plusDays(random.nextInt(7)), origin, destination, 45,
+                    departureMinTime, departureMaxTime));
+        }
+    }
+
+    static void assertParity(final Engines engines, final RouteQuery query) {
+        final List<Itinerary> nativeRoutes = routes("native", engines.nativeEngine, query);
+        final List<Itinerary> paretoRoutes = routes("pareto", engines.pareto, query);
+        final List<Itinerary> gremlinRoutes = routes("gremlin", engines.gremlin, query);
+
+        assertEquals("routes found by native and pareto for " + query, !paretoRoutes.isEmpty(), !nativeRoutes.isEmpty());
+        assertEquals("routes found by native and gremlin for " + query, !nativeRoutes.isEmpty(), !gremlinRoutes.isEmpty());
+        if (nativeRoutes.isEmpty()) {
+            return;
+        }
+        assertEquals("fastest travel time for " + query + ", native: " + nativeRoutes.get(0)
+                        + ", pareto: " + paretoRoutes.get(0),
+                paretoRoutes.get(0).getTravelTime(), nativeRoutes.get(0).getTravelTime());
+
+        final Map<String, Integer> fastestByFirstFlight = new HashMap<>();
+        for (final Itinerary route : nativeRoutes) {
+            fastestByFirstFlight.merge(firstFlight(route), route.getTravelTime(), Math::min);
+        }
+        for (final Itinerary route : gremlinRoutes) {
+            final Integer time = fastestByFirstFlight.get(firstFlight(route));
+            if (time == null || time > route.getTravelTime()) {
+                fail(String.format("Expected a native route not slower than %s for %s, found %s", route, query, time));
+            }
+        }
+    }
+
+    static List<Itinerary> routes(final String name, final RouteSearchEngine engine, final RouteQuery query) {
+        final List<Itinerary> routes = new ArrayList<>();
+        for (final Iterator<Itinerary> results = engine.findItineraries(query); results.hasNext(); ) {
+            final Itinerary route = results.next();
+            assertFalse(name + " returned a route that visits an airport twice for " + query + ": " + route,
+                    visitsAnAirportTwice(route));
+            assertTrue(name + " returned a route from another origin for " + query + ": " + route,
+                    route.getOrigin().equals(query.getOrigin()) && route.getDestination().equals(query.getDestination()));
+            routes.add(route);
+        }
+        return routes;
+    }
+
+    private static boolean visitsAnAirportTwice(final Itinerary route) {
+        final Set<String> airports = new HashSet<>();
+        airports.add(route.getOrigin());
+        for (int i = 0; i < route.getLegCount(); i++) {
+            if (!airports.add(route.getLeg(i).getTo())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String firstFlight(final Itinerary route) {
+        final Itinerary.Leg leg = route.getLeg(0);
+        return leg.getCarrier() + "-" + leg.getFlightNumber() + "@" + leg.getDepartureTime();
+    }
+
+    private static String randomAirport(final SyntheticSchedule schedule, final Random random) {
+        final int hub = random.nextInt(schedule.hubs());
+        final int spokes = (schedule.airports() - schedule.hubs()) / schedule.hubs();
+        return random.nextInt(4) == 0 ? schedule.hub(hub) : schedule.spoke(hub, random.nextInt(spokes));
+    }
+
+    /**
+     * The engines compared, on the same timetable and rules.
+     */
+    static final class Engines {
+
+        final RouteSearchEngine nativeEngine;
+        final RouteSearchEngine pareto;
+        final RouteSearchEngine gremlin;
+
+        Engines(final Timetable timetable, final ConnectionRules rules) {
+            nativeEngine = RouteSearchEngine.create("native", timetable, rules);
+            pareto = RouteSearchEngine.create("pareto", timetable, rules);
+            gremlin = RouteSearchEngine.create("gremlin", timetable, rules);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.stackoverflow.weiping;
+
+import org.apache.tinkerpop.gremlin.structure.Graph;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ScheduleLoaderTest {
+
+    /**
+     * AA-1 flies HNL-PDX-LHR, its second leg departs after midnight UTC; AA-2 arrives before it departs and AA-3
+     * more than a day after.
+     */
+    private static final String[] SSIM = {
+            "1AIRLINE STANDARD SCHEDULE DATA SET",
+            leg("AA", "0001", "01", "HNL", "0800", "-1000", "PDX", "1600", "-0700", ' ', ' '),
+            leg("AA", "0001", "02", "PDX", "1700", "-0700", "LHR", "1000", "+0100", ' ', '1'),
+            leg("AA", "0002", "01", "PDX", "1700", "-0700", "HNL", "1300", "-1000", ' ', ' '),
+            leg("AA", "0003", "01", "HNL", "2300", "-1000", "LHR", "0800", "+0100", ' ', '3'),
+    };
+
+    @Test
+    public void ssimTimesAreConvertedToUtc() throws IOException {
+        final LoadStats stats = new LoadStats();
+        final Timetable timetable = load(stats);
+
+        assertEquals(2, timetable.size());
+        assertEquals(1, stats.skippedDuration);
+        assertEquals(1, stats.skippedArrivalDay);
+
+        // 08:00 at UTC-10 to 16:00 at UTC-7
+        assertEquals(18 * 60, timetable.departure(0));
+        assertEquals(5 * 60, timetable.duration(0));
+        assertFalse(timetable.isOvernight(0));
+        assertEquals(LocalDate.of(2019, 6, 10).toEpochDay(), timetable.startDay(0));
+        assertEquals(0b0011111, timetable.days(0));
+
+        // 17:00 at UTC-7 is midnight UTC of the next day
+        assertEquals(0, timetable.departure(1));
+        assertEquals(9 * 60, timetable.duration(1));
+        assertFalse(timetable.isOvernight(1));
+        assertEquals(LocalDate.of(2019, 6, 11).toEpochDay(), timetable.startDay(1));
+        assertEquals(LocalDate.of(2019, 7, 1).toEpochDay(), timetable.endDay(1));
+        assertEquals(0b0111110, timetable.days(1));
+    }
+
+    @Test
+    public void legsOfMultiLegFlightsAreDistinctFlightVertices() throws IOException {
+        final Graph graph = FlightRouteGraph.createGraph(load(new LoadStats()));
+        assertEquals(10, graph.traversal().V().hasLabel("flight").count().next().intValue());
+        assertTrue(FlightRouteGraph.cancelFlight(graph, "AA", "1"));
+        assertEquals(0, graph.traversal().V().hasLabel("flight").count().next().intValue());
+    }
+
+    private static Timetable load(final LoadStats stats) throws IOException {
+        final Path file = Files.createTempFile("schedule", ".ssim");
+        try {
+            Files.write(file, Arrays.asList(SSIM), StandardCharsets.US_ASCII);
+            return ScheduleLoader.load(file, stats);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * @return a leg record operated Monday to Friday from 2019-06-10 to 2019-06-30
+     */
+    private static String leg(final String carrier, final String flightNumber, final String legSequence,
+                              final String from, final String departure, final String departureVariation,
+                              final String to, final String arrival, final String arrivalVariation,
+                              final char departureDays, final char arrivalDays) {
+        final char[] record = new char[200];
+        Arrays.fill(record, ' ');
+        put(record, 0, "3");
+        put(record, 2, carrier);
+        put(record, 5, flightNumber);
+        put(record, 9, "01");
+        put(record, 11, legSequence);
+        put(record, 13, "J");
+        put(record, 14, "10JUN19");
+        put(record, 21, "30JUN19");
+        put(record, 28, "12345  ");
+        put(record, 36, from);
+        put(record, 39, departure + departure + departureVariation);
+        put(record, 54, to);
+        put(record, 57, arrival + arrival + arrivalVariation);
+        record[192] = departureDays;
+        record[193] = arrivalDays;
+        return new String(record);
+    }
+
+    private static void put(final char[] record, final int at, final String field) {
+        field.getChars(0, field.length(), record, at);
+    }
+}
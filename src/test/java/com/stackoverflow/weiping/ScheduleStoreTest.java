@@ -0,0 +1,131 @@
+package com.stackoverflow.weiping;
+
+import org.junit.Test;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ScheduleStoreTest {
+
+    private static Flight flight(final String from, final String to, final DayOfWeek... days) {
+        return new Flight(from, to, "AA", "300", LocalDate.of(2019, 1, 23), LocalDate.of(2019, 3, 20),
+                LocalTime.of(8, 0), LocalTime.of(13, 0), false, days);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void batchRejectsDuplicateFlightNumberOnTheSameWeekday() {
+        new ScheduleUpdate.Builder()
+                .add(flight("HNL", "PDX", DayOfWeek.MONDAY, DayOfWeek.TUESDAY))
+                .add(flight("HNL", "LAX", DayOfWeek.TUESDAY));
+    }
+
+    @Test
+    public void batchAcceptsOtherLegsAndReplacedFlights() {
+        final ScheduleUpdate update = new ScheduleUpdate.Builder()
+                .add(flight("HNL", "PDX", DayOfWeek.MONDAY))
+                .add(flight("PDX", "LHR", DayOfWeek.MONDAY))
+                .add(flight("HNL", "PDX", DayOfWeek.TUESDAY))
+                .modify(flight("HNL", "LAX", DayOfWeek.MONDAY))
+                .add(flight("LAX", "CAN", DayOfWeek.MONDAY))
+                .build();
+        assertEquals(5, update.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void updateRejectsFlightNumberOfTheTimetable() {
+        final ScheduleStore store = new ScheduleStore(FlightRouteGraph.sampleTimetable(),
+                t -> RouteSearchEngine.create("native", t, ConnectionRules.UNRESTRICTED), Runnable::run);
+        store.apply(new ScheduleUpdate.Builder().add(new Flight("HNL", "LAX", "AA", "100", LocalDate.of(2019, 2, 1),
+                LocalDate.of(2019, 2, 28), LocalTime.of(9, 0), LocalTime.of(14, 0), false, DayOfWeek.SUNDAY))
+                .build());
+    }
+
+    @Test
+    public void rejectedBuildFailsTheUpdateAndLaterUpdatesAreBuilt() throws Exception {
+        final AtomicBoolean reject = new AtomicBoolean(true);
+        final ScheduleStore store = new ScheduleStore(FlightRouteGraph.sampleTimetable(),
+                t -> RouteSearchEngine.create("native", t, ConnectionRules.UNRESTRICTED), command -> {
+                    if (reject.get()) {
+                        throw new RejectedExecutionException();
+                    }
+                    command.run();
+                });
+
+        final CompletableFuture<ScheduleStore.Version> rejected = store.submit(
+                new ScheduleUpdate.Builder().cancel("AA", "100").build());
+        try {
+            rejected.get();
+            fail();
+        } catch (final ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+
+        reject.set(false);
+        assertEquals(2, store.submit(new ScheduleUpdate.Builder().cancel("AA", "201").build()).get().getNumber());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void concatenatedUpdatesRejectDuplicateFlightNumberOnTheSameWeekday() {
+        ScheduleUpdate.concat(Arrays.asList(
+                new ScheduleUpdate.Builder().add(flight("HNL", "PDX", DayOfWeek.MONDAY)).build(),
+                new ScheduleUpdate.Builder().add(flight("HNL", "PDX", DayOfWeek.MONDAY)).build()))
+                .applyTo(FlightRouteGraph.sampleTimetable());
+    }
+
+    @Test
+    public void invalidUpdateOnlyFailsItselfInACoalescedBatch() throws Exception {
+        for (final String engine : new String[]{"native", "gremlin"}) {
+            final Deque<Runnable> builds = new ArrayDeque<>();
+            final ScheduleStore store = new ScheduleStore(FlightRouteGraph.sampleTimetable(),
+                    t -> RouteSearchEngine.create(engine, t, ConnectionRules.UNRESTRICTED), builds::add);
+
+            final CompletableFuture<ScheduleStore.Version> cancelled = store.submit(
+                    new ScheduleUpdate.Builder().cancel("AA", "201").build());
+            final CompletableFuture<ScheduleStore.Version> added = store.submit(
+                    new ScheduleUpdate.Builder().add(flight("HNL", "PDX", DayOfWeek.MONDAY)).build());
+            final CompletableFuture<ScheduleStore.Version> duplicate = store.submit(
+                    new ScheduleUpdate.Builder().add(flight("HNL", "PDX", DayOfWeek.MONDAY)).build());
+            assertEquals(1, builds.size());
+            builds.poll().run();
+
+            assertEquals(engine, 2, cancelled.get().getNumber());
+            assertEquals(engine, 3, added.get().getNumber());
+            assertEquals(engine, 10 - 1 + 1, store.current().getTimetable().size());
+            try {
+                duplicate.get();
+                fail(engine);
+            } catch (final ExecutionException e) {
+                assertTrue(engine, e.getCause() instanceof IllegalArgumentException);
+            }
+        }
+    }
+
+    @Test
+    public void modifyKeepsTheOtherLegs() {
+        final Timetable timetable = new ScheduleUpdate.Builder()
+                .add(flight("HNL", "PDX", DayOfWeek.MONDAY))
+                .add(flight("PDX", "LHR", DayOfWeek.MONDAY))
+                .build()
+                .applyTo(FlightRouteGraph.sampleTimetable());
+        final Timetable modified = new ScheduleUpdate.Builder()
+                .modify(flight("PDX", "CAN", DayOfWeek.MONDAY))
+                .build()
+                .applyTo(timetable);
+
+        assertEquals(12, modified.size());
+        assertEquals("HNL", modified.airport(modified.origin(10)));
+        assertEquals("CAN", modified.airport(modified.destination(11)));
+    }
+}
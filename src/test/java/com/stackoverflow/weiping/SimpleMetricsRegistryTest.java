@@ -0,0 +1,56 @@
+package com.stackoverflow.weiping;
+
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SimpleMetricsRegistryTest {
+
+    @Test
+    public void histogramPercentilesAreAccurateWithinTheirBucket() {
+        final SimpleMetricsRegistry registry = new SimpleMetricsRegistry(1, TimeUnit.SECONDS);
+        for (int results = 1; results <= 100; results++) {
+            registry.recordQuery("native", 1000, results);
+        }
+        final SimpleMetricsRegistry.Histogram histogram = registry.getHistogram("native.results");
+        assertEquals(100, histogram.getCount());
+        assertEquals(100, histogram.getMax());
+        assertEquals(50.5, histogram.getMean(), 1e-9);
+        // 50 has 6 significant bits, so its bucket ends at 63; the one of 99 ends beyond the maximum
+        assertEquals(63, histogram.getPercentile(50));
+        assertEquals(100, histogram.getPercentile(99));
+        assertEquals(1000, registry.getHistogram("native.latency").getPercentile(50));
+        assertNull(registry.getHistogram("gremlin.results"));
+    }
+
+    @Test
+    public void searchWorkIsSummedUp() {
+        final SimpleMetricsRegistry registry = new SimpleMetricsRegistry(1, TimeUnit.SECONDS);
+        registry.recordSearchWork("gremlin", 10, 3);
+        registry.recordSearchWork("gremlin", 5, 0);
+        assertEquals(15, registry.getCount("gremlin.expandedEdges"));
+        assertEquals(3, registry.getCount("gremlin.prunedPaths"));
+        assertEquals(0, registry.getCount("native.expandedEdges"));
+        assertTrue(registry.toString(), registry.toString().contains("gremlin.expandedEdges 15\n"));
+    }
+
+    @Test
+    public void onlyTheLastSlowQueriesAreKept() {
+        final SimpleMetricsRegistry registry = new SimpleMetricsRegistry(1, TimeUnit.MILLISECONDS);
+        assertEquals(1_000_000, registry.getSlowQueryNanos());
+        for (int i = 0; i < 20; i++) {
+            registry.recordSlowQuery("native", new RouteQuery(LocalDate.of(2019, 1, 24), "HNL", "LHR", 90, i, i),
+                    2_000_000, i % 2 == 0 ? "profile " + i : null);
+        }
+        final String[] slowQueries = registry.getSlowQueries();
+        assertEquals(16, slowQueries.length);
+        assertTrue(slowQueries[0], slowQueries[0].endsWith(": 2.0 ms\nprofile 4"));
+        assertTrue(slowQueries[15], slowQueries[15].endsWith(": 2.0 ms"));
+        assertEquals(20, registry.getCount("native.slowQueries"));
+    }
+}
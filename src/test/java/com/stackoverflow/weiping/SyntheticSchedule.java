@@ -0,0 +1,181 @@
+package com.stackoverflow.weiping;
+
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static com.stackoverflow.weiping.util.TimeUtil.MINUTES_PER_DAY;
+
+/**
+ * Generates hub-and-spoke schedules of arbitrary size. Every spoke airport belongs to one hub and is served from
+ * and to it several times a day; hubs are connected in a ring plus a number of random long-haul links. Hence a
+ * spoke reaches its own hub directly, any other hub with one stop and the spokes of other hubs with two stops.
+ * <p>
+ * Like at real hubs, flights are organized in connection banks: flights from spokes arrive shortly before a bank
+ * and flights to spokes and other hubs depart right after it.
+ * <p>
+ * Most legs operate daily throughout {@link #FIRST_DAY} to {@link #LAST_DAY}, some only on a few weekdays or for a
+ * part of the year. The same arguments always produce the same schedule.
+ * <p>
+ * The {@link #geography airport coordinates} are consistent with the flight times between spokes and hubs, but not
+ * with the random flight times between hubs.
+ */
+class SyntheticSchedule {
+
+    static final LocalDate FIRST_DAY = LocalDate.of(2019, 1, 1);
+    static final LocalDate LAST_DAY = LocalDate.of(2019, 12, 31);
+
+    private static final int[] BANKS = {7 * 60, 11 * 60, 15 * 60, 19 * 60};
+
+    // the flight time of a spoke is taxi time plus distance / speed
+    private static final int TAXI_TIME = 30;
+    private static final double SPEED = 900 / 60.0; // km per minute
+
+    private final int airports;
+    private final int hubs;
+    private final Random random;
+    private final int[] flightNumbers;
+    private final int[] spokeDurations;
+    private final double[][] hubCoordinates;
+    private final long seed;
+    private final Timetable.Builder builder = new Timetable.Builder();
+
+    /**
+     * @param airports       total number of airports, including the hubs
+     * @param hubs           number of hubs
+     * @param spokeFrequency daily flights between a spoke and its hub (in each direction)
+     * @param hubLinks       random links per hub in addition to the ring
+     * @param hubFrequency   daily flights on a link between two hubs (in each direction)
+     */
+    SyntheticSchedule(final int airports, final int hubs, final int spokeFrequency,
+                      final int hubLinks, final int hubFrequency, final long seed) {
+
+        if (hubs < 2 || airports < 2 * hubs) {
+            throw new IllegalArgumentException(String.format(
+                    "Need at least 2 hubs and one spoke per hub: %d airports, %d hubs", airports, hubs));
+        }
+
+        this.airports = airports;
+        this.hubs = hubs;
+        this.random = new Random(seed);
+        this.flightNumbers = new int[hubs];
+        this.spokeDurations = new int[airports - hubs];
+        this.seed = seed;
+
+        // the hubs lie between 30 degrees south and north, over 150 degrees of longitude in the order of the ring
+        final Random hubRandom = new Random(seed);
+        this.hubCoordinates = new double[hubs][];
+        for (int hub = 0; hub < hubs; hub++) {
+            hubCoordinates[hub] = new double[]{60 * hubRandom.nextDouble() - 30, 150.0 * hub / hubs - 75};
+        }
+
+        for (int spoke = 0; spoke < airports - hubs; spoke++) {
+            final int hub = spoke % hubs;
+            final int duration = duration(45, 240);
+            spokeDurations[spoke] = duration;
+            for (int i = 0; i < spokeFrequency; i++) {
+                final int bank = BANKS[(spoke / hubs + i) % BANKS.length];
+                addLeg(hub, spokeName(spoke), hubName(hub), bank - duration - 45 - 5 * random.nextInt(10), duration);
+                addLeg(hub, hubName(hub), spokeName(spoke), bank + 5 * random.nextInt(7), duration);
+            }
+        }
+
+        for (int hub = 0; hub < hubs; hub++) {
+            final Set<Integer> links = new HashSet<>();
+            links.add((hub + 1) % hubs);
+            for (int i = 0; i < hubLinks && links.size() < hubs - 1; i++) {
+                final int other = random.nextInt(hubs);
+                if (other != hub) links.add(other);
+            }
+            for (final int other : links) {
+                final int duration = duration(90, 720);
+                for (int i = 0; i < hubFrequency; i++) {
+                    addLeg(hub, hubName(hub), hubName(other), BANKS[i % BANKS.length] + 5 * random.nextInt(7), duration);
+                    addLeg(other, hubName(other), hubName(hub), BANKS[i % BANKS.length] + 5 * random.nextInt(7), duration);
+                }
+            }
+        }
+    }
+
+    private int duration(final int min, final int max) {
+        return min + 5 * random.nextInt((max - min) / 5 + 1);
+    }
+
+    private void addLeg(final int hub, final String from, final String to, final int departure, final int duration) {
+
+        final int days = random.nextInt(100) < 85 ? 0x7f : 1 + random.nextInt(0x7f);
+
+        int startDay = (int) FIRST_DAY.toEpochDay();
+        int endDay = (int) LAST_DAY.toEpochDay();
+        if (random.nextInt(100) < 10) {
+            startDay += random.nextInt(180);
+            endDay -= random.nextInt(180);
+        }
+
+        builder.add(from, to, carrier(hub), Integer.toString(++flightNumbers[hub]), startDay, endDay,
+                departure, duration, departure + duration >= MINUTES_PER_DAY, days);
+    }
+
+    Timetable timetable() {
+        return builder.build();
+    }
+
+    /**
+     * @return coordinates for all airports; each spoke lies in a random direction from its hub, at the distance
+     * that matches its flight time
+     */
+    Geography geography(final double detourFactor) {
+        final Random random = new Random(seed + 1);
+        final Map<String, double[]> coordinates = new HashMap<>();
+        for (int hub = 0; hub < hubs; hub++) {
+            coordinates.put(hubName(hub), hubCoordinates[hub]);
+        }
+        for (int spoke = 0; spoke < airports - hubs; spoke++) {
+            final double[] hub = hubCoordinates[spoke % hubs];
+            final double distance = (spokeDurations[spoke] - TAXI_TIME) * SPEED / 6371; // radians
+            final double bearing = 2 * Math.PI * random.nextDouble();
+            final double lat1 = Math.toRadians(hub[0]);
+            final double lat2 = Math.asin(Math.sin(lat1) * Math.cos(distance)
+                    + Math.cos(lat1) * Math.sin(distance) * Math.cos(bearing));
+            final double lon2 = Math.toRadians(hub[1]) + Math.atan2(Math.sin(bearing) * Math.sin(distance) * Math.cos(lat1),
+                    Math.cos(distance) - Math.sin(lat1) * Math.sin(lat2));
+            coordinates.put(spokeName(spoke), new double[]{
+                    Math.toDegrees(lat2), Math.toDegrees(Math.IEEEremainder(lon2, 2 * Math.PI))});
+        }
+        return new Geography(detourFactor).withAirports(coordinates);
+    }
+
+    int airports() {
+        return airports;
+    }
+
+    int hubs() {
+        return hubs;
+    }
+
+    String hub(final int hub) {
+        return hubName(hub % hubs);
+    }
+
+    /**
+     * @return the n-th spoke of the given hub
+     */
+    String spoke(final int hub, final int n) {
+        return spokeName((hub % hubs) + n * hubs);
+    }
+
+    private static String hubName(final int hub) {
+        return String.format("H%04d", hub);
+    }
+
+    private static String spokeName(final int spoke) {
+        return String.format("S%05d", spoke);
+    }
+
+    private static String carrier(final int hub) {
+        return new String(new char[]{(char) ('A' + hub / 26 % 26), (char) ('A' + hub % 26)});
+    }
+}